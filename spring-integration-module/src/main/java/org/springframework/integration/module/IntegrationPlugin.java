@@ -69,4 +69,9 @@ public class IntegrationPlugin implements Plugin {
 		}
 	}
 
+	@Override
+	public void removeModule(Module module, String group, int index) {
+		// TODO: unbind the channels once ChannelRegistry supports it
+	}
+
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.channel.registry;
+
+import java.util.Properties;
+
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.channel.registry.ChannelRegistry;
+
+/**
+ * A {@link ChannelRegistry} that accepts per-channel consumer and producer
+ * settings, typically taken from the deployment parameters of a module.
+ * Implementations ignore the properties they do not support.
+ *
+ * @author agent
+ */
+public interface ConfigurableChannelRegistry extends ChannelRegistry {
+
+	/**
+	 * The number of concurrent consumers of a channel, and for a producer the
+	 * number of consumers it should partition messages for.
+	 */
+	String CONCURRENCY = "concurrency";
+
+	/**
+	 * The header whose value assigns a message to a partition. When set, messages
+	 * with the same header value are consumed in order by the same consumer.
+	 */
+	String PARTITION_HEADER = "partitionHeader";
+
+	/**
+	 * A SpEL expression evaluated against each message to get the key that
+	 * assigns it to a partition. Takes precedence over the partition header.
+	 */
+	String PARTITION_KEY_EXPRESSION = "partitionKeyExpression";
+
+	/**
+	 * The number of partitions of a partitioned channel, when it differs from
+	 * the concurrency of its consumer.
+	 */
+	String PARTITION_COUNT = "partitionCount";
+
+	/**
+	 * A comma-delimited list of the partitions a consumer instance binds to,
+	 * when the partitions of a channel are shared among several instances.
+	 */
+	String PARTITIONS = "partitions";
+
+	/**
+	 * Set to "true" for a producer whose messages only need to reach the taps of
+	 * the channel because its consumer is attached by other means.
+	 */
+	String PUBLISH_ONLY = "publishOnly";
+
+	void inbound(String name, MessageChannel channel, Properties properties);
+
+	void outbound(String name, MessageChannel channel, Properties properties);
+
+	/**
+	 * Remove every binding of the channel made through {@link #inbound},
+	 * {@link #outbound} or {@link #tap}, stopping the adapters behind it, e.g.
+	 * when the module that owns the channel is undeployed.
+	 */
+	void unbind(MessageChannel channel);
+
+}
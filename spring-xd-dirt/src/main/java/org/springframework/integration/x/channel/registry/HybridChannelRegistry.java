@@ -0,0 +1,341 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.channel.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.Lifecycle;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessageDeliveryException;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.registry.ChannelRegistry;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.core.SubscribableChannel;
+import org.springframework.integration.endpoint.EventDrivenConsumer;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link ChannelRegistry} that connects a producer directly to a consumer of the
+ * same channel registered in this JVM, and delegates everything else to a remote
+ * registry. A short-circuited producer hands each message to the consumer's
+ * channel on its own thread and then to a channel of its own, which the remote
+ * registry only publishes to the channel's taps; that requires the remote
+ * registry to be a {@link ConfigurableChannelRegistry}. A single subscriber
+ * does both, since the output channel of a module may dispatch to only one.
+ * <p>
+ * Consumers are always registered remotely as well, since their producer may live
+ * in another container. A producer is only short-circuited while its channel has
+ * exactly one local consumer, and only if that consumer neither has a
+ * {@value ConfigurableChannelRegistry#CONCURRENCY} above 1, which the synchronous
+ * handoff would defeat, nor is bound to a subset of the
+ * {@value ConfigurableChannelRegistry#PARTITIONS} of its channel, since the other
+ * partitions belong to other instances. Producers are connected again whenever
+ * that changes, for example when a second local instance of the consumer is
+ * bound or the local consumer is {@link #unbind(MessageChannel) unbound}.
+ * <p>
+ * Consumers in other containers are not visible to this registry. A producer
+ * short-circuited to a local consumer therefore takes all traffic away from
+ * remote instances of the same consumer; deploy those with a concurrency or
+ * partitions, or without a co-located producer, to share the load.
+ *
+ * @author agent
+ */
+public class HybridChannelRegistry implements ConfigurableChannelRegistry, DisposableBean {
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final ChannelRegistry remoteRegistry;
+
+	private final Map<String, List<LocalConsumer>> localConsumers = new HashMap<String, List<LocalConsumer>>();
+
+	private final List<Producer> producers = new ArrayList<Producer>();
+
+
+	public HybridChannelRegistry(ChannelRegistry remoteRegistry) {
+		Assert.notNull(remoteRegistry, "remoteRegistry must not be null");
+		this.remoteRegistry = remoteRegistry;
+	}
+
+
+	@Override
+	public void inbound(String name, MessageChannel channel) {
+		this.inbound(name, channel, new Properties());
+	}
+
+	@Override
+	public void inbound(String name, MessageChannel channel, Properties properties) {
+		boolean exclusive = properties.getProperty(PARTITIONS) == null
+				&& Integer.parseInt(properties.getProperty(CONCURRENCY, "1")) <= 1;
+		synchronized (this.producers) {
+			List<LocalConsumer> consumers = this.localConsumers.get(name);
+			if (consumers == null) {
+				consumers = new ArrayList<LocalConsumer>();
+				this.localConsumers.put(name, consumers);
+			}
+			consumers.add(new LocalConsumer(channel, exclusive));
+			if (this.remoteRegistry instanceof ConfigurableChannelRegistry) {
+				((ConfigurableChannelRegistry) this.remoteRegistry).inbound(name, channel, properties);
+			}
+			else {
+				this.remoteRegistry.inbound(name, channel);
+			}
+			this.reconnect(name);
+		}
+	}
+
+	@Override
+	public void outbound(String name, MessageChannel channel) {
+		this.outbound(name, channel, new Properties());
+	}
+
+	@Override
+	public void outbound(String name, MessageChannel channel, Properties properties) {
+		synchronized (this.producers) {
+			Producer producer = new Producer(name, channel, properties);
+			this.producers.add(producer);
+			this.connect(producer);
+		}
+	}
+
+	@Override
+	public void tap(String name, MessageChannel channel) {
+		this.remoteRegistry.tap(name, channel);
+	}
+
+	/**
+	 * Remove the channel from the local consumers and producers and unbind it
+	 * remotely. The producers of a channel it was a consumer of are connected
+	 * again, in memory if a sole local consumer remains, else remotely.
+	 */
+	@Override
+	public void unbind(MessageChannel channel) {
+		synchronized (this.producers) {
+			List<String> names = new ArrayList<String>();
+			for (Map.Entry<String, List<LocalConsumer>> entry : this.localConsumers.entrySet()) {
+				for (Iterator<LocalConsumer> iterator = entry.getValue().iterator(); iterator.hasNext();) {
+					if (iterator.next().channel == channel) {
+						iterator.remove();
+						names.add(entry.getKey());
+					}
+				}
+			}
+			List<MessageChannel> tapChannels = new ArrayList<MessageChannel>();
+			for (Iterator<Producer> iterator = this.producers.iterator(); iterator.hasNext();) {
+				Producer producer = iterator.next();
+				if (producer.channel == channel) {
+					iterator.remove();
+					if (producer.remoteChannel != channel) {
+						tapChannels.add(producer.remoteChannel);
+					}
+					this.stopBridge(producer);
+				}
+			}
+			if (this.remoteRegistry instanceof ConfigurableChannelRegistry) {
+				((ConfigurableChannelRegistry) this.remoteRegistry).unbind(channel);
+				for (MessageChannel tapChannel : tapChannels) {
+					((ConfigurableChannelRegistry) this.remoteRegistry).unbind(tapChannel);
+				}
+			}
+			for (String name : names) {
+				this.reconnect(name);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (this.producers) {
+			for (Producer producer : this.producers) {
+				this.stopBridge(producer);
+			}
+			this.producers.clear();
+			this.localConsumers.clear();
+		}
+	}
+
+	/**
+	 * Return the channel of the only local consumer of the given channel name, or
+	 * null if there is none or it may not be short-circuited.
+	 */
+	private MessageChannel soleLocalConsumer(String name) {
+		List<LocalConsumer> consumers = this.localConsumers.get(name);
+		if (consumers == null || consumers.size() != 1 || !consumers.get(0).exclusive) {
+			return null;
+		}
+		return consumers.get(0).channel;
+	}
+
+	private void connect(Producer producer) {
+		MessageChannel consumer = this.soleLocalConsumer(producer.name);
+		if (consumer == null || !(producer.channel instanceof SubscribableChannel)
+				|| !(this.remoteRegistry instanceof ConfigurableChannelRegistry)) {
+			producer.remoteChannel = producer.channel;
+			if (this.remoteRegistry instanceof ConfigurableChannelRegistry) {
+				((ConfigurableChannelRegistry) this.remoteRegistry).outbound(producer.name, producer.channel,
+						producer.properties);
+			}
+			else {
+				this.remoteRegistry.outbound(producer.name, producer.channel);
+			}
+			return;
+		}
+		DirectChannel tapChannel = new DirectChannel();
+		tapChannel.setBeanName(producer.name + ".taps");
+		Properties tapProperties = new Properties();
+		tapProperties.putAll(producer.properties);
+		tapProperties.setProperty(PUBLISH_ONLY, "true");
+		((ConfigurableChannelRegistry) this.remoteRegistry).outbound(producer.name, tapChannel, tapProperties);
+		EventDrivenConsumer endpoint = new EventDrivenConsumer((SubscribableChannel) producer.channel,
+				new ShortCircuitHandler(producer.name, consumer, tapChannel));
+		endpoint.afterPropertiesSet();
+		producer.consumer = consumer;
+		producer.remoteChannel = tapChannel;
+		producer.bridge = endpoint;
+		endpoint.start();
+		if (logger.isInfoEnabled()) {
+			logger.info("connected producer and consumer of channel '" + producer.name + "' in memory");
+		}
+	}
+
+	/**
+	 * Connect the producers of the given channel name again whose local
+	 * consumer, or lack of one, has changed.
+	 */
+	private void reconnect(String name) {
+		MessageChannel consumer = this.soleLocalConsumer(name);
+		for (Producer producer : this.producers) {
+			if (!producer.name.equals(name) || producer.consumer == consumer) {
+				continue;
+			}
+			if (!(this.remoteRegistry instanceof ConfigurableChannelRegistry)) {
+				// the remote binding cannot be undone, so keep what there is
+				continue;
+			}
+			this.stopBridge(producer);
+			((ConfigurableChannelRegistry) this.remoteRegistry).unbind(producer.remoteChannel);
+			this.connect(producer);
+		}
+	}
+
+	private void stopBridge(Producer producer) {
+		Lifecycle bridge = producer.bridge;
+		producer.bridge = null;
+		producer.consumer = null;
+		if (bridge == null) {
+			return;
+		}
+		try {
+			bridge.stop();
+		}
+		catch (Exception e) {
+			if (logger.isWarnEnabled()) {
+				logger.warn("failed to stop bridge", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Hands each message of a short-circuited producer to the local consumer,
+	 * then to the channel that publishes it to taps.
+	 */
+	private class ShortCircuitHandler implements MessageHandler {
+
+		private final String name;
+
+		private final MessageChannel consumer;
+
+		private final MessageChannel tapChannel;
+
+		ShortCircuitHandler(String name, MessageChannel consumer, MessageChannel tapChannel) {
+			this.name = name;
+			this.consumer = consumer;
+			this.tapChannel = tapChannel;
+		}
+
+		@Override
+		public void handleMessage(Message<?> message) {
+			if (!this.consumer.send(message)) {
+				throw new MessageDeliveryException(message, "failed to send message to the consumer of channel '"
+						+ this.name + "'");
+			}
+			try {
+				this.tapChannel.send(message);
+			}
+			catch (RuntimeException e) {
+				// the consumer has the message, so the producer must not send it again
+				if (logger.isWarnEnabled()) {
+					logger.warn("failed to publish message to the taps of channel '" + this.name + "'", e);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A consumer of a channel bound in this JVM.
+	 */
+	private static class LocalConsumer {
+
+		private final MessageChannel channel;
+
+		/** whether producers may hand all messages to it directly */
+		private final boolean exclusive;
+
+		LocalConsumer(MessageChannel channel, boolean exclusive) {
+			this.channel = channel;
+			this.exclusive = exclusive;
+		}
+	}
+
+
+	/**
+	 * A producer of a channel bound in this JVM, with the local consumer it is
+	 * connected to in memory, if any.
+	 */
+	private static class Producer {
+
+		private final String name;
+
+		private final MessageChannel channel;
+
+		private final Properties properties;
+
+		private MessageChannel consumer;
+
+		/** the channel bound in the remote registry: the producer's own or its tap channel */
+		private MessageChannel remoteChannel;
+
+		private Lifecycle bridge;
+
+		Producer(String name, MessageChannel channel, Properties properties) {
+			this.name = name;
+			this.channel = channel;
+			this.properties = properties;
+		}
+	}
+
+}
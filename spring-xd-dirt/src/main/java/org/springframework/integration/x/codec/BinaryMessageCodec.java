@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageHeaders;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * A compact binary {@link MessageCodec}. The encoded form is a version byte, a
+ * length-prefixed table of headers and the payload. Well-known header names are
+ * written as a single byte index instead of a string, and {@code byte[]} and
+ * {@link String} payloads are copied without any intermediate representation.
+ * Other payloads and header values are written with Java serialization.
+ * <p>
+ * The {@link MessageHeaders#ID id} and {@link MessageHeaders#TIMESTAMP timestamp}
+ * headers are not transmitted since they are regenerated for the decoded message.
+ * Header values that are not {@link Serializable} (e.g. a reply channel instance)
+ * are dropped.
+ *
+ * @author agent
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+	private static final byte VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] KNOWN_KEYS = {
+			MessageHeaders.CORRELATION_ID,
+			MessageHeaders.REPLY_CHANNEL,
+			MessageHeaders.ERROR_CHANNEL,
+			MessageHeaders.EXPIRATION_DATE,
+			MessageHeaders.PRIORITY,
+			MessageHeaders.SEQUENCE_NUMBER,
+			MessageHeaders.SEQUENCE_SIZE,
+			MessageHeaders.SEQUENCE_DETAILS,
+			"contentType",
+			"properties"
+	};
+
+	private static final Map<String, Byte> KNOWN_KEY_INDEXES = new HashMap<String, Byte>();
+
+	static {
+		for (byte i = 0; i < KNOWN_KEYS.length; i++) {
+			KNOWN_KEY_INDEXES.put(KNOWN_KEYS[i], i);
+		}
+	}
+
+	private static final byte CUSTOM_KEY = -1;
+
+	private static final byte TYPE_NULL = 0;
+
+	private static final byte TYPE_BYTES = 1;
+
+	private static final byte TYPE_STRING = 2;
+
+	private static final byte TYPE_LONG = 3;
+
+	private static final byte TYPE_INTEGER = 4;
+
+	private static final byte TYPE_BOOLEAN = 5;
+
+	private static final byte TYPE_DOUBLE = 6;
+
+	private static final byte TYPE_UUID = 7;
+
+	private static final byte TYPE_SERIALIZED = 8;
+
+
+	@Override
+	public byte[] encode(Message<?> message) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			Map<String, Object> headers = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> header : message.getHeaders().entrySet()) {
+				String key = header.getKey();
+				Object value = header.getValue();
+				if (!MessageHeaders.ID.equals(key) && !MessageHeaders.TIMESTAMP.equals(key)
+						&& (value == null || value instanceof Serializable)) {
+					headers.put(key, value);
+				}
+			}
+			out.writeShort(headers.size());
+			for (Map.Entry<String, Object> header : headers.entrySet()) {
+				Byte index = KNOWN_KEY_INDEXES.get(header.getKey());
+				if (index != null) {
+					out.writeByte(index);
+				}
+				else {
+					out.writeByte(CUSTOM_KEY);
+					writeBytes(out, header.getKey().getBytes(UTF8));
+				}
+				writeValue(out, header.getValue());
+			}
+			Object payload = message.getPayload();
+			writeValue(out, (payload instanceof Serializable) ? payload : payload.toString());
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			throw new MessagingException(message, "failed to encode message", e);
+		}
+	}
+
+	@Override
+	public Message<?> decode(byte[] bytes) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new MessagingException("unsupported encoding version: " + version);
+			}
+			int headerCount = in.readUnsignedShort();
+			Map<String, Object> headers = new HashMap<String, Object>(headerCount * 2);
+			for (int i = 0; i < headerCount; i++) {
+				byte index = in.readByte();
+				String key = (index == CUSTOM_KEY) ? new String(readBytes(in), UTF8) : KNOWN_KEYS[index];
+				headers.put(key, readValue(in));
+			}
+			Object payload = readValue(in);
+			return MessageBuilder.withPayload(payload).copyHeaders(headers).build();
+		}
+		catch (IOException e) {
+			throw new MessagingException("failed to decode message", e);
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TYPE_NULL);
+		}
+		else if (value instanceof byte[]) {
+			out.writeByte(TYPE_BYTES);
+			writeBytes(out, (byte[]) value);
+		}
+		else if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeBytes(out, ((String) value).getBytes(UTF8));
+		}
+		else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		}
+		else if (value instanceof Integer) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt((Integer) value);
+		}
+		else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		}
+		else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (value instanceof UUID) {
+			out.writeByte(TYPE_UUID);
+			out.writeLong(((UUID) value).getMostSignificantBits());
+			out.writeLong(((UUID) value).getLeastSignificantBits());
+		}
+		else {
+			out.writeByte(TYPE_SERIALIZED);
+			writeBytes(out, SerializationUtils.serialize(value));
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case TYPE_NULL:
+				return null;
+			case TYPE_BYTES:
+				return readBytes(in);
+			case TYPE_STRING:
+				return new String(readBytes(in), UTF8);
+			case TYPE_LONG:
+				return in.readLong();
+			case TYPE_INTEGER:
+				return in.readInt();
+			case TYPE_BOOLEAN:
+				return in.readBoolean();
+			case TYPE_DOUBLE:
+				return in.readDouble();
+			case TYPE_UUID:
+				return new UUID(in.readLong(), in.readLong());
+			case TYPE_SERIALIZED:
+				return SerializationUtils.deserialize(readBytes(in));
+			default:
+				throw new IOException("unknown value type: " + type);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.codec;
+
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * A {@link MessageCodec} that writes the message as a JSON document with
+ * "headers" and "payload" properties.
+ *
+ * @author agent
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Override
+	public byte[] encode(Message<?> message) {
+		try {
+			return this.objectMapper.writeValueAsBytes(message);
+		}
+		catch (Exception e) {
+			throw new MessagingException(message, "failed to encode message as JSON", e);
+		}
+	}
+
+	@Override
+	public Message<?> decode(byte[] bytes) {
+		try {
+			MessageDeserializationWrapper wrapper = this.objectMapper.readValue(bytes, MessageDeserializationWrapper.class);
+			return wrapper.getMessage();
+		}
+		catch (Exception e) {
+			throw new MessagingException("failed to decode message from JSON", e);
+		}
+	}
+
+
+	@SuppressWarnings("unused") // used by object mapper
+	private static class MessageDeserializationWrapper {
+
+		private volatile Map<String, Object> headers;
+
+		private volatile Object payload;
+
+		private volatile Message<?> message;
+
+		void setHeaders(Map<String, Object> headers) {
+			this.headers = headers;
+		}
+
+		void setPayload(Object payload) {
+			this.payload = payload;
+		}
+
+		Message<?> getMessage() {
+			if (this.message == null) {
+				this.message = MessageBuilder.withPayload(this.payload).copyHeaders(this.headers).build();
+			}
+			return this.message;
+		}
+	}
+
+}
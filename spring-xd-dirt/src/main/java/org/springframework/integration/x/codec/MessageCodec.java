@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.codec;
+
+import org.springframework.integration.Message;
+
+/**
+ * Strategy for converting a {@link Message} to and from the bytes that travel
+ * through a channel registry transport.
+ *
+ * @author agent
+ */
+public interface MessageCodec {
+
+	/**
+	 * Encode the given message, including its headers.
+	 * @throws org.springframework.integration.MessagingException if the message cannot be encoded
+	 */
+	byte[] encode(Message<?> message);
+
+	/**
+	 * Decode a message previously produced by {@link #encode(Message)}.
+	 * @throws org.springframework.integration.MessagingException if the bytes cannot be decoded
+	 */
+	Message<?> decode(byte[] bytes);
+
+}
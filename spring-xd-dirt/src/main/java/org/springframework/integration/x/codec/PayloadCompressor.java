@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.integration.MessagingException;
+import org.springframework.util.Assert;
+
+/**
+ * Compresses the values sent through a channel registry transport with Deflate.
+ * Values smaller than the {@link #setThreshold(int) threshold}, and values that
+ * do not get any smaller, are sent as they are. Compressed values start with a
+ * two byte marker (0xFF 'Z') that can occur neither in UTF-8 text nor at the
+ * start of a {@link BinaryMessageCodec} message, so {@link #decompress(byte[])}
+ * passes values from senders without compression through unchanged. An
+ * uncompressed value that happens to start with 0xFF is wrapped, so that the
+ * values returned by {@link #compress(byte[])} start with 0xFF only for the
+ * marker, and transports can put frames of their own with other 0xFF markers
+ * in front of them.
+ * <p>
+ * Short, repetitive values such as syslog lines compress poorly on their own.
+ * For those a preset dictionary can be {@link #setDictionary(byte[]) set}, or
+ * {@link #setTrainingSamples(int) trained} from the first values sent. A value
+ * compressed with a dictionary carries the dictionary's Adler-32 checksum; the
+ * receiving side looks the dictionary up in the {@link DictionaryStore} shared
+ * with the sender.
+ *
+ * @author agent
+ */
+public class PayloadCompressor {
+
+	private static final byte MARKER_0 = (byte) 0xFF;
+
+	private static final byte MARKER_1 = 'Z';
+
+	private static final byte STORED = 0;
+
+	private static final byte DEFLATED = 1;
+
+	private static final int MAX_DICTIONARY_SIZE = 16 * 1024;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private volatile int threshold = 1024;
+
+	private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+	private volatile byte[] dictionary;
+
+	private volatile int trainingSamples;
+
+	private final List<byte[]> samples = new ArrayList<byte[]>();
+
+	private final Map<Long, byte[]> dictionaries = new ConcurrentHashMap<Long, byte[]>();
+
+	private volatile DictionaryStore dictionaryStore;
+
+
+	/**
+	 * Set the size in bytes from which values are compressed. Default is 1024.
+	 */
+	public void setThreshold(int threshold) {
+		Assert.isTrue(threshold >= 0, "threshold must not be negative");
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Set the Deflate compression level, from 1 (fastest) to 9 (smallest).
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Set a preset dictionary: byte sequences expected to occur in the values,
+	 * the most common last. It is saved to the {@link DictionaryStore}, if any.
+	 */
+	public void setDictionary(byte[] dictionary) {
+		Assert.notNull(dictionary, "dictionary must not be null");
+		this.useDictionary(dictionary);
+	}
+
+	/**
+	 * Set the number of values to sample before training a dictionary from them.
+	 * Until then values are compressed without a dictionary. Since dictionaries
+	 * pay off for small values, this is usually combined with a low threshold.
+	 * Default is 0, meaning that no dictionary is trained.
+	 */
+	public void setTrainingSamples(int trainingSamples) {
+		Assert.isTrue(trainingSamples >= 0, "trainingSamples must not be negative");
+		this.trainingSamples = trainingSamples;
+	}
+
+	/**
+	 * Set the store through which dictionaries are shared with the other side.
+	 */
+	public void setDictionaryStore(DictionaryStore dictionaryStore) {
+		this.dictionaryStore = dictionaryStore;
+	}
+
+	/**
+	 * Return whether the value was produced by {@link #compress(byte[])}.
+	 */
+	public static boolean isCompressed(byte[] value) {
+		return value.length > 2 && value[0] == MARKER_0 && value[1] == MARKER_1;
+	}
+
+	public byte[] compress(byte[] value) {
+		if (this.dictionary == null && this.trainingSamples > 0) {
+			this.sample(value);
+		}
+		if (value.length >= this.threshold && value.length > 0) {
+			byte[] compressed = this.deflate(value);
+			if (compressed.length < value.length) {
+				return compressed;
+			}
+		}
+		if (value.length > 0 && value[0] == MARKER_0) {
+			byte[] stored = new byte[value.length + 3];
+			stored[0] = MARKER_0;
+			stored[1] = MARKER_1;
+			stored[2] = STORED;
+			System.arraycopy(value, 0, stored, 3, value.length);
+			return stored;
+		}
+		return value;
+	}
+
+	/**
+	 * Return the original of a compressed value, or the value itself if it is
+	 * not compressed.
+	 * @throws MessagingException if the value is corrupt or its dictionary is unknown
+	 */
+	public byte[] decompress(byte[] value) {
+		if (!isCompressed(value)) {
+			return value;
+		}
+		if (value[2] == STORED) {
+			return Arrays.copyOfRange(value, 3, value.length);
+		}
+		if (value[2] != DEFLATED) {
+			throw new MessagingException("unknown compression method " + value[2]);
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(value, 3, value.length - 3);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(this.dictionary(inflater.getAdler() & 0xFFFFFFFFL));
+					}
+					else if (inflater.needsInput()) {
+						throw new MessagingException("truncated compressed value");
+					}
+				}
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		catch (DataFormatException e) {
+			throw new MessagingException("corrupt compressed value", e);
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	private byte[] deflate(byte[] value) {
+		Deflater deflater = new Deflater(this.level);
+		try {
+			byte[] dictionary = this.dictionary;
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(value);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 16);
+			out.write(MARKER_0);
+			out.write(MARKER_1);
+			out.write(DEFLATED);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	private byte[] dictionary(long id) {
+		byte[] dictionary = this.dictionaries.get(id);
+		if (dictionary == null && this.dictionaryStore != null) {
+			dictionary = this.dictionaryStore.load(id);
+			if (dictionary != null) {
+				this.dictionaries.put(id, dictionary);
+			}
+		}
+		if (dictionary == null) {
+			throw new MessagingException("unknown compression dictionary " + id);
+		}
+		return dictionary;
+	}
+
+	private void useDictionary(byte[] dictionary) {
+		Adler32 adler = new Adler32();
+		adler.update(dictionary);
+		long id = adler.getValue();
+		this.dictionaries.put(id, dictionary);
+		if (this.dictionaryStore != null) {
+			this.dictionaryStore.save(id, dictionary);
+		}
+		this.dictionary = dictionary;
+	}
+
+	private void sample(byte[] value) {
+		List<byte[]> samples = null;
+		synchronized (this.samples) {
+			if (this.dictionary != null || this.samples.size() >= this.trainingSamples) {
+				return;
+			}
+			this.samples.add(value);
+			if (this.samples.size() == this.trainingSamples) {
+				samples = new ArrayList<byte[]>(this.samples);
+				this.samples.clear();
+			}
+		}
+		if (samples != null) {
+			byte[] dictionary = train(samples, MAX_DICTIONARY_SIZE);
+			if (dictionary.length > 0) {
+				this.useDictionary(dictionary);
+			}
+		}
+	}
+
+	/**
+	 * Build a dictionary from the tokens (runs of characters up to and including
+	 * a delimiter) that save the most bytes across the samples. Deflate reaches
+	 * the end of the dictionary with the shortest distances, so the most valuable
+	 * tokens go last.
+	 */
+	static byte[] train(List<byte[]> samples, int maxSize) {
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (byte[] sample : samples) {
+			String text = new String(sample, ISO_8859_1);
+			int start = 0;
+			for (int i = 0; i < text.length(); i++) {
+				if (!Character.isLetterOrDigit(text.charAt(i)) || i == text.length() - 1) {
+					String token = text.substring(start, i + 1);
+					if (token.length() > 2) {
+						Integer count = counts.get(token);
+						counts.put(token, (count == null) ? 1 : count + 1);
+					}
+					start = i + 1;
+				}
+			}
+		}
+		List<String> tokens = new ArrayList<String>();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() > 1) {
+				tokens.add(entry.getKey());
+			}
+		}
+		Collections.sort(tokens, new Comparator<String>() {
+			@Override
+			public int compare(String left, String right) {
+				long leftSavings = (long) counts.get(left) * left.length();
+				long rightSavings = (long) counts.get(right) * right.length();
+				return (leftSavings < rightSavings) ? 1 : (leftSavings > rightSavings) ? -1 : left.compareTo(right);
+			}
+		});
+		StringBuilder dictionary = new StringBuilder();
+		for (String token : tokens) {
+			if (dictionary.length() + token.length() > maxSize) {
+				break;
+			}
+			dictionary.insert(0, token);
+		}
+		return dictionary.toString().getBytes(ISO_8859_1);
+	}
+
+
+	/**
+	 * Shares dictionaries between the compressing and decompressing sides, keyed
+	 * by their Adler-32 checksum.
+	 */
+	public interface DictionaryStore {
+
+		void save(long id, byte[] dictionary);
+
+		/**
+		 * Return the dictionary with the given id, or null if there is none.
+		 */
+		byte[] load(long id);
+
+	}
+
+}
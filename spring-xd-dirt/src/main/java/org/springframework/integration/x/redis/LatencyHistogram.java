@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values that many threads can record into without
+ * locking. Buckets are log-linear in the manner of HdrHistogram: every power of
+ * two is split into 16 equal sub-buckets, so reported percentiles are within
+ * about 6% of the recorded values whatever their magnitude.
+ * <p>
+ * {@link #snapshot()} takes the recorded values and starts over. Values recorded
+ * while a snapshot is taken end up in either that snapshot or the next one.
+ *
+ * @author agent
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong max = new AtomicLong();
+
+
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		this.counts.incrementAndGet(index(value));
+		long current = this.max.get();
+		while (value > current && !this.max.compareAndSet(current, value)) {
+			current = this.max.get();
+		}
+	}
+
+	Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.counts.getAndSet(i, 0);
+			total += counts[i];
+		}
+		return new Snapshot(counts, total, this.max.getAndSet(0));
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * Return the largest value that falls into the given bucket.
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+
+	static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.max = max;
+		}
+
+		long getCount() {
+			return this.count;
+		}
+
+		long getMax() {
+			return this.max;
+		}
+
+		/**
+		 * Return the value below which the given percentage of recorded values
+		 * fall, or 0 if nothing was recorded.
+		 */
+		long percentile(double percentile) {
+			if (this.count == 0) {
+				return 0;
+			}
+			long threshold = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= threshold) {
+					return Math.min(highestValue(i), this.max);
+				}
+			}
+			return this.max;
+		}
+	}
+
+}
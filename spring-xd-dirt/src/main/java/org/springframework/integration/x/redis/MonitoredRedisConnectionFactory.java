@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.redis;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link RedisConnectionFactory} decorator that keeps track of how its
+ * connections are used: how many are currently borrowed, how many threads are
+ * waiting for one, and how long obtaining one takes. A pool that is starved shows
+ * up as a rising number of waiting threads and wait time.
+ *
+ * @author agent
+ */
+@ManagedResource
+public class MonitoredRedisConnectionFactory implements RedisConnectionFactory {
+
+	private final RedisConnectionFactory targetConnectionFactory;
+
+	private final AtomicInteger borrowed = new AtomicInteger();
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private final AtomicLong borrowCount = new AtomicLong();
+
+	private final AtomicLong totalWaitTime = new AtomicLong();
+
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+	public MonitoredRedisConnectionFactory(RedisConnectionFactory targetConnectionFactory) {
+		Assert.notNull(targetConnectionFactory, "targetConnectionFactory must not be null");
+		this.targetConnectionFactory = targetConnectionFactory;
+	}
+
+
+	@Override
+	public RedisConnection getConnection() {
+		this.waiting.incrementAndGet();
+		long start = System.nanoTime();
+		RedisConnection connection;
+		try {
+			connection = this.targetConnectionFactory.getConnection();
+		}
+		finally {
+			this.waiting.decrementAndGet();
+			this.recordWait(System.nanoTime() - start);
+		}
+		this.borrowed.incrementAndGet();
+		this.borrowCount.incrementAndGet();
+		return (RedisConnection) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+				new Class<?>[] {RedisConnection.class}, new CloseTrackingInvocationHandler(connection));
+	}
+
+	private void recordWait(long nanos) {
+		this.totalWaitTime.addAndGet(nanos);
+		long max = this.maxWaitTime.get();
+		while (nanos > max && !this.maxWaitTime.compareAndSet(max, nanos)) {
+			max = this.maxWaitTime.get();
+		}
+	}
+
+	public RedisConnectionFactory getTargetConnectionFactory() {
+		return this.targetConnectionFactory;
+	}
+
+	@Override
+	public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+		return this.targetConnectionFactory.translateExceptionIfPossible(ex);
+	}
+
+	@ManagedAttribute(description = "Connections currently borrowed and not yet closed")
+	public int getBorrowedConnections() {
+		return this.borrowed.get();
+	}
+
+	@ManagedAttribute(description = "Threads currently waiting for a connection")
+	public int getWaitingThreads() {
+		return this.waiting.get();
+	}
+
+	@ManagedAttribute(description = "Connections borrowed since startup")
+	public long getBorrowCount() {
+		return this.borrowCount.get();
+	}
+
+	@ManagedAttribute(description = "Total time in milliseconds spent obtaining connections")
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(this.totalWaitTime.get());
+	}
+
+	@ManagedAttribute(description = "Mean time in microseconds spent obtaining a connection")
+	public long getMeanWaitTime() {
+		long count = this.borrowCount.get();
+		return (count > 0) ? TimeUnit.NANOSECONDS.toMicros(this.totalWaitTime.get() / count) : 0;
+	}
+
+	@ManagedAttribute(description = "Longest time in milliseconds spent obtaining a connection")
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(this.maxWaitTime.get());
+	}
+
+
+	private class CloseTrackingInvocationHandler implements InvocationHandler {
+
+		private final RedisConnection target;
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private CloseTrackingInvocationHandler(RedisConnection target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("close") && this.closed.compareAndSet(false, true)) {
+				borrowed.decrementAndGet();
+			}
+			try {
+				return method.invoke(this.target, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+
+}
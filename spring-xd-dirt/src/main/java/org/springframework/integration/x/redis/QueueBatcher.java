@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessageHandlingException;
+import org.springframework.integration.message.ErrorMessage;
+import org.springframework.util.Assert;
+
+/**
+ * Collects the entries of a {@link RedisQueueOutboundChannelAdapter} in a bounded
+ * buffer, from which a single flusher thread hands them to a {@link BatchSender}
+ * in batches. Failed batches are retried with an increasing delay; on
+ * {@link #stop()} for up to the stop timeout, after which their messages go to
+ * the error channel.
+ *
+ * @author agent
+ */
+class QueueBatcher {
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final String queueName;
+
+	private final BatchSender sender;
+
+	private volatile int batchSize = 1;
+
+	private volatile long batchTimeout = 1000;
+
+	private volatile int bufferCapacity = 10000;
+
+	private volatile long sendTimeout = -1;
+
+	private volatile long stopTimeout = 10000;
+
+	private volatile MessageChannel errorChannel;
+
+	private volatile BlockingQueue<QueueEntry> buffer;
+
+	private volatile CountDownLatch flusherDone;
+
+	private volatile boolean running;
+
+	// held by senders while they buffer, so that stop() sees every buffered entry
+	private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+
+	private volatile CountDownLatch stopRequested;
+
+	private volatile long stopDeadline;
+
+	private final Object lifecycleMonitor = new Object();
+
+
+	QueueBatcher(String queueName, BatchSender sender) {
+		this.queueName = queueName;
+		this.sender = sender;
+	}
+
+
+	void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be positive");
+		this.batchSize = batchSize;
+	}
+
+	int getBatchSize() {
+		return this.batchSize;
+	}
+
+	void setBatchTimeout(long batchTimeout) {
+		Assert.isTrue(batchTimeout >= 0, "batchTimeout must not be negative");
+		this.batchTimeout = batchTimeout;
+	}
+
+	void setBufferCapacity(int bufferCapacity) {
+		Assert.isTrue(bufferCapacity > 0, "bufferCapacity must be positive");
+		this.bufferCapacity = bufferCapacity;
+	}
+
+	void setSendTimeout(long sendTimeout) {
+		this.sendTimeout = sendTimeout;
+	}
+
+	void setStopTimeout(long stopTimeout) {
+		Assert.isTrue(stopTimeout >= 0, "stopTimeout must not be negative");
+		this.stopTimeout = stopTimeout;
+	}
+
+	void setErrorChannel(MessageChannel errorChannel) {
+		this.errorChannel = errorChannel;
+	}
+
+	boolean isBatching() {
+		return this.batchSize > 1;
+	}
+
+	/**
+	 * Add the entry to the buffer, waiting for space for up to the send timeout.
+	 * Returns false if the batcher is not running, in which case the caller
+	 * sends the entry itself. The wait is sliced so that a stop is not held up
+	 * by senders waiting on a full buffer.
+	 */
+	boolean offer(QueueEntry entry) throws InterruptedException {
+		long timeout = this.sendTimeout;
+		long deadline = (timeout < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+		Lock lock = this.bufferLock.readLock();
+		while (true) {
+			lock.lockInterruptibly();
+			try {
+				BlockingQueue<QueueEntry> buffer = this.buffer;
+				if (!this.running || buffer == null) {
+					return false;
+				}
+				long wait = Math.max(Math.min(100, deadline - System.currentTimeMillis()), 0);
+				if (buffer.offer(entry, wait, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				throw new MessageHandlingException(entry.message,
+						"timed out waiting for space in the buffer of redis queue '" + this.queueName + "'");
+			}
+		}
+	}
+
+	void start(TaskExecutor taskExecutor) {
+		synchronized (this.lifecycleMonitor) {
+			if (this.running) {
+				return;
+			}
+			this.buffer = new ArrayBlockingQueue<QueueEntry>(this.bufferCapacity);
+			this.flusherDone = new CountDownLatch(1);
+			this.stopRequested = new CountDownLatch(1);
+			this.running = true;
+			taskExecutor.execute(new Flusher(this.buffer, this.flusherDone, this.stopRequested));
+		}
+	}
+
+	/**
+	 * Stop accepting entries and wait for the flusher to send everything that
+	 * is still buffered, retrying for up to the stop timeout.
+	 */
+	void stop() {
+		synchronized (this.lifecycleMonitor) {
+			if (!this.running) {
+				return;
+			}
+			this.stopDeadline = System.currentTimeMillis() + this.stopTimeout;
+			// wakes up a flusher waiting to retry
+			this.stopRequested.countDown();
+			Lock lock = this.bufferLock.writeLock();
+			lock.lock();
+			try {
+				this.running = false;
+			}
+			finally {
+				lock.unlock();
+			}
+			try {
+				this.flusherDone.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.buffer = null;
+			this.flusherDone = null;
+			this.stopRequested = null;
+		}
+	}
+
+	/**
+	 * Hand the messages of a batch that could not be sent to the error channel.
+	 */
+	private void failed(List<QueueEntry> batch, Exception cause) {
+		MessageChannel errorChannel = this.errorChannel;
+		if (errorChannel == null) {
+			logger.error("dropped " + batch.size() + " messages that could not be pushed to redis queue '"
+					+ this.queueName + "'", cause);
+			return;
+		}
+		for (QueueEntry entry : batch) {
+			MessageHandlingException exception = new MessageHandlingException(entry.message,
+					"failed to push message to redis queue '" + this.queueName + "'", cause);
+			try {
+				if (!errorChannel.send(new ErrorMessage(exception))) {
+					logger.error("error channel did not accept failed message", exception);
+				}
+			}
+			catch (Exception e) {
+				logger.error("failed to send failed message to error channel", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Sends a batch of entries to Redis.
+	 */
+	static interface BatchSender {
+
+		void send(List<QueueEntry> batch);
+
+	}
+
+
+	private class Flusher implements Runnable {
+
+		private final BlockingQueue<QueueEntry> buffer;
+
+		private final CountDownLatch done;
+
+		private final CountDownLatch stopRequested;
+
+		private Flusher(BlockingQueue<QueueEntry> buffer, CountDownLatch done, CountDownLatch stopRequested) {
+			this.buffer = buffer;
+			this.done = done;
+			this.stopRequested = stopRequested;
+		}
+
+		@Override
+		public void run() {
+			List<QueueEntry> batch = new ArrayList<QueueEntry>(batchSize);
+			try {
+				while (running) {
+					try {
+						this.fill(batch);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					this.flush(batch);
+				}
+				// drain whatever senders managed to enqueue before stop()
+				while (!this.buffer.isEmpty()) {
+					this.buffer.drainTo(batch, batchSize);
+					this.flush(batch);
+				}
+			}
+			finally {
+				this.done.countDown();
+			}
+		}
+
+		private void fill(List<QueueEntry> batch) throws InterruptedException {
+			QueueEntry first = this.buffer.poll(100, TimeUnit.MILLISECONDS);
+			if (first == null) {
+				return;
+			}
+			batch.add(first);
+			long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(batchTimeout);
+			while (batch.size() < batchSize) {
+				this.buffer.drainTo(batch, batchSize - batch.size());
+				long remaining = deadline - System.nanoTime();
+				if (batch.size() >= batchSize || remaining <= 0) {
+					break;
+				}
+				QueueEntry next = this.buffer.poll(remaining, TimeUnit.NANOSECONDS);
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+			}
+		}
+
+		/**
+		 * Send the batch, retrying with an increasing delay while the batcher runs
+		 * and until the stop timeout once it is stopping.
+		 */
+		private void flush(List<QueueEntry> batch) {
+			if (batch.isEmpty()) {
+				return;
+			}
+			long delay = 100;
+			while (true) {
+				try {
+					sender.send(batch);
+					if (logger.isDebugEnabled()) {
+						logger.debug("pushed batch of " + batch.size() + " messages to redis queue '" + queueName + "'");
+					}
+					break;
+				}
+				catch (Exception e) {
+					long remaining = (running) ? delay : stopDeadline - System.currentTimeMillis();
+					if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+						failed(batch, e);
+						break;
+					}
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to push batch of " + batch.size() + " messages to redis queue '" + queueName
+								+ "', retrying", e);
+					}
+					try {
+						if (running) {
+							// returns early when stop() is called
+							this.stopRequested.await(delay, TimeUnit.MILLISECONDS);
+						}
+						else {
+							Thread.sleep(Math.min(delay, remaining));
+						}
+					}
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						failed(batch, e);
+						break;
+					}
+					delay = Math.min(delay * 2, 5000);
+				}
+			}
+			batch.clear();
+		}
+	}
+
+}
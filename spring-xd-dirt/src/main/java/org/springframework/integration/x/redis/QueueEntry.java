@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import org.springframework.integration.Message;
+
+/**
+ * A message on its way to a Redis queue, with the key of that queue and the
+ * value to push.
+ *
+ * @author agent
+ */
+class QueueEntry {
+
+	final byte[] queue;
+
+	final byte[] value;
+
+	/** the payload bytes for taps, if the payload is extracted */
+	final byte[] payload;
+
+	final Message<?> message;
+
+	QueueEntry(byte[] queue, byte[] value, byte[] payload, Message<?> message) {
+		this.queue = queue;
+		this.value = value;
+		this.payload = payload;
+		this.message = message;
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The header that framed queue adapters put in front of every value: a marker
+ * (0xFF 'F'), a flags byte, and the enqueue time in milliseconds if the
+ * {@link #STAMPED} flag is set. The flags say how to read the rest of the value,
+ * so neither the stamp nor the binary flag depends on what the payload or the
+ * compressor's output starts with.
+ *
+ * @author agent
+ */
+public final class QueueFrame {
+
+	/**
+	 * The header is followed by the enqueue time as a long.
+	 */
+	static final int STAMPED = 1;
+
+	/**
+	 * The value is the content of a {@code byte[]} payload.
+	 */
+	static final int BINARY = 2;
+
+	/**
+	 * The value was produced by a
+	 * {@link org.springframework.integration.x.codec.PayloadCompressor}.
+	 */
+	static final int COMPRESSED = 4;
+
+	private static final byte MARKER_0 = (byte) 0xFF;
+
+	private static final byte MARKER_1 = 'F';
+
+	private static final int HEADER_LENGTH = 3;
+
+	private static final int STAMP_LENGTH = 8;
+
+	private final int flags;
+
+	private final long timestamp;
+
+	private final byte[] body;
+
+
+	private QueueFrame(int flags, long timestamp, byte[] body) {
+		this.flags = flags;
+		this.timestamp = timestamp;
+		this.body = body;
+	}
+
+
+	/**
+	 * Return the body with a header carrying the given flags in front. The
+	 * {@link #STAMPED} flag is set if the timestamp is not negative.
+	 */
+	static byte[] frame(byte[] body, int flags, long timestamp) {
+		if (timestamp >= 0) {
+			flags |= STAMPED;
+		}
+		else {
+			flags &= ~STAMPED;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + ((timestamp >= 0) ? STAMP_LENGTH : 0) + body.length);
+		buffer.put(MARKER_0).put(MARKER_1).put((byte) flags);
+		if (timestamp >= 0) {
+			buffer.putLong(timestamp);
+		}
+		return buffer.put(body).array();
+	}
+
+	/**
+	 * Split a value into its header and body. A value without a header, such
+	 * as one from a sender that does not frame its values, is returned as the
+	 * body of a frame without flags.
+	 */
+	static QueueFrame parse(byte[] value) {
+		if (!isFramed(value)) {
+			return new QueueFrame(0, -1, value);
+		}
+		int flags = value[2];
+		int offset = HEADER_LENGTH;
+		long timestamp = -1;
+		if ((flags & STAMPED) != 0) {
+			if (value.length < HEADER_LENGTH + STAMP_LENGTH) {
+				return new QueueFrame(0, -1, value);
+			}
+			timestamp = ByteBuffer.wrap(value, HEADER_LENGTH, STAMP_LENGTH).getLong();
+			offset += STAMP_LENGTH;
+		}
+		return new QueueFrame(flags, timestamp, Arrays.copyOfRange(value, offset, value.length));
+	}
+
+	/**
+	 * Return the enqueue time of a framed value, or -1 if it has none.
+	 */
+	public static long timestamp(byte[] value) {
+		if (!isFramed(value) || (value[2] & STAMPED) == 0 || value.length < HEADER_LENGTH + STAMP_LENGTH) {
+			return -1;
+		}
+		return ByteBuffer.wrap(value, HEADER_LENGTH, STAMP_LENGTH).getLong();
+	}
+
+	private static boolean isFramed(byte[] value) {
+		return value.length >= HEADER_LENGTH && value[0] == MARKER_0 && value[1] == MARKER_1;
+	}
+
+	boolean isBinary() {
+		return (this.flags & BINARY) != 0;
+	}
+
+	boolean isCompressed() {
+		return (this.flags & COMPRESSED) != 0;
+	}
+
+	long getTimestamp() {
+		return this.timestamp;
+	}
+
+	byte[] getBody() {
+		return this.body;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+import org.springframework.xd.analytics.metrics.service.GaugeService;
+
+/**
+ * Throughput and latency of one Redis queue, as seen by the adapters of one
+ * container that send to and receive from it. Counts are cumulative; rates,
+ * batch sizes and latency percentiles cover the interval up to the last
+ * {@link #sample()}.
+ * <p>
+ * Latency is the time from the moment a sender handed a message to its adapter
+ * until a receiver took it from the queue. Senders stamp that time into the
+ * {@link QueueFrame} of the queued value, so both adapters must be framed. Since
+ * the latency is taken from the clocks of two hosts, it is only as accurate as
+ * their synchronization.
+ *
+ * @author agent
+ */
+@ManagedResource
+public class QueueMetrics {
+
+	private final String queueName;
+
+	private final AtomicLong sendCount = new AtomicLong();
+
+	private final AtomicLong sendBatches = new AtomicLong();
+
+	private final AtomicLong receiveCount = new AtomicLong();
+
+	private final AtomicLong receiveBatches = new AtomicLong();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private volatile boolean sending;
+
+	private volatile boolean receiving;
+
+	private volatile long lastSampleTime = System.currentTimeMillis();
+
+	private volatile long lastSendCount;
+
+	private volatile long lastSendBatches;
+
+	private volatile long lastReceiveCount;
+
+	private volatile long lastReceiveBatches;
+
+	private volatile long sendRate;
+
+	private volatile long receiveRate;
+
+	private volatile double sendBatchSize;
+
+	private volatile double receiveBatchSize;
+
+	private volatile long latency50th;
+
+	private volatile long latency99th;
+
+	private volatile long latencyMax;
+
+
+	public QueueMetrics(String queueName) {
+		Assert.hasText(queueName, "queueName is required");
+		this.queueName = queueName;
+	}
+
+
+	@ManagedAttribute
+	public String getQueueName() {
+		return this.queueName;
+	}
+
+	void recordSend(int batchSize) {
+		this.sending = true;
+		this.sendCount.addAndGet(batchSize);
+		this.sendBatches.incrementAndGet();
+	}
+
+	void recordReceive(int batchSize) {
+		this.receiving = true;
+		this.receiveCount.addAndGet(batchSize);
+		this.receiveBatches.incrementAndGet();
+	}
+
+	void recordLatency(long millis) {
+		this.latency.record(millis);
+	}
+
+	/**
+	 * Compute the rates, batch sizes and latencies for the interval since the
+	 * previous call.
+	 */
+	public synchronized void sample() {
+		long now = System.currentTimeMillis();
+		long elapsed = Math.max(1, now - this.lastSampleTime);
+		long sendCount = this.sendCount.get();
+		long sendBatches = this.sendBatches.get();
+		long receiveCount = this.receiveCount.get();
+		long receiveBatches = this.receiveBatches.get();
+		this.sendRate = (sendCount - this.lastSendCount) * 1000 / elapsed;
+		this.receiveRate = (receiveCount - this.lastReceiveCount) * 1000 / elapsed;
+		this.sendBatchSize = ratio(sendCount - this.lastSendCount, sendBatches - this.lastSendBatches);
+		this.receiveBatchSize = ratio(receiveCount - this.lastReceiveCount, receiveBatches - this.lastReceiveBatches);
+		LatencyHistogram.Snapshot latency = this.latency.snapshot();
+		this.latency50th = latency.percentile(50);
+		this.latency99th = latency.percentile(99);
+		this.latencyMax = latency.getMax();
+		this.lastSampleTime = now;
+		this.lastSendCount = sendCount;
+		this.lastSendBatches = sendBatches;
+		this.lastReceiveCount = receiveCount;
+		this.lastReceiveBatches = receiveBatches;
+	}
+
+	private static double ratio(long count, long batches) {
+		return (batches > 0) ? (double) count / batches : 0;
+	}
+
+	/**
+	 * Set gauges named {@code <prefix>.<metric>} to the values of the last sample.
+	 * Only the side (sending or receiving) this container takes part in is
+	 * published, so that containers on either side do not overwrite each other.
+	 */
+	public void publish(GaugeService gaugeService, String prefix) {
+		if (this.sending) {
+			gaugeService.setValue(prefix + ".sendCount", this.sendCount.get());
+			gaugeService.setValue(prefix + ".sendRate", this.sendRate);
+			gaugeService.setValue(prefix + ".sendBatchSize", Math.round(this.sendBatchSize));
+		}
+		if (this.receiving) {
+			gaugeService.setValue(prefix + ".receiveCount", this.receiveCount.get());
+			gaugeService.setValue(prefix + ".receiveRate", this.receiveRate);
+			gaugeService.setValue(prefix + ".receiveBatchSize", Math.round(this.receiveBatchSize));
+			gaugeService.setValue(prefix + ".latency.50th", this.latency50th);
+			gaugeService.setValue(prefix + ".latency.99th", this.latency99th);
+			gaugeService.setValue(prefix + ".latency.max", this.latencyMax);
+		}
+	}
+
+	@ManagedAttribute(description = "Messages pushed to the queue")
+	public long getSendCount() {
+		return this.sendCount.get();
+	}
+
+	@ManagedAttribute(description = "Messages taken from the queue")
+	public long getReceiveCount() {
+		return this.receiveCount.get();
+	}
+
+	@ManagedAttribute(description = "Messages pushed per second")
+	public long getSendRate() {
+		return this.sendRate;
+	}
+
+	@ManagedAttribute(description = "Messages taken per second")
+	public long getReceiveRate() {
+		return this.receiveRate;
+	}
+
+	@ManagedAttribute(description = "Mean number of messages per push")
+	public double getSendBatchSize() {
+		return this.sendBatchSize;
+	}
+
+	@ManagedAttribute(description = "Mean number of messages per receive")
+	public double getReceiveBatchSize() {
+		return this.receiveBatchSize;
+	}
+
+	@ManagedAttribute(description = "Median time in milliseconds that messages spent in the queue")
+	public long getLatency50th() {
+		return this.latency50th;
+	}
+
+	@ManagedAttribute(description = "99th percentile of the time in milliseconds that messages spent in the queue")
+	public long getLatency99th() {
+		return this.latency99th;
+	}
+
+	@ManagedAttribute(description = "Longest time in milliseconds that a message spent in the queue")
+	public long getLatencyMax() {
+		return this.latencyMax;
+	}
+
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageHandlingException;
+import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter.OverflowPolicy;
+import org.springframework.util.Assert;
+
+/**
+ * Applies the {@link OverflowPolicy} of a {@link RedisQueueOutboundChannelAdapter}
+ * to the queues it pushes to. Queues found over the maximum length in the LPUSH
+ * replies are {@link #checkCapacity(List, List) marked}, and then either awaited,
+ * trimmed or spilled.
+ * <p>
+ * Spilled entries are appended to a {@link SpillFile} and replayed by a drainer
+ * thread that runs from {@link #start(TaskExecutor)} to {@link #stop()}. The
+ * adapter stops this only after its own flusher, so that a final flush can
+ * still spill; once stopped, nothing is spilled and the file is closed.
+ *
+ * @author agent
+ */
+class QueueOverflow {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// marks every queue as spilling until the file of an earlier run has been replayed
+	private static final String ALL_QUEUES = "*";
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final String queueName;
+
+	private final RedisTemplate<String, byte[]> redisTemplate;
+
+	private volatile long maxLength;
+
+	private volatile long lowWaterMark = -1;
+
+	private volatile OverflowPolicy policy = OverflowPolicy.BLOCK;
+
+	private volatile long timeout = -1;
+
+	private volatile File spillDirectory = new File(System.getProperty("java.io.tmpdir"), "xd-spill");
+
+	private volatile int replaySize = 100;
+
+	private final Set<String> fullQueues = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Lock capacityLock = new ReentrantLock();
+
+	// the queues whose entries go to the spill file
+	private final Set<String> spillingQueues = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private volatile SpillFile spillFile;
+
+	private volatile boolean running;
+
+	private volatile CountDownLatch drainerDone;
+
+	private final Object lifecycleMonitor = new Object();
+
+
+	QueueOverflow(String queueName, RedisTemplate<String, byte[]> redisTemplate) {
+		this.queueName = queueName;
+		this.redisTemplate = redisTemplate;
+	}
+
+
+	void setMaxLength(long maxLength) {
+		Assert.isTrue(maxLength >= 0, "maxLength must not be negative");
+		this.maxLength = maxLength;
+	}
+
+	void setLowWaterMark(long lowWaterMark) {
+		this.lowWaterMark = lowWaterMark;
+	}
+
+	void setPolicy(OverflowPolicy policy) {
+		Assert.notNull(policy, "overflowPolicy must not be null");
+		this.policy = policy;
+	}
+
+	void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	void setSpillDirectory(File spillDirectory) {
+		Assert.notNull(spillDirectory, "spillDirectory must not be null");
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Set the maximum number of spilled entries replayed in one round trip.
+	 */
+	void setReplaySize(int replaySize) {
+		Assert.isTrue(replaySize > 0, "replaySize must be positive");
+		this.replaySize = replaySize;
+	}
+
+	boolean isBounded() {
+		return this.maxLength > 0;
+	}
+
+	OverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+	private long lowWaterMark() {
+		return (this.lowWaterMark >= 0) ? Math.min(this.lowWaterMark, this.maxLength) : this.maxLength / 2;
+	}
+
+	/**
+	 * Mark the queues of the entries whose LPUSH reported a length over the
+	 * maximum, or trim them with the DROP_OLDEST policy.
+	 */
+	void checkCapacity(List<QueueEntry> entries, List<Long> lengths) {
+		long maxLength = this.maxLength;
+		Map<String, Long> overflowed = null;
+		for (int i = 0; i < lengths.size() && i < entries.size(); i++) {
+			Long length = lengths.get(i);
+			if (length != null && length > maxLength) {
+				if (overflowed == null) {
+					overflowed = new LinkedHashMap<String, Long>();
+				}
+				overflowed.put(this.queue(entries.get(i)), length);
+			}
+		}
+		if (overflowed == null) {
+			return;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("redis queues over the maximum length of " + maxLength + ": " + overflowed);
+		}
+		switch (this.policy) {
+			case DROP_OLDEST:
+				for (String queue : overflowed.keySet()) {
+					this.redisTemplate.opsForList().trim(queue, 0, maxLength - 1);
+				}
+				break;
+			case SPILL:
+				SpillFile spillFile = this.spillFile;
+				if (spillFile != null) {
+					synchronized (spillFile) {
+						this.spillingQueues.addAll(overflowed.keySet());
+					}
+					break;
+				}
+				if (logger.isWarnEnabled()) {
+					logger.warn("cannot spill messages for redis queue '" + this.queueName + "' while the adapter is stopped");
+				}
+				break;
+			default:
+				this.fullQueues.addAll(overflowed.keySet());
+		}
+	}
+
+	/**
+	 * Wait until the full queues among those of the entries have fallen under
+	 * the low-water mark, at most for the overflow timeout.
+	 */
+	void awaitCapacity(List<QueueEntry> entries) {
+		if (this.fullQueues.isEmpty()) {
+			return;
+		}
+		long timeout = this.timeout;
+		long deadline = (timeout < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+		Set<String> queues = new LinkedHashSet<String>();
+		for (QueueEntry entry : entries) {
+			String queue = this.queue(entry);
+			if (this.fullQueues.contains(queue)) {
+				queues.add(queue);
+			}
+		}
+		for (String queue : queues) {
+			this.awaitCapacity(queue, entries.get(0).message, deadline);
+		}
+	}
+
+	private void awaitCapacity(String queue, Message<?> message, long deadline) {
+		long lowWaterMark = this.lowWaterMark();
+		long delay = 10;
+		while (this.fullQueues.contains(queue)) {
+			// one thread polls the length while the others back off
+			if (this.capacityLock.tryLock()) {
+				try {
+					Long length = this.redisTemplate.opsForList().size(queue);
+					if (length == null || length < lowWaterMark) {
+						this.fullQueues.remove(queue);
+						return;
+					}
+				}
+				finally {
+					this.capacityLock.unlock();
+				}
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new MessageHandlingException(message, "timed out waiting for redis queue '" + queue
+						+ "' to fall under " + lowWaterMark + " entries");
+			}
+			try {
+				Thread.sleep(Math.min(delay, remaining));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessageHandlingException(message, "interrupted while waiting for redis queue '"
+						+ queue + "' to drain", e);
+			}
+			delay = Math.min(delay * 2, 1000);
+		}
+	}
+
+	/**
+	 * Whether any queue is spilling.
+	 */
+	boolean isSpilling() {
+		return !this.spillingQueues.isEmpty();
+	}
+
+	/**
+	 * Append the entries for spilling queues to the spill file, adding them to
+	 * {@code spilled}, and return the other entries. Nothing is spilled if
+	 * spilling has ended or this has stopped in the meantime.
+	 */
+	List<QueueEntry> spill(List<QueueEntry> entries, List<QueueEntry> spilled) {
+		SpillFile spillFile = this.spillFile;
+		if (spillFile == null) {
+			return entries;
+		}
+		List<QueueEntry> remaining = new ArrayList<QueueEntry>(entries.size());
+		synchronized (spillFile) {
+			int start = spilled.size();
+			for (QueueEntry entry : entries) {
+				(this.isSpilling(entry) ? spilled : remaining).add(entry);
+			}
+			if (spilled.size() == start) {
+				return entries;
+			}
+			try {
+				for (QueueEntry entry : spilled.subList(start, spilled.size())) {
+					spillFile.append(entry.queue, entry.value);
+				}
+			}
+			catch (IOException e) {
+				throw new MessageHandlingException(spilled.get(start).message,
+						"failed to spill messages for redis queue '" + this.queueName + "' to " + spillFile.getFile(), e);
+			}
+		}
+		return remaining;
+	}
+
+	private boolean isSpilling(QueueEntry entry) {
+		Set<String> queues = this.spillingQueues;
+		return queues.contains(ALL_QUEUES) || queues.contains(this.queue(entry));
+	}
+
+	private String queue(QueueEntry entry) {
+		return this.redisTemplate.getStringSerializer().deserialize(entry.queue);
+	}
+
+	/**
+	 * Open the spill file and start the drainer, if queues are bounded and
+	 * spill.
+	 */
+	void start(TaskExecutor taskExecutor) {
+		synchronized (this.lifecycleMonitor) {
+			if (this.running || !this.isBounded() || this.policy != OverflowPolicy.SPILL) {
+				return;
+			}
+			File file = new File(this.spillDirectory, this.queueName + ".spill");
+			SpillFile spillFile;
+			try {
+				this.spillDirectory.mkdirs();
+				spillFile = new SpillFile(file);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("failed to open spill file " + file, e);
+			}
+			// replay whatever an earlier run left behind, for whichever queues it was
+			if (!spillFile.isEmpty()) {
+				this.spillingQueues.add(ALL_QUEUES);
+			}
+			this.spillFile = spillFile;
+			this.drainerDone = new CountDownLatch(1);
+			this.running = true;
+			taskExecutor.execute(new Drainer(spillFile, this.drainerDone));
+		}
+	}
+
+	/**
+	 * Stop the drainer and close the spill file. Entries spilled but not yet
+	 * replayed stay in the file for the next start.
+	 */
+	void stop() {
+		synchronized (this.lifecycleMonitor) {
+			if (!this.running) {
+				return;
+			}
+			this.running = false;
+			try {
+				this.drainerDone.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			SpillFile spillFile = this.spillFile;
+			synchronized (spillFile) {
+				this.spillFile = null;
+				this.spillingQueues.clear();
+				try {
+					spillFile.close();
+				}
+				catch (IOException e) {
+					logger.warn("failed to close spill file " + spillFile.getFile(), e);
+				}
+			}
+			this.drainerDone = null;
+		}
+	}
+
+
+	/**
+	 * Replays spilled entries whenever all of their queues are under the
+	 * low-water mark.
+	 */
+	private class Drainer implements Runnable {
+
+		private final SpillFile spillFile;
+
+		private final CountDownLatch done;
+
+		private Drainer(SpillFile spillFile, CountDownLatch done) {
+			this.spillFile = spillFile;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					try {
+						if (spillingQueues.isEmpty() || !this.replay()) {
+							Thread.sleep(100);
+						}
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					catch (Exception e) {
+						logger.error("failed to replay spilled messages for redis queue '" + queueName + "'", e);
+						try {
+							Thread.sleep(1000);
+						}
+						catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							break;
+						}
+					}
+				}
+			}
+			finally {
+				this.done.countDown();
+			}
+		}
+
+		/**
+		 * Replay the next batch of spilled entries, returning false if the queues
+		 * are not ready for it yet.
+		 */
+		private boolean replay() throws IOException {
+			final List<SpillFile.Record> records = this.spillFile.read(replaySize);
+			if (records.isEmpty()) {
+				synchronized (this.spillFile) {
+					if (this.spillFile.isEmpty()) {
+						this.spillFile.truncate();
+						spillingQueues.clear();
+					}
+				}
+				return true;
+			}
+			final Map<String, byte[]> queues = new LinkedHashMap<String, byte[]>();
+			for (SpillFile.Record record : records) {
+				queues.put(new String(record.queue, UTF8), record.queue);
+			}
+			final long lowWaterMark = lowWaterMark();
+			boolean ready = redisTemplate.execute(new RedisCallback<Boolean>() {
+				@Override
+				public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
+					connection.openPipeline();
+					for (byte[] queue : queues.values()) {
+						connection.lLen(queue);
+					}
+					for (Object length : connection.closePipeline()) {
+						if (length instanceof Long && (Long) length >= lowWaterMark) {
+							return false;
+						}
+					}
+					return true;
+				}
+			});
+			if (!ready) {
+				return false;
+			}
+			redisTemplate.execute(new RedisCallback<Object>() {
+				@Override
+				public Object doInRedis(RedisConnection connection) throws DataAccessException {
+					connection.openPipeline();
+					for (SpillFile.Record record : records) {
+						connection.lPush(record.queue, record.value);
+					}
+					connection.closePipeline();
+					return null;
+				}
+			});
+			this.spillFile.commit();
+			if (logger.isDebugEnabled()) {
+				logger.debug("replayed " + records.size() + " spilled messages to redis queue '" + queueName + "'");
+			}
+			return true;
+		}
+	}
+
+}
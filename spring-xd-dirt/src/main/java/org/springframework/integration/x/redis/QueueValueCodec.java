@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.nio.charset.Charset;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.x.codec.JsonMessageCodec;
+import org.springframework.integration.x.codec.MessageCodec;
+import org.springframework.integration.x.codec.PayloadCompressor;
+import org.springframework.util.Assert;
+
+/**
+ * Turns messages into the values of a Redis queue and back, as configured on
+ * the queue adapters: the payload or the whole message encoded with a
+ * {@link MessageCodec}, optionally compressed and wrapped in a {@link QueueFrame}.
+ *
+ * @author agent
+ */
+class QueueValueCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private volatile boolean extractPayload = true;
+
+	private volatile MessageCodec codec = new JsonMessageCodec();
+
+	private volatile boolean framed;
+
+	private volatile PayloadCompressor compressor;
+
+
+	void setExtractPayload(boolean extractPayload) {
+		this.extractPayload = extractPayload;
+	}
+
+	void setCodec(MessageCodec codec) {
+		Assert.notNull(codec, "codec must not be null");
+		this.codec = codec;
+	}
+
+	void setFramed(boolean framed) {
+		this.framed = framed;
+	}
+
+	void setCompressor(PayloadCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * Fail if compression or timestamps are asked for without framing, since
+	 * only the frame can say that a value carries them.
+	 */
+	void assertFramed(boolean stamped) {
+		Assert.state(this.framed || (this.compressor == null && !stamped),
+				"a compressor or metrics require framed values");
+	}
+
+	/**
+	 * Return the payload bytes that are sent if the payload is extracted, or
+	 * null if the whole message is encoded.
+	 */
+	byte[] payload(Message<?> message) {
+		return (this.extractPayload) ? payloadBytes(message) : null;
+	}
+
+	/**
+	 * Return the value for a message whose {@link #payload(Message) payload}
+	 * was given, stamped with the timestamp if that is not negative.
+	 */
+	byte[] encode(Message<?> message, byte[] payload, long timestamp) {
+		byte[] value = (payload != null) ? payload : this.codec.encode(message);
+		if (!this.framed) {
+			return value;
+		}
+		int flags = 0;
+		if (payload != null && message.getPayload() instanceof byte[]) {
+			flags |= QueueFrame.BINARY;
+		}
+		PayloadCompressor compressor = this.compressor;
+		if (compressor != null) {
+			value = compressor.compress(value);
+			flags |= QueueFrame.COMPRESSED;
+		}
+		return QueueFrame.frame(value, flags, timestamp);
+	}
+
+	/**
+	 * Return the message for a value, recording the time it spent in the queue
+	 * in the metrics, if any.
+	 */
+	Message<?> decode(byte[] value, QueueMetrics metrics) {
+		boolean binary = false;
+		if (this.framed) {
+			QueueFrame frame = QueueFrame.parse(value);
+			if (metrics != null && frame.getTimestamp() >= 0) {
+				metrics.recordLatency(System.currentTimeMillis() - frame.getTimestamp());
+			}
+			binary = frame.isBinary();
+			value = frame.getBody();
+			if (frame.isCompressed()) {
+				PayloadCompressor compressor = this.compressor;
+				Assert.state(compressor != null, "received a compressed entry, but no compressor is set");
+				value = compressor.decompress(value);
+			}
+		}
+		if (this.extractPayload) {
+			return MessageBuilder.withPayload((binary) ? value : new String(value, UTF8)).build();
+		}
+		return this.codec.decode(value);
+	}
+
+	static byte[] payloadBytes(Message<?> message) {
+		Object payload = message.getPayload();
+		return (payload instanceof byte[]) ? (byte[]) payload : payload.toString().getBytes(UTF8);
+	}
+
+}
@@ -16,39 +16,117 @@
 
 package org.springframework.integration.x.redis;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.Lifecycle;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.integration.Message;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.MessageChannel;
 import org.springframework.integration.channel.registry.ChannelRegistry;
-import org.springframework.integration.core.MessageHandler;
 import org.springframework.integration.core.SubscribableChannel;
 import org.springframework.integration.endpoint.EventDrivenConsumer;
-import org.springframework.integration.handler.AbstractMessageHandler;
 import org.springframework.integration.redis.inbound.RedisInboundChannelAdapter;
-import org.springframework.integration.redis.outbound.RedisPublishingMessageHandler;
+import org.springframework.integration.x.channel.registry.ConfigurableChannelRegistry;
+import org.springframework.integration.x.codec.MessageCodec;
+import org.springframework.integration.x.codec.PayloadCompressor;
+import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter.OverflowPolicy;
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.xd.analytics.metrics.service.GaugeService;
 
 /**
  * A {@link ChannelRegistry} implementation backed by Redis.
+ * <p>
+ * The adapters of each queue record {@link QueueMetrics}, which are sampled every
+ * {@link #setMetricsInterval(long) metricsInterval}, exported over JMX when the
+ * application context has an {@link MBeanExporter}, and published as gauges
+ * when a {@link #setGaugeService(GaugeService) gaugeService} is set.
  *
  * @author Mark Fisher
  */
-public class RedisChannelRegistry implements ChannelRegistry, DisposableBean {
+public class RedisChannelRegistry implements ConfigurableChannelRegistry, ApplicationContextAware, InitializingBean,
+		DisposableBean {
 
 	private final Log logger = LogFactory.getLog(this.getClass());
 
 	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
 
-	private final List<Lifecycle> lifecycleBeans = new ArrayList<Lifecycle>();
+	private final List<Binding> bindings = new ArrayList<Binding>();
+
+	private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+	private volatile int outboundBatchSize = 1;
+
+	private volatile long outboundBatchTimeout = 1000;
+
+	private volatile int inboundDrainSize = 1;
+
+	private volatile long maxQueueLength;
+
+	private volatile OverflowPolicy overflowPolicy;
+
+	private volatile File spillDirectory;
+
+	private volatile long tapCheckInterval;
+
+	private volatile long tapTtl = 60000;
+
+	private volatile MessageCodec codec;
+
+	private volatile int compressionThreshold = -1;
+
+	private volatile int compressionTrainingSamples;
+
+	private volatile RedisDictionaryStore dictionaryStore;
+
+	private volatile boolean reliable;
+
+	private volatile long reaperInterval = 10000;
+
+	private volatile String consumerId;
+
+	private volatile ThreadPoolTaskScheduler taskScheduler;
+
+	private volatile ApplicationContext applicationContext;
+
+	private final Map<String, QueueMetrics> metrics = new ConcurrentHashMap<String, QueueMetrics>();
+
+	private final List<ObjectName> exportedMetrics = new ArrayList<ObjectName>();
+
+	private volatile MBeanExporter mbeanExporter;
+
+	private volatile boolean metricsEnabled;
+
+	private volatile long metricsInterval = 5000;
+
+	private volatile GaugeService gaugeService;
+
+	private volatile RedisConnectionFactory blockingConnectionFactory;
+
+	private volatile RedisQueueReader queueReader;
 
 
 	public RedisChannelRegistry(RedisConnectionFactory connectionFactory) {
@@ -58,40 +136,434 @@ public class RedisChannelRegistry implements ChannelRegistry, DisposableBean {
 	}
 
 
+	/**
+	 * Set the maximum number of messages that outbound adapters push to Redis in
+	 * one pipelined round trip. Default is 1, meaning that batching is disabled.
+	 */
+	public void setOutboundBatchSize(int outboundBatchSize) {
+		this.outboundBatchSize = outboundBatchSize;
+	}
+
+	/**
+	 * Set the maximum time in microseconds that outbound adapters wait for a
+	 * batch to fill up. Default is 1000.
+	 */
+	public void setOutboundBatchTimeout(long outboundBatchTimeout) {
+		this.outboundBatchTimeout = outboundBatchTimeout;
+	}
+
+	/**
+	 * Set the length above which outbound adapters consider a queue full. Default
+	 * is 0, meaning that queues are unbounded.
+	 */
+	public void setMaxQueueLength(long maxQueueLength) {
+		this.maxQueueLength = maxQueueLength;
+	}
+
+	/**
+	 * Set what outbound adapters do once a queue is full. Default is to block the
+	 * sender until the queue has drained.
+	 *
+	 * @see RedisQueueOutboundChannelAdapter#setOverflowPolicy(OverflowPolicy)
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set the directory for the spill files of full queues when the overflow
+	 * policy is to spill.
+	 */
+	public void setSpillDirectory(File spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Set the maximum number of messages that inbound adapters take from a queue
+	 * each time their blocking pop wakes up. Default is 1, meaning that draining
+	 * is disabled.
+	 */
+	public void setInboundDrainSize(int inboundDrainSize) {
+		this.inboundDrainSize = inboundDrainSize;
+	}
+
+	/**
+	 * Set how often, in milliseconds, outbound adapters check whether a channel
+	 * has any taps. While it has none, messages are only pushed to the queue and
+	 * not published to the tap topic. Default is 0, meaning that every message is
+	 * always published.
+	 */
+	public void setTapCheckInterval(long tapCheckInterval) {
+		this.tapCheckInterval = tapCheckInterval;
+	}
+
+	/**
+	 * Set the time in milliseconds after which the tap count of a channel
+	 * expires unless a registry with a live tap on it refreshes it, which they do
+	 * three times per period. This keeps taps of containers that crashed from
+	 * being counted forever. Default is 60000; 0 means that counts never expire.
+	 */
+	public void setTapTtl(long tapTtl) {
+		this.tapTtl = tapTtl;
+	}
+
+	/**
+	 * Set the codec used to send whole messages, headers included, through the
+	 * queues. By default only the payload is sent, as a String.
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Set the size in bytes from which outbound adapters compress values. Default
+	 * is -1, meaning that nothing is compressed.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Set the number of values each outbound adapter samples to train its own
+	 * compression dictionary. Default is 0, meaning that no dictionaries are used.
+	 *
+	 * @see PayloadCompressor#setTrainingSamples(int)
+	 */
+	public void setCompressionTrainingSamples(int compressionTrainingSamples) {
+		this.compressionTrainingSamples = compressionTrainingSamples;
+	}
+
+	/**
+	 * Set a separate factory for the connections that inbound adapters hold for
+	 * their blocking reads, one per listener for as long as it runs. This keeps
+	 * blocked listeners from starving writers of pooled connections. An unpooled
+	 * factory sizes itself to the number of registered listeners. By default
+	 * blocking reads borrow from the main connection factory.
+	 */
+	public void setBlockingConnectionFactory(RedisConnectionFactory blockingConnectionFactory) {
+		this.blockingConnectionFactory = blockingConnectionFactory;
+	}
+
+	/**
+	 * Set a shared reader that consumes the queues of all inbound adapters with a
+	 * fixed number of threads, instead of each adapter running its own listener
+	 * threads. By default every adapter has its own.
+	 */
+	public void setQueueReader(RedisQueueReader queueReader) {
+		this.queueReader = queueReader;
+	}
+
+	/**
+	 * Whether inbound adapters should keep messages in an in-flight list until
+	 * they have been sent, giving at-least-once delivery. The id of the
+	 * application context (i.e. the container id) identifies the lists, and a
+	 * {@link RedisInFlightReaper} returns the entries of containers that have
+	 * gone away to their queues. Default is false.
+	 */
+	public void setReliable(boolean reliable) {
+		this.reliable = reliable;
+	}
+
+	/**
+	 * Set how often, in milliseconds, the in-flight lists of dead containers are
+	 * reaped in reliable mode. Default is 10000.
+	 */
+	public void setReaperInterval(long reaperInterval) {
+		this.reaperInterval = reaperInterval;
+	}
+
+	/**
+	 * Whether adapters should record {@link QueueMetrics}. This adds an 8 byte
+	 * timestamp to the {@link QueueFrame} of every queued message. Default is
+	 * false.
+	 */
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+
+	/**
+	 * Set how often, in milliseconds, queue metrics are sampled and published.
+	 * Default is 5000.
+	 */
+	public void setMetricsInterval(long metricsInterval) {
+		this.metricsInterval = metricsInterval;
+	}
+
+	/**
+	 * Set the service to publish queue metrics to, as gauges named
+	 * {@code <queue>.<container id>.<metric>}.
+	 */
+	public void setGaugeService(GaugeService gaugeService) {
+		this.gaugeService = gaugeService;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+		this.consumerId = applicationContext.getId();
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		this.dictionaryStore = new RedisDictionaryStore(this.redisTemplate.getConnectionFactory());
+		if (!this.reliable && !this.metricsEnabled && this.tapTtl <= 0) {
+			return;
+		}
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("redis-registry-");
+		scheduler.afterPropertiesSet();
+		if (this.reliable) {
+			scheduler.scheduleWithFixedDelay(new RedisInFlightReaper(this.redisTemplate.getConnectionFactory()), this.reaperInterval);
+		}
+		if (this.metricsEnabled) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					publishMetrics();
+				}
+			}, this.metricsInterval);
+		}
+		if (this.tapTtl > 0) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshTaps();
+				}
+			}, Math.max(this.tapTtl / 3, 1));
+		}
+		this.taskScheduler = scheduler;
+	}
+
+	private QueueMetrics metrics(String queueName) {
+		if (!this.metricsEnabled) {
+			return null;
+		}
+		synchronized (this.metrics) {
+			QueueMetrics metrics = this.metrics.get(queueName);
+			if (metrics == null) {
+				metrics = new QueueMetrics(queueName);
+				this.metrics.put(queueName, metrics);
+				this.export(metrics);
+			}
+			return metrics;
+		}
+	}
+
+	private void export(QueueMetrics metrics) {
+		if (this.mbeanExporter == null && this.applicationContext != null) {
+			Map<String, MBeanExporter> exporters = this.applicationContext.getBeansOfType(MBeanExporter.class);
+			if (!exporters.isEmpty()) {
+				this.mbeanExporter = exporters.values().iterator().next();
+			}
+		}
+		if (this.mbeanExporter == null) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName("xd.channels:type=QueueMetrics,name=" + ObjectName.quote(metrics.getQueueName()));
+			this.mbeanExporter.registerManagedResource(metrics, name);
+			this.exportedMetrics.add(name);
+		}
+		catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException("invalid queue name for JMX: " + metrics.getQueueName(), e);
+		}
+		catch (Exception e) {
+			if (logger.isWarnEnabled()) {
+				logger.warn("failed to export metrics of " + metrics.getQueueName(), e);
+			}
+		}
+	}
+
+	private void publishMetrics() {
+		for (QueueMetrics metrics : this.metrics.values()) {
+			metrics.sample();
+			GaugeService gaugeService = this.gaugeService;
+			if (gaugeService != null) {
+				try {
+					metrics.publish(gaugeService, metrics.getQueueName() + "." + this.consumerId);
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to publish metrics of " + metrics.getQueueName(), e);
+					}
+				}
+			}
+		}
+	}
+
 	@Override
 	public void inbound(final String name, MessageChannel channel) {
+		this.inbound(name, channel, new Properties());
+	}
+
+	@Override
+	public void inbound(final String name, MessageChannel channel, Properties properties) {
 		RedisQueueInboundChannelAdapter adapter = new RedisQueueInboundChannelAdapter("queue." + name, this.redisTemplate.getConnectionFactory());
 		adapter.setOutputChannel(channel);
+		adapter.setDrainSize(this.inboundDrainSize);
+		if (this.blockingConnectionFactory != null
+				&& unwrap(this.blockingConnectionFactory) != unwrap(this.redisTemplate.getConnectionFactory())) {
+			adapter.setBlockingConnectionFactory(this.blockingConnectionFactory);
+		}
+		if (this.queueReader != null) {
+			adapter.setQueueReader(this.queueReader);
+		}
+		int concurrency = concurrency(properties);
+		adapter.setConcurrency(concurrency);
+		adapter.setPartitioned(concurrency > 1 && isPartitioned(properties));
+		String partitions = properties.getProperty(PARTITIONS);
+		if (partitions != null) {
+			String[] tokens = StringUtils.commaDelimitedListToStringArray(partitions);
+			int[] indexes = new int[tokens.length];
+			for (int i = 0; i < tokens.length; i++) {
+				indexes[i] = Integer.parseInt(tokens[i].trim());
+			}
+			adapter.setPartitions(indexes);
+		}
+		if (this.reliable) {
+			adapter.setReliable(true);
+			adapter.setConsumerId(this.consumerId);
+		}
+		if (this.codec != null) {
+			adapter.setExtractPayload(false);
+			adapter.setCodec(this.codec);
+		}
+		adapter.setFramed(true);
+		PayloadCompressor decompressor = new PayloadCompressor();
+		decompressor.setDictionaryStore(this.dictionaryStore);
+		adapter.setCompressor(decompressor);
+		adapter.setMetrics(this.metrics("queue." + name));
 		adapter.afterPropertiesSet();
-		this.lifecycleBeans.add(adapter);
+		this.addBinding(new Binding(channel, null, adapter));
 		adapter.start();
 	}
 
 	@Override
 	public void outbound(final String name, MessageChannel channel) {
+		this.outbound(name, channel, new Properties());
+	}
+
+	@Override
+	public void outbound(final String name, MessageChannel channel, Properties properties) {
 		Assert.isInstanceOf(SubscribableChannel.class, channel);
-		MessageHandler handler = new CompositeHandler(name, this.redisTemplate.getConnectionFactory());
+		RedisQueueOutboundChannelAdapter handler = new RedisQueueOutboundChannelAdapter("queue." + name,
+				this.redisTemplate.getConnectionFactory());
+		handler.setTopic("topic." + name);
+		handler.setSubscriberCheckInterval(this.tapCheckInterval);
+		handler.setPublishOnly(Boolean.valueOf(properties.getProperty(PUBLISH_ONLY)));
+		handler.setBatchSize(this.outboundBatchSize);
+		handler.setBatchTimeout(this.outboundBatchTimeout);
+		handler.setMaxLength(this.maxQueueLength);
+		if (this.overflowPolicy != null) {
+			handler.setOverflowPolicy(this.overflowPolicy);
+		}
+		if (this.spillDirectory != null) {
+			handler.setSpillDirectory(this.spillDirectory);
+		}
+		if (isPartitioned(properties)) {
+			String partitionCount = properties.getProperty(PARTITION_COUNT);
+			handler.setPartitions((partitionCount != null) ? Integer.parseInt(partitionCount) : concurrency(properties));
+			handler.setPartitionHeader(properties.getProperty(PARTITION_HEADER));
+			String partitionKeyExpression = properties.getProperty(PARTITION_KEY_EXPRESSION);
+			if (partitionKeyExpression != null) {
+				handler.setPartitionKeyExpression(this.expressionParser.parseExpression(partitionKeyExpression));
+			}
+		}
+		if (this.codec != null) {
+			handler.setExtractPayload(false);
+			handler.setCodec(this.codec);
+		}
+		handler.setFramed(true);
+		if (this.compressionThreshold >= 0) {
+			PayloadCompressor compressor = new PayloadCompressor();
+			compressor.setThreshold(this.compressionThreshold);
+			compressor.setTrainingSamples(this.compressionTrainingSamples);
+			compressor.setDictionaryStore(this.dictionaryStore);
+			handler.setCompressor(compressor);
+		}
+		handler.setMetrics(this.metrics("queue." + name));
+		handler.afterPropertiesSet();
+		handler.start();
 		EventDrivenConsumer consumer = new EventDrivenConsumer((SubscribableChannel) channel, handler);
 		consumer.afterPropertiesSet();
-		this.lifecycleBeans.add(consumer);
+		// the handler is stopped after the consumer so that buffered messages are flushed
+		this.addBinding(new Binding(channel, null, consumer, handler));
 		consumer.start();
 	}
 
 	@Override
 	public void tap(final String name, MessageChannel channel) {
+		String topic = "topic." + name;
 		RedisInboundChannelAdapter adapter = new RedisInboundChannelAdapter(this.redisTemplate.getConnectionFactory());
-		adapter.setTopics("topic." + name);
+		adapter.setTopics(topic);
 		adapter.setOutputChannel(channel);
 		adapter.afterPropertiesSet();
-		this.lifecycleBeans.add(adapter);
+		this.addBinding(new Binding(channel, topic, adapter));
 		adapter.start();
+		String key = RedisQueueOutboundChannelAdapter.subscriberCountKey(topic);
+		this.redisTemplate.opsForValue().increment(key, 1);
+		if (this.tapTtl > 0) {
+			this.redisTemplate.expire(key, this.tapTtl, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Extend the tap counts of the taps bound here, counting them again if a
+	 * count has expired in the meantime.
+	 */
+	private void refreshTaps() {
+		Map<String, Integer> taps = new HashMap<String, Integer>();
+		synchronized (this.bindings) {
+			for (Binding binding : this.bindings) {
+				if (binding.tapTopic != null) {
+					Integer count = taps.get(binding.tapTopic);
+					taps.put(binding.tapTopic, (count != null) ? count + 1 : 1);
+				}
+			}
+		}
+		for (Map.Entry<String, Integer> tap : taps.entrySet()) {
+			String key = RedisQueueOutboundChannelAdapter.subscriberCountKey(tap.getKey());
+			try {
+				if (!Boolean.TRUE.equals(this.redisTemplate.expire(key, this.tapTtl, TimeUnit.MILLISECONDS))) {
+					this.redisTemplate.opsForValue().increment(key, tap.getValue());
+					this.redisTemplate.expire(key, this.tapTtl, TimeUnit.MILLISECONDS);
+				}
+			}
+			catch (Exception e) {
+				if (logger.isWarnEnabled()) {
+					logger.warn("failed to refresh tap count of " + tap.getKey(), e);
+				}
+			}
+		}
 	}
 
 	@Override
-	public void destroy() {
-		for (Lifecycle bean : this.lifecycleBeans) {
+	public void unbind(MessageChannel channel) {
+		List<Binding> removed = new ArrayList<Binding>();
+		synchronized (this.bindings) {
+			for (Iterator<Binding> iterator = this.bindings.iterator(); iterator.hasNext();) {
+				Binding binding = iterator.next();
+				if (binding.channel == channel) {
+					iterator.remove();
+					removed.add(binding);
+				}
+			}
+		}
+		for (Binding binding : removed) {
+			this.stop(binding);
+		}
+	}
+
+	private void addBinding(Binding binding) {
+		synchronized (this.bindings) {
+			this.bindings.add(binding);
+		}
+	}
+
+	private void stop(Binding binding) {
+		for (Lifecycle adapter : binding.adapters) {
 			try {
-				bean.stop();
+				adapter.stop();
 			}
 			catch (Exception e) {
 				if (logger.isWarnEnabled()) {
@@ -99,30 +571,81 @@ public class RedisChannelRegistry implements ChannelRegistry, DisposableBean {
 				}
 			}
 		}
+		if (binding.tapTopic != null) {
+			String key = RedisQueueOutboundChannelAdapter.subscriberCountKey(binding.tapTopic);
+			try {
+				Long count = this.redisTemplate.opsForValue().increment(key, -1);
+				if (count != null && count <= 0) {
+					// also drops a negative count left by a count that had expired
+					this.redisTemplate.delete(key);
+				}
+			}
+			catch (Exception e) {
+				if (logger.isWarnEnabled()) {
+					logger.warn("failed to unregister tap on " + binding.tapTopic, e);
+				}
+			}
+		}
 	}
 
+	private static RedisConnectionFactory unwrap(RedisConnectionFactory connectionFactory) {
+		return (connectionFactory instanceof MonitoredRedisConnectionFactory)
+				? ((MonitoredRedisConnectionFactory) connectionFactory).getTargetConnectionFactory()
+				: connectionFactory;
+	}
 
-	private static class CompositeHandler extends AbstractMessageHandler {
-
-		private final RedisPublishingMessageHandler topic;
+	private static boolean isPartitioned(Properties properties) {
+		return properties.getProperty(PARTITION_HEADER) != null || properties.getProperty(PARTITION_KEY_EXPRESSION) != null;
+	}
 
-		private final RedisQueueOutboundChannelAdapter queue;
+	private static int concurrency(Properties properties) {
+		String concurrency = properties.getProperty(CONCURRENCY);
+		return (concurrency != null) ? Integer.parseInt(concurrency) : 1;
+	}
 
-		private CompositeHandler(String name, RedisConnectionFactory connectionFactory) {
-			// TODO: replace with a multiexec that does both publish and lpush
-			RedisPublishingMessageHandler topic = new RedisPublishingMessageHandler(connectionFactory);
-			topic.setDefaultTopic("topic." + name);
-			topic.afterPropertiesSet();
-			this.topic = topic;
-			RedisQueueOutboundChannelAdapter queue = new RedisQueueOutboundChannelAdapter("queue." + name, connectionFactory);
-			queue.afterPropertiesSet();
-			this.queue = queue;
+	@Override
+	public void destroy() {
+		if (this.taskScheduler != null) {
+			this.taskScheduler.destroy();
+		}
+		if (this.mbeanExporter != null) {
+			for (ObjectName name : this.exportedMetrics) {
+				try {
+					this.mbeanExporter.unregisterManagedResource(name);
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to unregister " + name, e);
+					}
+				}
+			}
+		}
+		List<Binding> bindings;
+		synchronized (this.bindings) {
+			bindings = new ArrayList<Binding>(this.bindings);
+			this.bindings.clear();
 		}
+		for (Binding binding : bindings) {
+			this.stop(binding);
+		}
+	}
+
+
+	/**
+	 * The adapters started for one channel, stopped in order when it is unbound.
+	 */
+	private static class Binding {
+
+		private final MessageChannel channel;
+
+		private final String tapTopic;
+
+		private final List<Lifecycle> adapters;
 
-		@Override
-		protected void handleMessageInternal(Message<?> message) throws Exception {
-			topic.handleMessage(message);
-			queue.handleMessage(message);
+		Binding(MessageChannel channel, String tapTopic, Lifecycle... adapters) {
+			this.channel = channel;
+			this.tapTopic = tapTopic;
+			this.adapters = Arrays.asList(adapters);
 		}
 	}
 
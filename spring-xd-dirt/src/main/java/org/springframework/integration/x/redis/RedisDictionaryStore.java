@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.integration.x.codec.PayloadCompressor;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps the dictionaries of {@link PayloadCompressor}s in a Redis hash, so that
+ * a dictionary trained by a sender can be found by the receivers in any other
+ * container.
+ *
+ * @author agent
+ */
+public class RedisDictionaryStore implements PayloadCompressor.DictionaryStore {
+
+	private final RedisTemplate<String, byte[]> redisTemplate = new RedisTemplate<String, byte[]>();
+
+	private final String key;
+
+
+	public RedisDictionaryStore(RedisConnectionFactory connectionFactory) {
+		this(connectionFactory, "compression:dictionaries");
+	}
+
+	public RedisDictionaryStore(RedisConnectionFactory connectionFactory, String key) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		Assert.hasText(key, "key is required");
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.setKeySerializer(new StringRedisSerializer());
+		this.redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+		this.redisTemplate.setHashValueSerializer(new ByteArrayRedisSerializer());
+		this.redisTemplate.afterPropertiesSet();
+		this.key = key;
+	}
+
+
+	@Override
+	public void save(long id, byte[] dictionary) {
+		this.redisTemplate.opsForHash().put(this.key, Long.toString(id), dictionary);
+	}
+
+	@Override
+	public byte[] load(long id) {
+		return (byte[]) this.redisTemplate.opsForHash().get(this.key, Long.toString(id));
+	}
+
+}
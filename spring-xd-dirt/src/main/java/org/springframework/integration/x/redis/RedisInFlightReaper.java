@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.redis;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * Returns the entries left in the in-flight lists of reliable
+ * {@link RedisQueueInboundChannelAdapter}s to their queues once the consumer that
+ * owned them has gone away. A consumer is considered gone when its id is missing
+ * from the liveness hash (by default the "containers" hash that containers
+ * register themselves in), or when the "timestamp" of the JSON value it last
+ * wrote there is older than the {@link #setStaleAfter(long) staleness limit},
+ * on two consecutive runs. The second run leaves a consumer that is still
+ * starting up the time to register. The timestamp covers containers that crash
+ * without removing their entry; it is kept fresh by the
+ * {@link org.springframework.xd.dirt.container.ContainerLoadReporter}. Values
+ * without a timestamp count as live.
+ * <p>
+ * Several reapers may run against the same Redis instance: entries are moved
+ * with RPOPLPUSH, so each one is returned exactly once.
+ *
+ * @author agent
+ */
+public class RedisInFlightReaper implements Runnable {
+
+	private static final String CONSUMERS_KEY = "inflight:consumers";
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+
+	private final String livenessKey;
+
+	private final Set<String> suspects = new HashSet<String>();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private volatile long staleAfter = 30000;
+
+
+	public RedisInFlightReaper(RedisConnectionFactory connectionFactory) {
+		this(connectionFactory, "containers");
+	}
+
+	public RedisInFlightReaper(RedisConnectionFactory connectionFactory, String livenessKey) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		Assert.hasText(livenessKey, "livenessKey is required");
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.afterPropertiesSet();
+		this.livenessKey = livenessKey;
+	}
+
+
+	/**
+	 * Set the age in milliseconds after which the timestamp of a consumer's
+	 * liveness entry is considered stale. Default is 30000.
+	 */
+	public void setStaleAfter(long staleAfter) {
+		Assert.isTrue(staleAfter > 0, "staleAfter must be positive");
+		this.staleAfter = staleAfter;
+	}
+
+	/**
+	 * Record that the given consumer keeps in-flight lists for the given queues.
+	 */
+	static void register(RedisOperations<?, ?> redisOperations, String consumerId, final Collection<String> queues) {
+		final RedisSerializer<String> serializer = new StringRedisSerializer();
+		final byte[] consumer = serializer.serialize(consumerId);
+		final byte[] consumerKey = serializer.serialize(consumerKey(consumerId));
+		redisOperations.execute(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.openPipeline();
+				connection.sAdd(serializer.serialize(CONSUMERS_KEY), consumer);
+				for (String queue : queues) {
+					connection.sAdd(consumerKey, serializer.serialize(queue));
+				}
+				connection.closePipeline();
+				return null;
+			}
+		});
+	}
+
+	private static String consumerKey(String consumerId) {
+		return "inflight:" + consumerId;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Set<String> live = this.liveConsumers();
+			Set<String> consumers = this.redisTemplate.boundSetOps(CONSUMERS_KEY).members();
+			for (String consumer : consumers) {
+				if (live.contains(consumer)) {
+					this.suspects.remove(consumer);
+				}
+				else if (this.suspects.remove(consumer)) {
+					this.reap(consumer);
+				}
+				else {
+					this.suspects.add(consumer);
+				}
+			}
+			this.suspects.retainAll(consumers);
+		}
+		catch (Exception e) {
+			if (logger.isWarnEnabled()) {
+				logger.warn("failed to reap in-flight messages", e);
+			}
+		}
+	}
+
+	private Set<String> liveConsumers() {
+		Map<Object, Object> entries = this.redisTemplate.boundHashOps(this.livenessKey).entries();
+		Set<String> live = new HashSet<String>();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+			long timestamp = this.timestamp(entry.getValue().toString());
+			if (timestamp < 0 || now - timestamp <= this.staleAfter) {
+				live.add(entry.getKey().toString());
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Return the "timestamp" field of a JSON liveness value, or -1 if it has none.
+	 */
+	private long timestamp(String value) {
+		try {
+			JsonNode timestamp = this.mapper.readTree(value).get("timestamp");
+			return (timestamp != null && timestamp.isNumber()) ? timestamp.getLongValue() : -1;
+		}
+		catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private void reap(String consumer) {
+		String consumerKey = consumerKey(consumer);
+		Set<String> queues = this.redisTemplate.boundSetOps(consumerKey).members();
+		for (String queue : queues) {
+			String inFlightQueue = RedisQueueInboundChannelAdapter.inFlightQueueName(queue, consumer);
+			int count = 0;
+			// the oldest entries are at the tail; they end up at the head of the queue and are consumed last
+			while (this.redisTemplate.opsForList().rightPopAndLeftPush(inFlightQueue, queue) != null) {
+				count++;
+			}
+			if (count > 0 && logger.isInfoEnabled()) {
+				logger.info("returned " + count + " in-flight messages of consumer " + consumer + " to queue '" + queue + "'");
+			}
+		}
+		this.redisTemplate.delete(consumerKey);
+		this.redisTemplate.boundSetOps(CONSUMERS_KEY).remove(consumer);
+	}
+
+}
@@ -16,38 +16,124 @@
 
 package org.springframework.integration.x.redis;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-import org.codehaus.jackson.map.ObjectMapper;
-
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.integration.Message;
 import org.springframework.integration.endpoint.MessageProducerSupport;
 import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.x.codec.JsonMessageCodec;
+import org.springframework.integration.x.codec.MessageCodec;
+import org.springframework.integration.x.codec.PayloadCompressor;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.Assert;
 
 /**
+ * Pops messages from the tail of a Redis list. A blocking pop waits for the next
+ * message; with a {@link #setDrainSize(int) drainSize} greater than 1, every wakeup
+ * additionally takes up to {@code drainSize - 1} queued messages in a single
+ * MULTI/EXEC round trip and dispatches them as a burst, or as one message with a
+ * {@link List} payload when {@link #setBatchPayload(boolean) batchPayload} is set.
+ * <p>
+ * With {@link #setExtractPayload(boolean) extractPayload} (the default) each entry
+ * becomes the String payload of a new message, or its {@code byte[]} payload if
+ * its {@link QueueFrame} says so. Otherwise entries are decoded with the
+ * configured {@link MessageCodec}, which must match the one of the sender.
+ * When {@link #setFramed(boolean) framed}, the header is removed first, entries
+ * it flags as compressed are decompressed by the
+ * {@link #setCompressor(PayloadCompressor) compressor}, and the enqueue time is
+ * recorded as latency in the {@link #setMetrics(QueueMetrics) metrics}. A
+ * compressor or metrics require framing. Without it (the default) entries are
+ * taken as they are.
+ * <p>
+ * A {@link #setConcurrency(int) concurrency} greater than 1 runs that many
+ * listeners, each blocking on its own connection. They compete for the same list
+ * unless {@link #setPartitioned(boolean) partitioned} is set, in which case
+ * listener {@code i} consumes only the sub-queue
+ * {@link RedisQueueOutboundChannelAdapter#partitionQueueName(String, int) queueName.p<i>},
+ * so that the order of messages within a partition is preserved. Alternatively an
+ * explicit set of {@link #setPartitions(int...) partitions} can be consumed, one
+ * listener each, so that several consumer instances can share the partitions
+ * between them.
+ * <p>
+ * In {@link #setReliable(boolean) reliable} mode each message is atomically moved
+ * into this consumer's in-flight list (see {@link #inFlightQueueName(String, String)})
+ * instead of being removed, and only removed from there once it has been sent
+ * downstream. Acknowledgements are collected and removed in one pipelined round
+ * trip per {@link #setAckBatchSize(int) ackBatchSize} messages, or earlier once
+ * {@link #setAckInterval(long) ackInterval} has elapsed or the queue runs empty.
+ * Messages that could not be sent are moved to the {@code <queue>.errors} list.
+ * Entries left in the in-flight lists of dead consumers are returned to their
+ * queues by a {@link RedisInFlightReaper}.
+ * <p>
+ * By default every blocking pop borrows a connection from the adapter's
+ * connection factory for up to 5 seconds. With a separate
+ * {@link #setBlockingConnectionFactory(RedisConnectionFactory) blockingConnectionFactory}
+ * each listener instead holds one connection from that factory for its lifetime,
+ * so that blocked listeners never compete with writers for pooled connections.
+ * <p>
+ * With a shared {@link #setQueueReader(RedisQueueReader) queueReader} the adapter
+ * runs no listener threads of its own; the reader's threads wait on this
+ * adapter's queues together with those of all other adapters, and hand the
+ * entries of each queue to as many tasks at a time as it has listeners. This
+ * does not apply in reliable mode, which needs a BRPOPLPUSH per queue.
+ *
  * @author Mark Fisher
  */
 public class RedisQueueInboundChannelAdapter extends MessageProducerSupport {
 
 	private final String queueName;
 
-	private volatile boolean extractPayload = true;
+	private final RedisTemplate<String, byte[]> redisTemplate = new RedisTemplate<String, byte[]>();
+
+	private final QueueValueCodec values = new QueueValueCodec();
 
-	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+	private volatile QueueMetrics metrics;
 
 	private volatile TaskScheduler taskScheduler;
 
-	private volatile ScheduledFuture<?> listenerTask;
+	private final List<ScheduledFuture<?>> listenerTasks = new CopyOnWriteArrayList<ScheduledFuture<?>>();
+
+	private volatile int concurrency = 1;
+
+	private volatile boolean partitioned;
+
+	private volatile int[] partitions;
+
+	private volatile int drainSize = 1;
+
+	private volatile boolean batchPayload;
+
+	private volatile boolean reliable;
 
-	private final ObjectMapper objectMapper = new ObjectMapper();
+	private volatile String consumerId;
+
+	private volatile int ackBatchSize = 100;
+
+	private volatile long ackInterval = 100;
+
+	private volatile RedisConnectionFactory blockingConnectionFactory;
+
+	private volatile RedisQueueReader queueReader;
+
+	private final List<String> registeredQueues = new CopyOnWriteArrayList<String>();
+
+	private final QueueReaderHandler queueReaderHandler = new QueueReaderHandler();
 
 
 	public RedisQueueInboundChannelAdapter(String queueName, RedisConnectionFactory connectionFactory) {
@@ -55,20 +141,173 @@ public class RedisQueueInboundChannelAdapter extends MessageProducerSupport {
 		Assert.notNull(connectionFactory, "connectionFactory must not be null");
 		this.queueName = queueName;
 		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.setKeySerializer(new StringRedisSerializer());
+		this.redisTemplate.setValueSerializer(new ByteArrayRedisSerializer());
 		this.redisTemplate.afterPropertiesSet();
 	}
 
 
 	public void setExtractPayload(boolean extractPayload) {
-		this.extractPayload = extractPayload;
+		this.values.setExtractPayload(extractPayload);
+	}
+
+	/**
+	 * Set the codec used to decode whole messages when the payload is not
+	 * extracted. Default is a {@link JsonMessageCodec}.
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.values.setCodec(codec);
+	}
+
+	/**
+	 * Whether entries start with the {@link QueueFrame} header of a framed
+	 * sender. Entries without one are taken as they are. Default is false.
+	 */
+	public void setFramed(boolean framed) {
+		this.values.setFramed(framed);
+	}
+
+	/**
+	 * Set the compressor used to decompress entries, which must share the
+	 * dictionary store of the sender's compressor and requires
+	 * {@link #setFramed(boolean) framing}.
+	 */
+	public void setCompressor(PayloadCompressor compressor) {
+		this.values.setCompressor(compressor);
+	}
+
+	/**
+	 * Set the metrics to record receives and the time messages spent in the
+	 * queue in, which requires {@link #setFramed(boolean) framing}.
+	 */
+	public void setMetrics(QueueMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set the maximum number of messages taken from the queue each time the
+	 * blocking pop wakes up. Default is 1, meaning that draining is disabled.
+	 */
+	public void setDrainSize(int drainSize) {
+		Assert.isTrue(drainSize > 0, "drainSize must be positive");
+		this.drainSize = drainSize;
+	}
+
+	/**
+	 * Whether messages drained together should be sent as a single message whose
+	 * payload is the {@link List} of their payloads, for batch-aware downstream
+	 * modules. Default is false: each message is sent on its own.
+	 */
+	public void setBatchPayload(boolean batchPayload) {
+		this.batchPayload = batchPayload;
+	}
+
+	/**
+	 * Set the number of listeners consuming the queue concurrently. Default is 1.
+	 * An injected task scheduler must be able to run that many tasks at once.
+	 */
+	public void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Whether each listener should consume its own partition sub-queue, as written
+	 * by a partitioning {@link RedisQueueOutboundChannelAdapter} with as many
+	 * partitions as this adapter's concurrency. Default is false.
+	 */
+	public void setPartitioned(boolean partitioned) {
+		this.partitioned = partitioned;
+	}
+
+	/**
+	 * Set the partition sub-queues to consume, one listener each. Overrides the
+	 * concurrency and partitioned settings.
+	 */
+	public void setPartitions(int... partitions) {
+		Assert.notEmpty(partitions, "partitions must not be empty");
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Whether messages should be kept in an in-flight list until they have been
+	 * sent, giving at-least-once delivery. Requires a consumer id. Default is false.
+	 */
+	public void setReliable(boolean reliable) {
+		this.reliable = reliable;
+	}
+
+	/**
+	 * Set the id that identifies this consumer's in-flight lists. It must be
+	 * unique and is expected to be the id of the container running the adapter,
+	 * so that the {@link RedisInFlightReaper} can tell when it has gone away.
+	 */
+	public void setConsumerId(String consumerId) {
+		this.consumerId = consumerId;
+	}
+
+	/**
+	 * Set the number of acknowledgements sent to Redis in one round trip in
+	 * reliable mode. Default is 100.
+	 */
+	public void setAckBatchSize(int ackBatchSize) {
+		Assert.isTrue(ackBatchSize > 0, "ackBatchSize must be positive");
+		this.ackBatchSize = ackBatchSize;
+	}
+
+	/**
+	 * Set the maximum time in milliseconds that acknowledgements are held back in
+	 * reliable mode. Default is 100.
+	 */
+	public void setAckInterval(long ackInterval) {
+		this.ackInterval = ackInterval;
+	}
+
+	/**
+	 * Set the factory of the connections that listeners hold for their blocking
+	 * pops. It should not be a pool shared with writers, since each listener keeps
+	 * its connection until the adapter is stopped.
+	 */
+	public void setBlockingConnectionFactory(RedisConnectionFactory blockingConnectionFactory) {
+		this.blockingConnectionFactory = blockingConnectionFactory;
+	}
+
+	/**
+	 * Set a shared reader to consume the queue with instead of listener threads
+	 * owned by this adapter. Ignored in reliable mode.
+	 */
+	public void setQueueReader(RedisQueueReader queueReader) {
+		this.queueReader = queueReader;
+	}
+
+	private boolean useQueueReader() {
+		return this.queueReader != null && !this.reliable;
+	}
+
+	/**
+	 * Return the name of the in-flight list of the given consumer for a queue.
+	 */
+	public static String inFlightQueueName(String queueName, String consumerId) {
+		return queueName + ".inflight." + consumerId;
+	}
+
+	/**
+	 * Return the name of the list holding messages from a queue that could not
+	 * be sent in reliable mode.
+	 */
+	public static String errorQueueName(String queueName) {
+		return queueName + ".errors";
 	}
 
 	@Override
 	protected void onInit() {
 		super.onInit();
+		Assert.isTrue(!this.reliable || this.consumerId != null, "a consumerId is required in reliable mode");
+		this.values.assertFramed(this.metrics != null);
 		this.taskScheduler = this.getTaskScheduler();
-		if (this.taskScheduler == null) {
+		if (this.taskScheduler == null && !this.useQueueReader()) {
 			ThreadPoolTaskScheduler tpts = new ThreadPoolTaskScheduler();
+			tpts.setPoolSize(this.queues().size());
 			tpts.afterPropertiesSet();
 			this.taskScheduler = tpts;
 		}
@@ -77,67 +316,366 @@ public class RedisQueueInboundChannelAdapter extends MessageProducerSupport {
 	@Override
 	protected void doStart() {
 		super.doStart();
-		this.listenerTask = this.taskScheduler.schedule(new ListenerTask(), new Date());
+		List<String> queues = this.queues();
+		if (this.reliable) {
+			RedisInFlightReaper.register(this.redisTemplate, this.consumerId, queues);
+		}
+		if (this.useQueueReader()) {
+			// a queue consumed by several listeners is registered once with that concurrency
+			Map<String, Integer> concurrencies = new LinkedHashMap<String, Integer>();
+			for (String queue : queues) {
+				Integer concurrency = concurrencies.get(queue);
+				concurrencies.put(queue, (concurrency != null) ? concurrency + 1 : 1);
+			}
+			for (Map.Entry<String, Integer> entry : concurrencies.entrySet()) {
+				this.queueReader.register(entry.getKey(), this.queueReaderHandler, entry.getValue());
+				this.registeredQueues.add(entry.getKey());
+			}
+			return;
+		}
+		for (String queue : queues) {
+			this.listenerTasks.add(this.taskScheduler.schedule(new ListenerTask(queue), new Date()));
+		}
+	}
+
+	/**
+	 * Return the queue of every listener.
+	 */
+	private List<String> queues() {
+		List<String> queues = new ArrayList<String>();
+		if (this.partitions != null) {
+			for (int partition : this.partitions) {
+				queues.add(RedisQueueOutboundChannelAdapter.partitionQueueName(this.queueName, partition));
+			}
+			return queues;
+		}
+		for (int i = 0; i < this.concurrency; i++) {
+			queues.add((this.partitioned) ? RedisQueueOutboundChannelAdapter.partitionQueueName(this.queueName, i) : this.queueName);
+		}
+		return queues;
 	}
 
 	@Override
 	protected void doStop() {
 		super.doStop();
-		if (this.listenerTask != null) {
-			this.listenerTask.cancel(true);
+		for (ScheduledFuture<?> listenerTask : this.listenerTasks) {
+			listenerTask.cancel(true);
+		}
+		this.listenerTasks.clear();
+		for (String queue : this.registeredQueues) {
+			this.queueReader.unregister(queue, this.queueReaderHandler);
+		}
+		this.registeredQueues.clear();
+	}
+
+
+	/**
+	 * Take up to {@code count} of the oldest entries from the tail of the queue in
+	 * one MULTI/EXEC round trip, returned oldest first.
+	 */
+	private List<byte[]> drain(String queue, final int count) {
+		final RedisSerializer<String> serializer = this.redisTemplate.getStringSerializer();
+		final byte[] key = serializer.serialize(queue);
+		List<Object> results = this.redisTemplate.execute(new RedisCallback<List<Object>>() {
+			@Override
+			public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.multi();
+				connection.lRange(key, -count, -1);
+				connection.lTrim(key, 0, -count - 1);
+				return connection.exec();
+			}
+		});
+		if (results == null || results.isEmpty() || !(results.get(0) instanceof List)) {
+			return Collections.emptyList();
+		}
+		@SuppressWarnings("unchecked")
+		List<byte[]> raw = (List<byte[]>) results.get(0);
+		List<byte[]> values = new ArrayList<byte[]>(raw);
+		// LPUSH adds at the head, so the oldest entry is the last one in the range
+		Collections.reverse(values);
+		return values;
+	}
+
+	/**
+	 * Move up to {@code count} of the oldest entries from the tail of the queue
+	 * into the in-flight list in one pipelined round trip, returned oldest first.
+	 */
+	private List<byte[]> drainReliably(String queue, String inFlightQueue, final int count) {
+		final RedisSerializer<String> serializer = this.redisTemplate.getStringSerializer();
+		final byte[] key = serializer.serialize(queue);
+		final byte[] inFlightKey = serializer.serialize(inFlightQueue);
+		List<Object> results = this.redisTemplate.execute(new RedisCallback<List<Object>>() {
+			@Override
+			public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.openPipeline();
+				for (int i = 0; i < count; i++) {
+					connection.rPopLPush(key, inFlightKey);
+				}
+				return connection.closePipeline();
+			}
+		});
+		List<byte[]> values = new ArrayList<byte[]>();
+		if (results != null) {
+			for (Object result : results) {
+				if (result instanceof byte[]) {
+					values.add((byte[]) result);
+				}
+			}
+		}
+		return values;
+	}
+
+	private Message<?> toMessage(byte[] value) {
+		return this.values.decode(value, this.metrics);
+	}
+
+	/**
+	 * Send the given entries downstream, collecting those that failed.
+	 */
+	private void dispatch(List<byte[]> values, List<byte[]> failed) {
+		QueueMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordReceive(values.size());
+		}
+		if (this.batchPayload) {
+			List<Object> payloads = new ArrayList<Object>(values.size());
+			List<byte[]> converted = new ArrayList<byte[]>(values.size());
+			for (byte[] value : values) {
+				try {
+					payloads.add(this.toMessage(value).getPayload());
+					converted.add(value);
+				}
+				catch (Exception e) {
+					logger.error("failed to convert message from redis queue '" + this.queueName + "'", e);
+					failed.add(value);
+				}
+			}
+			if (!payloads.isEmpty()) {
+				try {
+					sendMessage(MessageBuilder.withPayload(payloads).build());
+				}
+				catch (Exception e) {
+					logger.error("failed to send batch from redis queue '" + this.queueName + "'", e);
+					failed.addAll(converted);
+				}
+			}
+		}
+		else {
+			for (byte[] value : values) {
+				try {
+					sendMessage(this.toMessage(value));
+				}
+				catch (Exception e) {
+					logger.error("failed to send message from redis queue '" + this.queueName + "'", e);
+					failed.add(value);
+				}
+			}
 		}
 	}
 
 
 	private class ListenerTask implements Runnable {
 
+		private final String queue;
+
+		private final String inFlightQueue;
+
+		private final Acknowledger acknowledger;
+
+		private final byte[] key;
+
+		private final byte[] inFlightKey;
+
+		private RedisConnection connection;
+
+		private ListenerTask(String queue) {
+			this.queue = queue;
+			this.inFlightQueue = (reliable) ? inFlightQueueName(queue, consumerId) : null;
+			this.acknowledger = (reliable) ? new Acknowledger(queue, this.inFlightQueue) : null;
+			RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+			this.key = serializer.serialize(queue);
+			this.inFlightKey = (reliable) ? serializer.serialize(this.inFlightQueue) : null;
+		}
+
 		@Override
 		public void run() {
+			try {
+				this.listen();
+			}
+			finally {
+				this.closeConnection();
+			}
+		}
+
+		private void listen() {
+			List<byte[]> failed = new ArrayList<byte[]>();
 			while (isRunning()) {
-				String next = redisTemplate.boundListOps(queueName).rightPop(5, TimeUnit.SECONDS);
-				if (next != null) {
+				byte[] next;
+				try {
+					next = this.pop();
+				}
+				catch (Exception e) {
+					logger.error("failed to pop from redis queue '" + this.queue + "'", e);
+					this.closeConnection();
 					try {
-						Message<?> message = null;
-						if (extractPayload) {
-							message = MessageBuilder.withPayload(next).build();
+						Thread.sleep(1000);
+					}
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					continue;
+				}
+				if (next != null) {
+					List<byte[]> values = new ArrayList<byte[]>(drainSize);
+					values.add(next);
+					if (drainSize > 1) {
+						try {
+							values.addAll((reliable)
+									? drainReliably(this.queue, this.inFlightQueue, drainSize - 1)
+									: drain(this.queue, drainSize - 1));
 						}
-						else {
-							MessageDeserializationWrapper wrapper = objectMapper.readValue(next, MessageDeserializationWrapper.class);
-							message = wrapper.getMessage();
+						catch (Exception e) {
+							logger.error("failed to drain redis queue '" + this.queue + "'", e);
 						}
-						sendMessage(message);
 					}
-					catch (Exception e) {
-						e.printStackTrace();
+					dispatch(values, failed);
+					if (this.acknowledger != null) {
+						this.acknowledger.acknowledge(values, failed);
 					}
+					failed.clear();
+				}
+				else if (this.acknowledger != null) {
+					this.acknowledger.flush();
+				}
+			}
+			if (this.acknowledger != null) {
+				this.acknowledger.flush();
+			}
+		}
+
+		private byte[] pop() {
+			RedisConnectionFactory connectionFactory = blockingConnectionFactory;
+			if (connectionFactory == null) {
+				return (reliable)
+						? redisTemplate.opsForList().rightPopAndLeftPush(this.queue, this.inFlightQueue, 5, TimeUnit.SECONDS)
+						: redisTemplate.boundListOps(this.queue).rightPop(5, TimeUnit.SECONDS);
+			}
+			if (this.connection == null) {
+				this.connection = connectionFactory.getConnection();
+			}
+			if (reliable) {
+				return this.connection.bRPopLPush(5, this.key, this.inFlightKey);
+			}
+			List<byte[]> result = this.connection.bRPop(5, this.key);
+			// the reply is the key followed by the value
+			return (result != null && result.size() > 1) ? result.get(1) : null;
+		}
+
+		private void closeConnection() {
+			if (this.connection != null) {
+				try {
+					this.connection.close();
 				}
+				catch (Exception e) {
+					// ignore, the connection is discarded anyway
+				}
+				this.connection = null;
 			}
 		}
 	}
 
 
-	@SuppressWarnings("unused") // used by object mapper
-	private static class MessageDeserializationWrapper {
+	/**
+	 * Handles the entries a shared {@link RedisQueueReader} took from this
+	 * adapter's queues.
+	 */
+	private class QueueReaderHandler implements RedisQueueReader.Handler {
 
-		private volatile Map<String, Object> headers;
+		@Override
+		public void handle(String queue, byte[] value) {
+			List<byte[]> values = new ArrayList<byte[]>(drainSize);
+			values.add(value);
+			if (drainSize > 1) {
+				try {
+					values.addAll(drain(queue, drainSize - 1));
+				}
+				catch (Exception e) {
+					logger.error("failed to drain redis queue '" + queue + "'", e);
+				}
+			}
+			dispatch(values, new ArrayList<byte[]>());
+		}
+	}
+
+
+	/**
+	 * Collects the entries a listener has handled and removes them from its
+	 * in-flight list in batches.
+	 */
+	private class Acknowledger {
 
-		private volatile Object payload;
+		private final byte[] inFlightKey;
 
-		private volatile Message<?> message;
+		private final byte[] errorKey;
 
-		void setHeaders(Map<String, Object> headers) {
-			this.headers = headers;
+		private final List<byte[]> acks = new ArrayList<byte[]>();
+
+		private final List<byte[]> failures = new ArrayList<byte[]>();
+
+		private long lastFlush = System.currentTimeMillis();
+
+		private Acknowledger(String queue, String inFlightQueue) {
+			RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+			this.inFlightKey = serializer.serialize(inFlightQueue);
+			this.errorKey = serializer.serialize(errorQueueName(queue));
 		}
 
-		void setPayload(Object payload) {
-			this.payload = payload;
+		private void acknowledge(List<byte[]> values, List<byte[]> failed) {
+			for (byte[] value : values) {
+				if (!failed.contains(value)) {
+					this.acks.add(value);
+				}
+			}
+			this.failures.addAll(failed);
+			if (this.acks.size() + this.failures.size() >= ackBatchSize
+					|| System.currentTimeMillis() - this.lastFlush >= ackInterval) {
+				this.flush();
+			}
 		}
 
-		Message<?> getMessage() {
-			if (this.message == null) {
-				this.message = MessageBuilder.withPayload(this.payload).copyHeaders(this.headers).build();
+		private void flush() {
+			this.lastFlush = System.currentTimeMillis();
+			if (this.acks.isEmpty() && this.failures.isEmpty()) {
+				return;
+			}
+			try {
+				redisTemplate.execute(new RedisCallback<Object>() {
+					@Override
+					public Object doInRedis(RedisConnection connection) throws DataAccessException {
+						connection.openPipeline();
+						for (byte[] failure : failures) {
+							connection.lPush(errorKey, failure);
+							connection.lRem(inFlightKey, -1, failure);
+						}
+						// entries were pushed at the head, so the oldest are found fastest from the tail
+						for (byte[] ack : acks) {
+							connection.lRem(inFlightKey, -1, ack);
+						}
+						connection.closePipeline();
+						return null;
+					}
+				});
+			}
+			catch (Exception e) {
+				// the entries stay in flight and are redelivered once this consumer is reaped
+				logger.error("failed to acknowledge " + (this.acks.size() + this.failures.size())
+						+ " messages from redis queue '" + queueName + "'", e);
+			}
+			finally {
+				this.acks.clear();
+				this.failures.clear();
 			}
-			return this.message;
 		}
 	}
 
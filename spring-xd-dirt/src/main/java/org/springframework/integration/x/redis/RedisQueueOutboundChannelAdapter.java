@@ -16,26 +16,87 @@
 
 package org.springframework.integration.x.redis;
 
-import org.codehaus.jackson.map.ObjectMapper;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+import org.springframework.context.Lifecycle;
+import org.springframework.context.expression.BeanFactoryResolver;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessageHandlingException;
 import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.integration.message.ErrorMessage;
+import org.springframework.integration.x.codec.JsonMessageCodec;
+import org.springframework.integration.x.codec.MessageCodec;
+import org.springframework.integration.x.codec.PayloadCompressor;
 import org.springframework.util.Assert;
 
 /**
+ * Pushes messages onto the head of a Redis list, one LPUSH per message or, with a
+ * {@link #setBatchSize(int) batchSize} greater than 1, one pipelined round trip per
+ * batch. Messages can also be published to a {@link #setTopic(String) topic} for
+ * taps, spread over {@link #setPartitions(int) partitions}, and held back by an
+ * {@link OverflowPolicy} once a queue exceeds its {@link #setMaxLength(long) maxLength}.
+ *
  * @author Mark Fisher
  */
-public class RedisQueueOutboundChannelAdapter extends AbstractMessageHandler {
+public class RedisQueueOutboundChannelAdapter extends AbstractMessageHandler implements Lifecycle {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
 	private final String queueName;
 
-	private volatile boolean extractPayload = true;
+	private final RedisTemplate<String, byte[]> redisTemplate = new RedisTemplate<String, byte[]>();
+
+	private final QueueValueCodec values = new QueueValueCodec();
+
+	private final QueueBatcher batcher;
+
+	private final QueueOverflow overflow;
+
+	private volatile QueueMetrics metrics;
+
+	private volatile TaskExecutor taskExecutor;
+
+	private volatile String topic;
+
+	private volatile boolean publishOnly;
+
+	private volatile int partitions = 1;
+
+	private volatile String partitionHeader;
+
+	private volatile Expression partitionKeyExpression;
+
+	private volatile Expression queueNameExpression;
+
+	private volatile EvaluationContext evaluationContext;
+
+	private volatile long subscriberCheckInterval;
+
+	private volatile long lastSubscriberCheck;
 
-	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+	private volatile boolean hasSubscribers = true;
 
-	private final ObjectMapper objectMapper = new ObjectMapper();
+	private volatile boolean running;
+
+	private final Object lifecycleMonitor = new Object();
 
 
 	public RedisQueueOutboundChannelAdapter(String queueName, RedisConnectionFactory connectionFactory) {
@@ -43,21 +104,484 @@ public class RedisQueueOutboundChannelAdapter extends AbstractMessageHandler {
 		Assert.notNull(connectionFactory, "connectionFactory must not be null");
 		this.queueName = queueName;
 		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.setKeySerializer(new StringRedisSerializer());
+		this.redisTemplate.setValueSerializer(new ByteArrayRedisSerializer());
 		this.redisTemplate.afterPropertiesSet();
+		this.batcher = new QueueBatcher(queueName, new QueueBatcher.BatchSender() {
+			@Override
+			public void send(List<QueueEntry> batch) {
+				RedisQueueOutboundChannelAdapter.this.send(batch, false);
+			}
+		});
+		this.overflow = new QueueOverflow(queueName, this.redisTemplate);
 	}
 
 
 	public void setExtractPayload(boolean extractPayload) {
-		this.extractPayload = extractPayload;
+		this.values.setExtractPayload(extractPayload);
+	}
+
+	/**
+	 * Set the codec used to encode whole messages when the payload is not
+	 * extracted. Default is a {@link JsonMessageCodec}.
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.values.setCodec(codec);
+	}
+
+	/**
+	 * Whether every value gets a {@link QueueFrame} header, which the receiving
+	 * adapter must then expect. Default is false.
+	 */
+	public void setFramed(boolean framed) {
+		this.values.setFramed(framed);
+	}
+
+	/**
+	 * Set a compressor for the values pushed to the queue; requires framing.
+	 * Messages published to the topic are never compressed.
+	 */
+	public void setCompressor(PayloadCompressor compressor) {
+		this.values.setCompressor(compressor);
+	}
+
+	/**
+	 * Set the metrics to record sends in; requires framing, since values then
+	 * carry their enqueue time.
+	 */
+	public void setMetrics(QueueMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set the maximum number of messages to send in one pipelined round trip.
+	 * Default is 1, meaning that batching is disabled.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batcher.setBatchSize(batchSize);
+	}
+
+	/**
+	 * Set the maximum time in microseconds to wait for a batch to fill up once its
+	 * first message has arrived. Default is 1000.
+	 */
+	public void setBatchTimeout(long batchTimeout) {
+		this.batcher.setBatchTimeout(batchTimeout);
+	}
+
+	/**
+	 * Set the maximum number of messages held in memory while waiting to be
+	 * flushed to Redis. Default is 10000.
+	 */
+	public void setBufferCapacity(int bufferCapacity) {
+		this.batcher.setBufferCapacity(bufferCapacity);
+	}
+
+	/**
+	 * Set the time in milliseconds a sender blocks on a full buffer before a
+	 * {@link MessageHandlingException} is thrown. Default is -1, meaning forever.
+	 */
+	public void setSendTimeout(long sendTimeout) {
+		this.batcher.setSendTimeout(sendTimeout);
+	}
+
+	/**
+	 * Set the time in milliseconds {@link #stop()} keeps retrying to push buffered
+	 * messages. Default is 10000.
+	 */
+	public void setStopTimeout(long stopTimeout) {
+		this.batcher.setStopTimeout(stopTimeout);
+	}
+
+	/**
+	 * Set the channel that receives an {@link ErrorMessage} for every buffered
+	 * message that could not be pushed. Without one such messages are logged and
+	 * dropped.
+	 */
+	public void setErrorChannel(MessageChannel errorChannel) {
+		this.batcher.setErrorChannel(errorChannel);
+	}
+
+	/**
+	 * Set the executor that runs the flusher and the spill drainer. Default is a
+	 * {@link SimpleAsyncTaskExecutor}.
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * Set a pub/sub topic to which every message is also published, payload only.
+	 */
+	public void setTopic(String topic) {
+		this.topic = topic;
+	}
+
+	/**
+	 * Whether messages should only be published to the topic and not pushed to
+	 * the queue. Default is false.
+	 */
+	public void setPublishOnly(boolean publishOnly) {
+		this.publishOnly = publishOnly;
+	}
+
+	/**
+	 * Set how often, in milliseconds, the {@link #subscriberCountKey(String)
+	 * subscriber count} of the topic is read. Publishing is skipped while it is
+	 * zero. Default is 0, meaning that every message is published.
+	 */
+	public void setSubscriberCheckInterval(long subscriberCheckInterval) {
+		this.subscriberCheckInterval = subscriberCheckInterval;
+	}
+
+	/**
+	 * Set the number of {@link #partitionQueueName(String, int) partition}
+	 * sub-queues. Default is 1, meaning that all messages go to the queue itself.
+	 */
+	public void setPartitions(int partitions) {
+		Assert.isTrue(partitions > 0, "partitions must be positive");
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Set the header whose value selects the partition of a message. Messages
+	 * without that header go to the first partition.
+	 */
+	public void setPartitionHeader(String partitionHeader) {
+		this.partitionHeader = partitionHeader;
+	}
+
+	/**
+	 * Set an expression evaluated against each message to get its partition key,
+	 * taking precedence over the partition header.
+	 */
+	public void setPartitionKeyExpression(Expression partitionKeyExpression) {
+		this.partitionKeyExpression = partitionKeyExpression;
+	}
+
+	/**
+	 * Set an expression evaluated against each message to get the name of the
+	 * queue it goes to. Messages for which it evaluates to null go to the queue
+	 * this adapter was created with.
+	 */
+	public void setQueueNameExpression(Expression queueNameExpression) {
+		this.queueNameExpression = queueNameExpression;
+	}
+
+	/**
+	 * Set the length, as reported by LPUSH, above which a queue counts as full.
+	 * Default is 0, meaning that queues are unbounded.
+	 */
+	public void setMaxLength(long maxLength) {
+		this.overflow.setMaxLength(maxLength);
+	}
+
+	/**
+	 * Set the length a full queue must fall under before blocked senders resume
+	 * or spilled messages are replayed. Default is half the maxLength.
+	 */
+	public void setLowWaterMark(long lowWaterMark) {
+		this.overflow.setLowWaterMark(lowWaterMark);
+	}
+
+	/**
+	 * Set what to do once a queue is longer than the maxLength. Default is
+	 * {@link OverflowPolicy#BLOCK}.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflow.setPolicy(overflowPolicy);
+	}
+
+	/**
+	 * Set the time in milliseconds a sender blocks on a full queue with the BLOCK
+	 * policy before a {@link MessageHandlingException} is thrown. Default is -1,
+	 * meaning forever.
+	 */
+	public void setOverflowTimeout(long overflowTimeout) {
+		this.overflow.setTimeout(overflowTimeout);
+	}
+
+	/**
+	 * Set the directory of the spill file, which is named after the queue.
+	 * Default is "xd-spill" in the temp directory.
+	 */
+	public void setSpillDirectory(File spillDirectory) {
+		this.overflow.setSpillDirectory(spillDirectory);
+	}
+
+	/**
+	 * Return the name of the given partition sub-queue of a queue.
+	 */
+	public static String partitionQueueName(String queueName, int partition) {
+		return queueName + ".p" + partition;
+	}
+
+	/**
+	 * Return the key of the counter that subscribers of the given topic increment
+	 * while they are listening.
+	 */
+	public static String subscriberCountKey(String topic) {
+		return "subscribers." + topic;
+	}
+
+	private boolean isBounded() {
+		return this.overflow.isBounded() && !this.publishOnly;
+	}
+
+	@Override
+	protected void onInit() throws Exception {
+		super.onInit();
+		this.values.assertFramed(this.metrics != null);
+		if (this.taskExecutor == null) {
+			this.taskExecutor = new SimpleAsyncTaskExecutor("redis-queue-" + this.queueName + "-");
+		}
+		StandardEvaluationContext evaluationContext = new StandardEvaluationContext();
+		if (this.getBeanFactory() != null) {
+			evaluationContext.setBeanResolver(new BeanFactoryResolver(this.getBeanFactory()));
+		}
+		this.evaluationContext = evaluationContext;
 	}
 
 	@Override
 	protected void handleMessageInternal(Message<?> message) throws Exception {
-		String s = (this.extractPayload) ? message.getPayload().toString() : this.objectMapper.writeValueAsString(message);
+		QueueEntry entry = this.toEntry(message);
+		List<QueueEntry> entries = Collections.singletonList(entry);
+		if (!this.batcher.isBatching()) {
+			this.send(entries, true);
+			return;
+		}
+		if (this.isBounded() && this.overflow.getPolicy() == OverflowPolicy.BLOCK) {
+			// wait here rather than on the flusher, so that a timeout reaches the sender
+			this.overflow.awaitCapacity(entries);
+		}
+		if (!this.batcher.offer(entry)) {
+			this.send(entries, false);
+		}
+	}
+
+	/**
+	 * Push the given messages in one pipelined round trip, bypassing the buffer.
+	 */
+	public void handleMessages(Collection<? extends Message<?>> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		List<QueueEntry> entries = new ArrayList<QueueEntry>(messages.size());
+		for (Message<?> message : messages) {
+			entries.add(this.toEntry(message));
+		}
+		this.send(entries, true);
+	}
+
+	private QueueEntry toEntry(Message<?> message) {
+		byte[] payload = this.values.payload(message);
+		byte[] value = this.values.encode(message, payload, (this.metrics != null) ? System.currentTimeMillis() : -1);
 		if (logger.isDebugEnabled()) {
-			logger.debug("sending to redis queue '" + this.queueName + "': " + s);
+			logger.debug("sending to redis queue '" + this.queueName + "': " + message);
+		}
+		return new QueueEntry(this.queueFor(message), value, payload, message);
+	}
+
+	private byte[] queueFor(Message<?> message) {
+		String queue = this.queueName;
+		Expression queueNameExpression = this.queueNameExpression;
+		if (queueNameExpression != null) {
+			String name = queueNameExpression.getValue(this.evaluationContext, message, String.class);
+			if (name != null) {
+				queue = name;
+			}
+		}
+		int partitions = this.partitions;
+		if (partitions > 1) {
+			Object key = this.partitionKey(message);
+			int partition = (key != null) ? (key.hashCode() & Integer.MAX_VALUE) % partitions : 0;
+			queue = partitionQueueName(queue, partition);
+		}
+		return this.redisTemplate.getStringSerializer().serialize(queue);
+	}
+
+	private Object partitionKey(Message<?> message) {
+		Expression expression = this.partitionKeyExpression;
+		if (expression != null) {
+			return expression.getValue(this.evaluationContext, message);
+		}
+		return (this.partitionHeader != null) ? message.getHeaders().get(this.partitionHeader) : null;
+	}
+
+	/**
+	 * Send the entries to their queues, or to the spill file for spilling queues.
+	 * @param awaitCapacity whether to wait for full queues with the BLOCK policy
+	 */
+	private void send(List<QueueEntry> entries, boolean awaitCapacity) {
+		List<QueueEntry> pushed = entries;
+		if (this.isBounded()) {
+			OverflowPolicy policy = this.overflow.getPolicy();
+			if (policy == OverflowPolicy.BLOCK && awaitCapacity) {
+				this.overflow.awaitCapacity(entries);
+			}
+			else if (policy == OverflowPolicy.SPILL && this.overflow.isSpilling()) {
+				List<QueueEntry> spilled = new ArrayList<QueueEntry>();
+				pushed = this.overflow.spill(entries, spilled);
+				if (!spilled.isEmpty()) {
+					// taps still get spilled messages right away
+					this.push(spilled, false);
+				}
+			}
+		}
+		List<Long> lengths = (pushed.isEmpty()) ? Collections.<Long>emptyList() : this.push(pushed, !this.publishOnly);
+		QueueMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordSend(entries.size());
+		}
+		if (this.isBounded()) {
+			this.overflow.checkCapacity(pushed, lengths);
+		}
+	}
+
+	/**
+	 * Push the entries and return the queue lengths reported by the LPUSH replies,
+	 * in the order of the entries.
+	 */
+	private List<Long> push(final List<QueueEntry> entries, final boolean toQueue) {
+		final RedisSerializer<String> serializer = this.redisTemplate.getStringSerializer();
+		final byte[] topic = (this.shouldPublish()) ? serializer.serialize(this.topic) : null;
+		if (!toQueue && topic == null) {
+			return Collections.emptyList();
+		}
+		return this.redisTemplate.execute(new RedisCallback<List<Long>>() {
+			@Override
+			public List<Long> doInRedis(RedisConnection connection) throws DataAccessException {
+				boolean pipelined = entries.size() > 1;
+				boolean transactional = !pipelined && topic != null && toQueue;
+				if (pipelined) {
+					connection.openPipeline();
+				}
+				else if (transactional) {
+					connection.multi();
+				}
+				Long length = null;
+				for (QueueEntry entry : entries) {
+					if (toQueue) {
+						length = connection.lPush(entry.queue, entry.value);
+					}
+					if (topic != null) {
+						connection.publish(topic, (entry.payload != null) ? entry.payload : QueueValueCodec.payloadBytes(entry.message));
+					}
+				}
+				List<Object> replies = null;
+				if (pipelined) {
+					replies = connection.closePipeline();
+				}
+				else if (transactional) {
+					replies = connection.exec();
+				}
+				List<Long> lengths = new ArrayList<Long>(entries.size());
+				if (!toQueue) {
+					return lengths;
+				}
+				if (replies == null) {
+					lengths.add(length);
+					return lengths;
+				}
+				int stride = (topic != null) ? 2 : 1;
+				for (int i = 0; i < replies.size(); i += stride) {
+					Object reply = replies.get(i);
+					lengths.add((reply instanceof Long) ? (Long) reply : null);
+				}
+				return lengths;
+			}
+		});
+	}
+
+	private boolean shouldPublish() {
+		String topic = this.topic;
+		if (topic == null) {
+			return false;
+		}
+		long interval = this.subscriberCheckInterval;
+		if (interval <= 0) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (now - this.lastSubscriberCheck >= interval) {
+			this.lastSubscriberCheck = now;
+			try {
+				byte[] count = this.redisTemplate.opsForValue().get(subscriberCountKey(topic));
+				this.hasSubscribers = count != null && Long.parseLong(new String(count, UTF8)) > 0;
+			}
+			catch (Exception e) {
+				// publishing needlessly is cheaper than starving a tap
+				this.hasSubscribers = true;
+				if (logger.isWarnEnabled()) {
+					logger.warn("failed to read subscriber count for topic '" + topic + "'", e);
+				}
+			}
+		}
+		return this.hasSubscribers;
+	}
+
+	/*
+	 * Lifecycle implementation
+	 */
+
+	/**
+	 * Start the spill drainer, if any, and then the flusher, if batching.
+	 */
+	@Override
+	public void start() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.running) {
+				return;
+			}
+			if (this.isBounded() || this.batcher.isBatching()) {
+				Assert.state(this.taskExecutor != null, "afterPropertiesSet() must be invoked before start()");
+			}
+			if (this.isBounded()) {
+				this.overflow.setReplaySize(Math.max(this.batcher.getBatchSize(), 100));
+				this.overflow.start(this.taskExecutor);
+			}
+			if (this.batcher.isBatching()) {
+				this.batcher.start(this.taskExecutor);
+			}
+			this.running = true;
+		}
+	}
+
+	/**
+	 * Stop the flusher once it has pushed what is still buffered, and only then
+	 * the spill drainer, so that the final flush can still spill.
+	 */
+	@Override
+	public void stop() {
+		synchronized (this.lifecycleMonitor) {
+			if (!this.running) {
+				return;
+			}
+			this.running = false;
+			this.batcher.stop();
+			this.overflow.stop();
 		}
-		this.redisTemplate.boundListOps(this.queueName).leftPush(s);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+
+	/**
+	 * What to do with messages for a queue that has grown past its maximum length.
+	 */
+	public static enum OverflowPolicy {
+
+		/** Make senders wait until the queue has drained. */
+		BLOCK,
+
+		/** Trim the queue, discarding the oldest entries. */
+		DROP_OLDEST,
+
+		/** Write messages to a local file and replay them once the queue has drained. */
+		SPILL
 	}
 
 }
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.Assert;
+
+/**
+ * Reads any number of Redis queues with a small, fixed number of threads. Each
+ * reader thread owns a share of the registered queues and waits on all of them
+ * with a single multi-key BRPOP over its own connection. Entries are handed to
+ * the {@link Handler handlers} of their queue on a shared executor, by as many
+ * tasks at a time as the total concurrency the handlers were registered with,
+ * so a queue registered with a concurrency of 1 is handled in order. A queue
+ * with {@link #setMaxPending(int) maxPending} entries waiting is left out of the
+ * BRPOP until it catches up, so a slow consumer does not hold up the others.
+ * <p>
+ * Several handlers may be registered for the same queue, e.g. by the old and the
+ * new version of a module while it is replaced; they take turns. Entries read
+ * from a queue whose last handler is unregistered before handling them are
+ * pushed back onto the queue.
+ * <p>
+ * Threads and connections therefore scale with the configured number of readers
+ * and the size of the executor, not with the number of queues.
+ *
+ * @author agent
+ */
+public class RedisQueueReader implements InitializingBean, DisposableBean {
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final RedisConnectionFactory connectionFactory;
+
+	private final RedisSerializer<String> serializer = new StringRedisSerializer();
+
+	private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+
+	private volatile int readers = 2;
+
+	private volatile int maxPending = 100;
+
+	private volatile int timeout = 1;
+
+	private volatile TaskExecutor taskExecutor;
+
+	private volatile boolean running;
+
+	private volatile CountDownLatch readersDone;
+
+
+	public RedisQueueReader(RedisConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		this.connectionFactory = connectionFactory;
+	}
+
+
+	/**
+	 * Set the number of reader threads, each holding one connection. Default is 2.
+	 */
+	public void setReaders(int readers) {
+		Assert.isTrue(readers > 0, "readers must be positive");
+		this.readers = readers;
+	}
+
+	/**
+	 * Set the number of entries that may wait for the handler of a queue before
+	 * the queue is no longer read. Default is 100.
+	 */
+	public void setMaxPending(int maxPending) {
+		Assert.isTrue(maxPending > 0, "maxPending must be positive");
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Set the BRPOP timeout in seconds, which bounds how long a newly registered
+	 * queue may wait before it is read. Default is 1.
+	 */
+	public void setTimeout(int timeout) {
+		Assert.isTrue(timeout > 0, "timeout must be positive");
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set the executor that runs the handlers. Default is a pool with one thread
+	 * per available processor.
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	public void register(String queue, Handler handler) {
+		this.register(queue, handler, 1);
+	}
+
+	/**
+	 * Register a handler for the entries of a queue that may handle up to
+	 * {@code concurrency} entries at the same time.
+	 */
+	public void register(String queue, Handler handler, int concurrency) {
+		Assert.hasText(queue, "queue is required");
+		Assert.notNull(handler, "handler must not be null");
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		synchronized (this.registrations) {
+			Registration registration = this.registrations.get(queue);
+			if (registration == null) {
+				registration = new Registration(queue);
+				this.registrations.put(queue, registration);
+			}
+			registration.add(handler, concurrency);
+		}
+	}
+
+	public void unregister(String queue, Handler handler) {
+		Registration registration;
+		synchronized (this.registrations) {
+			registration = this.registrations.get(queue);
+			if (registration == null || !registration.remove(handler)) {
+				return;
+			}
+			this.registrations.remove(queue);
+		}
+		// the queue is no longer read, give back what was read but not handled
+		List<byte[]> values = new ArrayList<byte[]>();
+		for (byte[] value = registration.poll(); value != null; value = registration.poll()) {
+			values.add(value);
+		}
+		this.requeue(registration, values);
+	}
+
+	/**
+	 * Push entries back onto the tail of their queue, where BRPOP takes them
+	 * from, so that the first of them is read first again.
+	 */
+	private void requeue(Registration registration, List<byte[]> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+		RedisConnection connection = this.connectionFactory.getConnection();
+		try {
+			for (int i = values.size() - 1; i >= 0; i--) {
+				connection.rPush(registration.key, values.get(i));
+			}
+		}
+		catch (Exception e) {
+			logger.error("lost " + values.size() + " entries of redis queue '" + registration.queue + "'", e);
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (this.taskExecutor == null) {
+			ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+			executor.setCorePoolSize(Runtime.getRuntime().availableProcessors());
+			executor.setThreadNamePrefix("redis-queue-handler-");
+			executor.afterPropertiesSet();
+			this.taskExecutor = executor;
+		}
+		SimpleAsyncTaskExecutor readerExecutor = new SimpleAsyncTaskExecutor("redis-queue-reader-");
+		readerExecutor.setDaemon(true);
+		this.running = true;
+		this.readersDone = new CountDownLatch(this.readers);
+		for (int i = 0; i < this.readers; i++) {
+			readerExecutor.execute(new Reader(i));
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.running = false;
+		if (this.readersDone != null) {
+			this.readersDone.await();
+		}
+		if (this.taskExecutor instanceof ThreadPoolTaskExecutor) {
+			((ThreadPoolTaskExecutor) this.taskExecutor).shutdown();
+		}
+	}
+
+
+	/**
+	 * Callback for the entries read from a queue.
+	 */
+	public interface Handler {
+
+		void handle(String queue, byte[] value);
+
+	}
+
+
+	private class Reader implements Runnable {
+
+		private final int index;
+
+		private int rotation;
+
+		private Reader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			RedisConnection connection = null;
+			try {
+				while (running) {
+					List<byte[]> keys = this.keys();
+					if (keys.isEmpty()) {
+						Thread.sleep(timeout * 1000L);
+						continue;
+					}
+					try {
+						if (connection == null) {
+							connection = connectionFactory.getConnection();
+						}
+						List<byte[]> result = connection.bRPop(timeout, keys.toArray(new byte[keys.size()][]));
+						if (result != null && result.size() > 1) {
+							Registration registration = registrations.get(serializer.deserialize(result.get(0)));
+							if (registration != null) {
+								registration.offer(result.get(1));
+							}
+							else {
+								// unregistered while waiting
+								connection.rPush(result.get(0), result.get(1));
+							}
+						}
+					}
+					catch (Exception e) {
+						logger.error("failed to read redis queues", e);
+						connection = close(connection);
+						Thread.sleep(1000);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				close(connection);
+				readersDone.countDown();
+			}
+		}
+
+		/**
+		 * The keys of this reader's queues that can take more entries, rotated on
+		 * every call since BRPOP serves the first non-empty key.
+		 */
+		private List<byte[]> keys() {
+			List<byte[]> keys = new ArrayList<byte[]>();
+			for (Registration registration : registrations.values()) {
+				if ((registration.queue.hashCode() & Integer.MAX_VALUE) % readers == this.index
+						&& !registration.isSaturated()) {
+					keys.add(registration.key);
+				}
+			}
+			if (keys.size() > 1) {
+				Collections.rotate(keys, this.rotation++ % keys.size());
+			}
+			return keys;
+		}
+
+		private RedisConnection close(RedisConnection connection) {
+			if (connection != null) {
+				try {
+					connection.close();
+				}
+				catch (Exception e) {
+					// ignore, the connection is discarded anyway
+				}
+			}
+			return null;
+		}
+	}
+
+
+	/**
+	 * A registered queue and the entries waiting for its handlers. The entries are
+	 * handled on the shared executor by up to {@code concurrency} tasks at a time.
+	 */
+	private class Registration implements Runnable {
+
+		private final String queue;
+
+		private final byte[] key;
+
+		private final List<HandlerRegistration> handlers = new CopyOnWriteArrayList<HandlerRegistration>();
+
+		private volatile int concurrency;
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		private final Queue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+
+		private final AtomicInteger pendingCount = new AtomicInteger();
+
+		private final AtomicInteger active = new AtomicInteger();
+
+		private Registration(String queue) {
+			this.queue = queue;
+			this.key = serializer.serialize(queue);
+		}
+
+		private synchronized void add(Handler handler, int concurrency) {
+			this.handlers.add(new HandlerRegistration(handler, concurrency));
+			this.concurrency += concurrency;
+		}
+
+		/**
+		 * Remove the handler and return whether it was the last one.
+		 */
+		private synchronized boolean remove(Handler handler) {
+			for (HandlerRegistration registration : this.handlers) {
+				if (registration.handler == handler) {
+					this.handlers.remove(registration);
+					this.concurrency -= registration.concurrency;
+					break;
+				}
+			}
+			return this.handlers.isEmpty();
+		}
+
+		private byte[] poll() {
+			byte[] value = this.pending.poll();
+			if (value != null) {
+				this.pendingCount.decrementAndGet();
+			}
+			return value;
+		}
+
+		private Handler nextHandler() {
+			List<HandlerRegistration> handlers = this.handlers;
+			int size = handlers.size();
+			if (size == 0) {
+				return null;
+			}
+			try {
+				return handlers.get((this.next.getAndIncrement() & Integer.MAX_VALUE) % size).handler;
+			}
+			catch (IndexOutOfBoundsException e) {
+				// a handler was removed concurrently
+				return this.nextHandler();
+			}
+		}
+
+		private boolean isSaturated() {
+			return this.pendingCount.get() >= maxPending;
+		}
+
+		private void offer(byte[] value) {
+			this.pending.add(value);
+			this.pendingCount.incrementAndGet();
+			this.schedule();
+		}
+
+		/**
+		 * Start another task for the pending entries, unless as many as the
+		 * concurrency allows are running already.
+		 */
+		private void schedule() {
+			while (!this.pending.isEmpty()) {
+				int active = this.active.get();
+				if (active >= Math.max(this.concurrency, 1)) {
+					return;
+				}
+				if (this.active.compareAndSet(active, active + 1)) {
+					try {
+						taskExecutor.execute(this);
+					}
+					catch (RuntimeException e) {
+						this.active.decrementAndGet();
+						throw e;
+					}
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				// bounded, so that one busy queue does not monopolize an executor thread
+				for (int i = 0; i < 64; i++) {
+					byte[] value = this.poll();
+					if (value == null) {
+						break;
+					}
+					Handler handler = this.nextHandler();
+					if (handler == null) {
+						requeue(this, Collections.singletonList(value));
+						continue;
+					}
+					try {
+						handler.handle(this.queue, value);
+					}
+					catch (Exception e) {
+						logger.error("failed to handle entry from redis queue '" + this.queue + "'", e);
+					}
+				}
+			}
+			finally {
+				this.active.decrementAndGet();
+				this.schedule();
+			}
+		}
+	}
+
+
+	private static class HandlerRegistration {
+
+		private final Handler handler;
+
+		private final int concurrency;
+
+		private HandlerRegistration(Handler handler, int concurrency) {
+			this.handler = handler;
+			this.concurrency = concurrency;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * Append-only segment file holding queue entries that could not be pushed to
+ * Redis. Each record is the queue key and the value, both prefixed with their
+ * length. Records are read back in the order they were appended; the read
+ * position only moves forward on {@link #commit()}, so a reader that fails to
+ * replay a batch simply reads it again. Once everything has been read the file
+ * can be {@link #truncate() truncated}.
+ * <p>
+ * The read position is not persisted: records that were replayed but not yet
+ * truncated when the process stopped are replayed again on the next start.
+ *
+ * @author agent
+ */
+class SpillFile {
+
+	private final File file;
+
+	private final RandomAccessFile data;
+
+	private long readPosition;
+
+	private long pendingPosition;
+
+	private long writePosition;
+
+
+	SpillFile(File file) throws IOException {
+		Assert.notNull(file, "file must not be null");
+		this.file = file;
+		this.data = new RandomAccessFile(file, "rw");
+		this.writePosition = this.data.length();
+	}
+
+
+	File getFile() {
+		return this.file;
+	}
+
+	synchronized void append(byte[] queue, byte[] value) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(8 + queue.length + value.length);
+		record.putInt(queue.length).put(queue).putInt(value.length).put(value);
+		this.data.seek(this.writePosition);
+		this.data.write(record.array());
+		this.writePosition += record.capacity();
+	}
+
+	/**
+	 * Read up to the given number of records following the last committed ones.
+	 */
+	synchronized List<Record> read(int max) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		long position = this.readPosition;
+		this.data.seek(position);
+		while (position < this.writePosition && records.size() < max) {
+			byte[] queue = new byte[this.data.readInt()];
+			this.data.readFully(queue);
+			byte[] value = new byte[this.data.readInt()];
+			this.data.readFully(value);
+			records.add(new Record(queue, value));
+			position += 8 + queue.length + value.length;
+		}
+		this.pendingPosition = position;
+		return records;
+	}
+
+	/**
+	 * Mark the records returned by the last {@link #read(int)} as replayed.
+	 */
+	synchronized void commit() {
+		this.readPosition = this.pendingPosition;
+	}
+
+	synchronized boolean isEmpty() {
+		return this.readPosition >= this.writePosition;
+	}
+
+	synchronized void truncate() throws IOException {
+		this.data.setLength(0);
+		this.readPosition = 0;
+		this.pendingPosition = 0;
+		this.writePosition = 0;
+	}
+
+	synchronized void close() throws IOException {
+		this.data.close();
+	}
+
+
+	static class Record {
+
+		final byte[] queue;
+
+		final byte[] value;
+
+		private Record(byte[] queue, byte[] value) {
+			this.queue = queue;
+			this.value = value;
+		}
+	}
+
+}
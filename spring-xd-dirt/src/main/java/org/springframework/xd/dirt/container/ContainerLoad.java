@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.container;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * The load of a container as published in the "containers" hash, keyed by the
+ * container id, for the deployer to place modules by.
+ *
+ * @author agent
+ */
+public class ContainerLoad {
+
+	private volatile String name;
+
+	private volatile int modules;
+
+	private volatile double cpu = -1;
+
+	private volatile double heap;
+
+	private volatile long timestamp;
+
+
+	/**
+	 * Return the current load of this JVM with the given number of modules.
+	 */
+	public static ContainerLoad sample(int modules) {
+		ContainerLoad load = new ContainerLoad();
+		load.setName(ManagementFactory.getRuntimeMXBean().getName());
+		load.setModules(modules);
+		double systemLoad = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		if (systemLoad >= 0) {
+			load.setCpu(systemLoad / Runtime.getRuntime().availableProcessors());
+		}
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long max = (heap.getMax() > 0) ? heap.getMax() : heap.getCommitted();
+		load.setHeap((max > 0) ? (double) heap.getUsed() / max : 0);
+		load.setTimestamp(System.currentTimeMillis());
+		return load;
+	}
+
+	/**
+	 * Return the name of the JVM, e.g. "pid@host".
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return the number of modules deployed to the container.
+	 */
+	public int getModules() {
+		return this.modules;
+	}
+
+	public void setModules(int modules) {
+		this.modules = modules;
+	}
+
+	/**
+	 * Return the system load average per processor, or -1 if not available.
+	 */
+	public double getCpu() {
+		return this.cpu;
+	}
+
+	public void setCpu(double cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * Return the used fraction of the maximum heap.
+	 */
+	public double getHeap() {
+		return this.heap;
+	}
+
+	public void setHeap(double heap) {
+		this.heap = heap;
+	}
+
+	/**
+	 * Return the time the load was sampled, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.container;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+import org.springframework.xd.dirt.event.ModuleDeployedEvent;
+import org.springframework.xd.dirt.event.ModuleUndeployedEvent;
+
+/**
+ * Periodically publishes the {@link ContainerLoad} of this container into the
+ * {@link #setContainersKey(String) containers hash}. The number of modules is
+ * tracked from the module events of the container. Reporting stops when the
+ * container context is closed, so that the entry removed on shutdown is not
+ * written again.
+ *
+ * @author agent
+ */
+public class ContainerLoadReporter implements ApplicationListener<ApplicationEvent>, ApplicationContextAware,
+		InitializingBean, DisposableBean {
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final AtomicInteger modules = new AtomicInteger();
+
+	private volatile ApplicationContext applicationContext;
+
+	private volatile long interval = 5000;
+
+	private volatile String containersKey = "containers";
+
+	private volatile ThreadPoolTaskScheduler taskScheduler;
+
+
+	public ContainerLoadReporter(RedisConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.afterPropertiesSet();
+	}
+
+
+	/**
+	 * Set the reporting interval in milliseconds. Default is 5000.
+	 */
+	public void setInterval(long interval) {
+		Assert.isTrue(interval > 0, "interval must be positive");
+		this.interval = interval;
+	}
+
+	/**
+	 * Set the key of the hash the load is published into. Default is
+	 * "containers".
+	 */
+	public void setContainersKey(String containersKey) {
+		Assert.hasText(containersKey, "containersKey must not be empty");
+		this.containersKey = containersKey;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("container-load-reporter-");
+		scheduler.setDaemon(true);
+		scheduler.afterPropertiesSet();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					report();
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to report container load", e);
+					}
+				}
+			}
+		}, this.interval);
+		this.taskScheduler = scheduler;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof ModuleDeployedEvent) {
+			this.modules.incrementAndGet();
+		}
+		else if (event instanceof ModuleUndeployedEvent) {
+			this.modules.decrementAndGet();
+		}
+		else if (event instanceof ContextClosedEvent && event.getSource() == this.applicationContext) {
+			this.destroy();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ThreadPoolTaskScheduler scheduler = this.taskScheduler;
+		this.taskScheduler = null;
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	void report() throws Exception {
+		if (this.taskScheduler == null) {
+			return;
+		}
+		String load = this.mapper.writeValueAsString(ContainerLoad.sample(this.modules.get()));
+		this.redisTemplate.boundHashOps(this.containersKey).put(this.applicationContext.getId(), load);
+	}
+
+}
@@ -16,18 +16,28 @@
 
 package org.springframework.xd.dirt.container;
 
+import java.util.Collections;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.context.support.AbstractApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.core.env.MapPropertySource;
 import org.springframework.util.Assert;
 import org.springframework.xd.dirt.core.Container;
 import org.springframework.xd.dirt.event.ContainerStartedEvent;
 
 /**
+ * A container whose context is a child of a shared infrastructure context
+ * holding the Redis connection factories, task executors and other beans that
+ * the container and its modules use, so that they exist once per JVM. The
+ * module contexts are children of the shared context as well.
+ *
  * @author Mark Fisher
  */
 public class DefaultContainer implements Container, SmartLifecycle {
@@ -36,15 +46,38 @@ public class DefaultContainer implements Container, SmartLifecycle {
 
 	private static final String CORE_CONFIG = "classpath:META-INF/spring/container.xml";
 
+	private static final String COMMON_CONFIG = "classpath:META-INF/spring/common.xml";
+
 	// TODO: consider moving to a file: location pattern within $XD_HOME
 	private static final String PLUGIN_CONFIGS = "classpath*:META-INF/spring/plugins/*.xml";
 
+	/**
+	 * The property holding the container id in the container context.
+	 */
+	public static final String CONTAINER_ID = "xd.container.id";
+
 	private volatile AbstractApplicationContext context;
 
+	private volatile ConfigurableApplicationContext sharedContext;
+
 	private final String id;
 
+	private final ApplicationContext parent;
+
+	/**
+	 * Create a container with its own shared infrastructure context.
+	 */
 	public DefaultContainer(String id) {
+		this(id, null);
+	}
+
+	/**
+	 * Create a container whose context is a child of the given shared
+	 * infrastructure context, as defined by "META-INF/spring/common.xml".
+	 */
+	public DefaultContainer(String id, ApplicationContext parent) {
 		this.id = id;
+		this.parent = parent;
 	}
 
 	@Override
@@ -69,8 +102,15 @@ public class DefaultContainer implements Container, SmartLifecycle {
 
 	@Override
 	public void start() {
-		this.context = new ClassPathXmlApplicationContext(new String[]{CORE_CONFIG, PLUGIN_CONFIGS}, false);
+		ApplicationContext parent = this.parent;
+		if (parent == null) {
+			this.sharedContext = new ClassPathXmlApplicationContext(COMMON_CONFIG);
+			parent = this.sharedContext;
+		}
+		this.context = new ClassPathXmlApplicationContext(new String[]{CORE_CONFIG, PLUGIN_CONFIGS}, false, parent);
 		context.setId(this.id);
+		context.getEnvironment().getPropertySources().addFirst(
+				new MapPropertySource("container", Collections.<String, Object>singletonMap(CONTAINER_ID, this.id)));
 		context.registerShutdownHook();
 		context.refresh();
 		if (logger.isInfoEnabled()) {
@@ -84,6 +124,10 @@ public class DefaultContainer implements Container, SmartLifecycle {
 		if (this.context != null) {
 			this.context.close();
 		}
+		if (this.sharedContext != null) {
+			this.sharedContext.close();
+			this.sharedContext = null;
+		}
 	}
 
 	@Override
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.event;
+
+import org.springframework.xd.dirt.module.ModuleRegistry;
+
+/**
+ * Published by a {@link ModuleRegistry} when the definition of a module was
+ * created, modified or deleted.
+ *
+ * @author agent
+ */
+@SuppressWarnings("serial")
+public class ModuleDefinitionChangedEvent extends AbstractEvent<ModuleRegistry> {
+
+	public enum Change {
+		CREATED, MODIFIED, DELETED
+	}
+
+	private final String name;
+
+	private final String type;
+
+	private final Change change;
+
+	public ModuleDefinitionChangedEvent(ModuleRegistry registry, String name, String type, Change change) {
+		super(registry);
+		this.name = name;
+		this.type = type;
+		this.change = change;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getModuleType() {
+		return this.type;
+	}
+
+	public Change getChange() {
+		return this.change;
+	}
+
+}
@@ -16,6 +16,8 @@
 
 package org.springframework.xd.dirt.launcher;
 
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.context.ApplicationListener;
@@ -32,12 +34,14 @@ import org.springframework.xd.dirt.event.ContainerStartedEvent;
 /**
  * @author Mark Fisher
  */
-public class RedisContainerLauncher implements ContainerLauncher, ApplicationEventPublisherAware {
+public class RedisContainerLauncher implements ContainerLauncher, ApplicationEventPublisherAware, ApplicationContextAware {
 
 	private final RedisAtomicLong ids;
 
 	private volatile ApplicationEventPublisher eventPublisher;
 
+	private volatile ApplicationContext applicationContext;
+
 	private final ShutdownListener shutdownListener;
 
 	public RedisContainerLauncher(RedisConnectionFactory connectionFactory) {
@@ -50,10 +54,18 @@ public class RedisContainerLauncher implements ContainerLauncher, ApplicationEve
 		this.eventPublisher = eventPublisher;
 	}
 
+	/**
+	 * Set the context the containers share their infrastructure with.
+	 */
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+	}
+
 	@Override
 	public Container launch() {
 		long id = ids.incrementAndGet();
-		DefaultContainer container = new DefaultContainer(id + "");
+		DefaultContainer container = new DefaultContainer(id + "", this.applicationContext);
 		container.start();
 		container.addListener(this.shutdownListener);
 		this.eventPublisher.publishEvent(new ContainerStartedEvent(container));
@@ -16,13 +16,13 @@
 
 package org.springframework.xd.dirt.listener;
 
-import java.lang.management.ManagementFactory;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
 
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.xd.dirt.container.ContainerLoad;
 import org.springframework.xd.dirt.core.Container;
 import org.springframework.xd.dirt.event.ContainerStartedEvent;
 
@@ -35,18 +35,25 @@ public class RedisContainerEventListener extends AbstractContainerEventListener
 
 	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
 
+	private final ObjectMapper mapper = new ObjectMapper();
+
 	public RedisContainerEventListener(RedisConnectionFactory redisConnectionFactory) {
 		this.redisTemplate.setConnectionFactory(redisConnectionFactory);
 	}
 
 	@Override
 	protected void onContainerStartedEvent(ContainerStartedEvent event) {
-		String name = ManagementFactory.getRuntimeMXBean().getName();
+		ContainerLoad load = ContainerLoad.sample(0);
 		if (logger.isInfoEnabled()) {
-			logger.info("started container: " + name);
+			logger.info("started container: " + load.getName());
 		}
 		Container container = event.getSource();
-		this.redisTemplate.boundHashOps("containers").put(container.getId(), name);
+		try {
+			this.redisTemplate.boundHashOps("containers").put(container.getId(), this.mapper.writeValueAsString(load));
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("failed to register container " + container.getId(), e);
+		}
 	}
 
 }
@@ -24,6 +24,7 @@ import org.codehaus.jackson.map.ObjectMapper;
 
 import org.springframework.context.ApplicationListener;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.BoundHashOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.xd.dirt.event.AbstractModuleEvent;
 import org.springframework.xd.dirt.event.ModuleDeployedEvent;
@@ -31,6 +32,11 @@ import org.springframework.xd.dirt.event.ModuleUndeployedEvent;
 import org.springframework.xd.module.Module;
 
 /**
+ * Keeps the properties of the modules deployed in this container in the
+ * "modules:<stream>" hash, keyed by {@code <module>.<index>.<instance>}, and the
+ * container each module instance runs in in the "placements:<stream>" hash,
+ * keyed by the slot of the instance.
+ *
  * @author Mark Fisher
  */
 public class RedisModuleEventListener implements ApplicationListener<AbstractModuleEvent> {
@@ -52,14 +58,25 @@ public class RedisModuleEventListener implements ApplicationListener<AbstractMod
 		Module module = event.getSource();
 		Map<String, String> attributes = event.getAttributes();
 		String key = "modules:" + attributes.get("group");
-		String hashKey = module.getName() + "." + attributes.get("index");
+		String slot = attributes.get("slot");
+		// the slot (index.instance) keeps the instances of one module apart
+		String hashKey = module.getName() + "." + ((slot != null) ? slot : attributes.get("index"));
+		BoundHashOperations<String, Object, Object> placements = this.redisTemplate.boundHashOps(
+				"placements:" + attributes.get("group"));
 		try {
 			String properties = this.mapper.writeValueAsString(module.getProperties());
 			if (event instanceof ModuleDeployedEvent) {
 				this.redisTemplate.boundHashOps(key).put(hashKey, properties);
+				if (slot != null) {
+					placements.put(slot, event.getContainerId());
+				}
 			}
 			else if (event instanceof ModuleUndeployedEvent) {
 				this.redisTemplate.boundHashOps(key).delete(hashKey);
+				// the slot may already be placed on another container
+				if (slot != null && event.getContainerId().equals(placements.get(slot))) {
+					placements.delete(slot);
+				}
 			}
 		}
 		catch (Exception e) {
@@ -16,24 +16,147 @@
 
 package org.springframework.xd.dirt.module;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.support.SimpleBeanDefinitionRegistry;
+import org.springframework.beans.factory.xml.DefaultDocumentLoader;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.core.io.Resource;
+import org.springframework.util.xml.SimpleSaxErrorHandler;
 import org.springframework.xd.module.Module;
 import org.springframework.xd.module.SimpleModule;
 
 /**
+ * Creates modules from the XML configuration returned by {@link #loadResource}.
+ * The parsed configuration of each module is cached and shared by all instances
+ * of the module, as long as the {@link #getVersion version} of its resource
+ * stays the same, so deploying many instances of a module reads and parses
+ * its XML only once. Modules that ship their own libraries are given the
+ * {@link #getClassLoader class loader} of their definition.
+ *
  * @author Mark Fisher
  */
 public abstract class AbstractModuleRegistry implements ModuleRegistry {
 
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+	private final DocumentReader documentReader = new DocumentReader();
+
 	@Override
 	public Module lookup(String name, String type) {
 		Resource resource = this.loadResource(name, type);
 		SimpleModule module = new SimpleModule(name, type);
-		module.addComponents(resource);
+		ClassLoader classLoader = this.getClassLoader(name, type);
+		if (classLoader != null) {
+			module.setClassLoader(classLoader);
+		}
+		Object version = (resource != null) ? this.getVersion(resource) : null;
+		if (version == null) {
+			module.addComponents(resource);
+		}
+		else {
+			String key = type + "/" + name;
+			Template template = this.templates.get(key);
+			if (template == null || !template.version.equals(version)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("parsing configuration of " + type + " module '" + name + "'");
+				}
+				template = new Template(version, resource, this.documentReader.read(resource));
+				this.templates.put(key, template);
+			}
+			module.addComponents(template.document, template.resource);
+		}
 		// TODO: add properties from a property registry
 		return module;
 	}
 
 	protected abstract Resource loadResource(String name, String type);
 
+	/**
+	 * Return the class loader for the beans of the module, or null to use the
+	 * container's. Implementations should return the same loader for all
+	 * instances of a module definition, so its classes are loaded only once.
+	 */
+	protected ClassLoader getClassLoader(String name, String type) {
+		return null;
+	}
+
+	/**
+	 * Forget the parsed configuration of a module, e.g. one that was deleted.
+	 */
+	protected void evict(String name, String type) {
+		this.templates.remove(type + "/" + name);
+	}
+
+	/**
+	 * Return a value that changes whenever the content of the resource changes,
+	 * or null if the resource must be parsed on every lookup. The default is
+	 * the last modification time of the resource, or null if it has none.
+	 */
+	protected Object getVersion(Resource resource) {
+		try {
+			return resource.exists() ? resource.lastModified() : null;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	private static class Template {
+
+		private final Object version;
+
+		private final Resource resource;
+
+		private final Document document;
+
+		Template(Object version, Resource resource, Document document) {
+			this.version = version;
+			this.resource = resource;
+			this.document = document;
+		}
+	}
+
+
+	/**
+	 * Loads documents the way the reader of the modules would.
+	 */
+	private static class DocumentReader extends XmlBeanDefinitionReader {
+
+		private final DefaultDocumentLoader documentLoader = new DefaultDocumentLoader();
+
+		DocumentReader() {
+			super(new SimpleBeanDefinitionRegistry());
+		}
+
+		Document read(Resource resource) {
+			try {
+				InputStream inputStream = resource.getInputStream();
+				try {
+					return this.documentLoader.loadDocument(new InputSource(inputStream), this.getEntityResolver(),
+							new SimpleSaxErrorHandler(logger), this.getValidationModeForResource(resource),
+							this.isNamespaceAware());
+				}
+				finally {
+					inputStream.close();
+				}
+			}
+			catch (Exception e) {
+				throw new BeanDefinitionStoreException(resource.getDescription(), "failed to parse module configuration", e);
+			}
+		}
+	}
+
 }
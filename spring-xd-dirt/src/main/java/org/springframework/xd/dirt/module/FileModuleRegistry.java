@@ -17,28 +17,287 @@
 package org.springframework.xd.dirt.module;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.Assert;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent.Change;
+import org.springframework.xd.module.JarIndex;
+import org.springframework.xd.module.ModuleClassLoader;
 
 /**
+ * Reads the configuration of a module from {@code <type>/<name>.xml}. The jars
+ * in {@code <type>/<name>/lib}, if any, are loaded by a class loader of the
+ * module's own, which is shared by all instances of the module until one of the
+ * jars changes.
+ * <p>
+ * The directory is scanned once when the registry is created, so lookups are
+ * served from memory, and then every {@link #setScanInterval(long) scanInterval}
+ * for modules that were created, modified or deleted. Each change is published
+ * as a {@link ModuleDefinitionChangedEvent}.
+ *
  * @author Mark Fisher
  */
-public class FileModuleRegistry extends AbstractModuleRegistry {
+public class FileModuleRegistry extends AbstractModuleRegistry implements ApplicationEventPublisherAware,
+		InitializingBean, DisposableBean {
+
+	private static final FileFilter DIRECTORY_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.isDirectory();
+		}
+	};
+
+	private static final FileFilter XML_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.isFile() && file.getName().endsWith(".xml");
+		}
+	};
+
+	private static final FileFilter JAR_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.isFile() && file.getName().endsWith(".jar");
+		}
+	};
+
+	private final Log logger = LogFactory.getLog(this.getClass());
 
 	private final File directory;
 
+	// module definitions by type and name
+	private final ConcurrentMap<String, ConcurrentMap<String, Definition>> definitions = new ConcurrentHashMap<String, ConcurrentMap<String, Definition>>();
+
+	private volatile long scanInterval = 2000;
+
+	private volatile ThreadPoolTaskScheduler taskScheduler;
+
+	private volatile ApplicationEventPublisher eventPublisher;
+
+
 	public FileModuleRegistry(String directory) {
 		File f = new File(directory);
 		Assert.isTrue(f.isDirectory(), "not a directory: " + f.getAbsolutePath());
 		this.directory = f;
+		this.scan();
+	}
+
+
+	/**
+	 * Set the interval in milliseconds at which the directory is scanned for
+	 * changes. Default is 2000; 0 means that changes are not detected.
+	 */
+	public void setScanInterval(long scanInterval) {
+		Assert.isTrue(scanInterval >= 0, "scanInterval must not be negative");
+		this.scanInterval = scanInterval;
+	}
+
+	@Override
+	public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+		this.eventPublisher = eventPublisher;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (this.scanInterval == 0) {
+			return;
+		}
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("module-registry-");
+		scheduler.setDaemon(true);
+		scheduler.afterPropertiesSet();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to scan " + directory, e);
+					}
+				}
+			}
+		}, this.scanInterval);
+		this.taskScheduler = scheduler;
+	}
+
+	@Override
+	public void destroy() {
+		ThreadPoolTaskScheduler scheduler = this.taskScheduler;
+		this.taskScheduler = null;
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
 	}
 
 	@Override
 	protected Resource loadResource(String name, String type) {
+		Definition definition = this.getDefinition(name, type);
+		if (definition != null) {
+			return definition.resource;
+		}
+		// not scanned yet
 		File file = new File(directory, type + File.separator + name + ".xml");
 		return new FileSystemResource(file);
 	}
 
+	@Override
+	protected Object getVersion(Resource resource) {
+		if (resource instanceof ModuleResource) {
+			return ((ModuleResource) resource).lastModified;
+		}
+		return super.getVersion(resource);
+	}
+
+	@Override
+	protected ClassLoader getClassLoader(String name, String type) {
+		Definition definition = this.getDefinition(name, type);
+		if (definition == null || definition.jars.length == 0) {
+			return null;
+		}
+		synchronized (definition) {
+			if (definition.classLoader == null) {
+				try {
+					JarIndex index = new JarIndex(Arrays.asList(definition.jars));
+					definition.classLoader = new ModuleClassLoader(index, FileModuleRegistry.class.getClassLoader());
+				}
+				catch (IOException e) {
+					throw new IllegalStateException("failed to read the libraries of " + type + " module '" + name
+							+ "'", e);
+				}
+			}
+			return definition.classLoader;
+		}
+	}
+
+	private Definition getDefinition(String name, String type) {
+		Map<String, Definition> definitions = this.definitions.get(type);
+		return (definitions != null) ? definitions.get(name) : null;
+	}
+
+	/**
+	 * Bring the module definitions up to date with the directory, and publish an
+	 * event for each one that changed.
+	 */
+	synchronized void scan() {
+		List<ModuleDefinitionChangedEvent> events = new ArrayList<ModuleDefinitionChangedEvent>();
+		Set<String> found = new HashSet<String>();
+		File[] typeDirectories = this.directory.listFiles(DIRECTORY_FILTER);
+		for (File typeDirectory : (typeDirectories != null) ? typeDirectories : new File[0]) {
+			String type = typeDirectory.getName();
+			ConcurrentMap<String, Definition> definitions = this.definitions.get(type);
+			if (definitions == null) {
+				definitions = new ConcurrentHashMap<String, Definition>();
+				this.definitions.put(type, definitions);
+			}
+			File[] files = typeDirectory.listFiles(XML_FILTER);
+			for (File file : (files != null) ? files : new File[0]) {
+				String name = file.getName().substring(0, file.getName().length() - ".xml".length());
+				found.add(type + "/" + name);
+				Definition previous = definitions.get(name);
+				Definition definition = new Definition(file, new File(typeDirectory, name + File.separator + "lib"));
+				if (previous == null) {
+					definitions.put(name, definition);
+					events.add(new ModuleDefinitionChangedEvent(this, name, type, Change.CREATED));
+				}
+				else if (definition.resource.lastModified != previous.resource.lastModified
+						|| !definition.libraries.equals(previous.libraries)) {
+					if (definition.libraries.equals(previous.libraries)) {
+						// the jars are the same, so are their classes
+						definition.classLoader = previous.classLoader;
+					}
+					definitions.put(name, definition);
+					events.add(new ModuleDefinitionChangedEvent(this, name, type, Change.MODIFIED));
+				}
+			}
+		}
+		for (Map.Entry<String, ConcurrentMap<String, Definition>> definitions : this.definitions.entrySet()) {
+			String type = definitions.getKey();
+			for (String name : definitions.getValue().keySet()) {
+				if (!found.contains(type + "/" + name)) {
+					definitions.getValue().remove(name);
+					this.evict(name, type);
+					events.add(new ModuleDefinitionChangedEvent(this, name, type, Change.DELETED));
+				}
+			}
+		}
+		// nothing is published for the initial scan
+		ApplicationEventPublisher eventPublisher = this.eventPublisher;
+		if (eventPublisher != null) {
+			for (ModuleDefinitionChangedEvent event : events) {
+				if (logger.isInfoEnabled()) {
+					logger.info(event.getChange().name().toLowerCase() + " " + event.getModuleType() + " module '"
+							+ event.getName() + "'");
+				}
+				eventPublisher.publishEvent(event);
+			}
+		}
+	}
+
+
+	/**
+	 * A module definition as found by the last scan. A running module keeps
+	 * the class loader it was created with; one that is replaced is not closed.
+	 */
+	private static class Definition {
+
+		private final ModuleResource resource;
+
+		private final File[] jars;
+
+		// names, times and sizes of the jars
+		private final String libraries;
+
+		private volatile ClassLoader classLoader;
+
+		Definition(File file, File libraryDirectory) {
+			this.resource = new ModuleResource(file);
+			File[] jars = libraryDirectory.listFiles(JAR_FILTER);
+			this.jars = (jars != null) ? jars : new File[0];
+			Arrays.sort(this.jars);
+			StringBuilder libraries = new StringBuilder();
+			for (File jar : this.jars) {
+				libraries.append(jar.getName()).append(':').append(jar.lastModified()).append(':').append(jar.length());
+				libraries.append(';');
+			}
+			this.libraries = libraries.toString();
+		}
+	}
+
+
+	/**
+	 * The configuration file of a module, with the modification time it had when
+	 * it was scanned.
+	 */
+	private static class ModuleResource extends FileSystemResource {
+
+		private final long lastModified;
+
+		ModuleResource(File file) {
+			super(file);
+			this.lastModified = file.lastModified();
+		}
+	}
+
 }
@@ -17,8 +17,10 @@
 package org.springframework.xd.dirt.module;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -26,25 +28,54 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.map.ObjectMapper;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.integration.Message;
 import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent.Change;
 import org.springframework.xd.dirt.event.ModuleDeployedEvent;
 import org.springframework.xd.dirt.event.ModuleUndeployedEvent;
 import org.springframework.xd.module.Module;
 import org.springframework.xd.module.Plugin;
+import org.springframework.xd.module.SimpleModule;
 
 /**
+ * Deploys and undeploys the modules of streams in this container.
+ * <p>
+ * The module contexts of different streams are refreshed in parallel on up to
+ * {@link #setDeploymentConcurrency(int) deploymentConcurrency} threads, by
+ * default one per processor. Requests for the same stream, undeployment
+ * included, are always handled one at a time and in the order they arrived, so
+ * the modules of a stream still start from the sink back to the source.
+ * <p>
+ * Every deployed module instance occupies the {@link ModuleDeploymentRequest#getSlot()
+ * slot} of its request. A request for an occupied slot with the same definition
+ * hash is ignored; one with a different hash replaces the module in the slot.
+ * The old version is stopped and its channels unbound before the new one is
+ * deployed, and is started again if the new version fails. Undeployed and
+ * replaced modules have their contexts closed.
+ * The undeployer topic carries either a stream name, undeploying the whole
+ * stream, or an {@link #undeployment(String, String, String) undeployment} of
+ * one version of one module instance.
+ * <p>
+ * If {@link #setRedeployOnChange(boolean) redeployOnChange} is set, the running
+ * instances of a module whose definition was modified in the registry are
+ * replaced by new instances with the same properties.
+ *
  * @author Mark Fisher
  */
 public class ModuleDeployer extends AbstractMessageHandler
-		implements ApplicationContextAware, ApplicationEventPublisherAware {
+		implements ApplicationContextAware, ApplicationEventPublisherAware,
+		ApplicationListener<ModuleDefinitionChangedEvent>, DisposableBean {
 
 	private final Log logger = LogFactory.getLog(this.getClass());
 
@@ -56,24 +87,148 @@ public class ModuleDeployer extends AbstractMessageHandler
 
 	private final ObjectMapper mapper = new ObjectMapper();
 
-	private final ConcurrentMap<String, Map<Integer, Module>> deployedModules = new ConcurrentHashMap<String, Map<Integer, Module>>();
+	// deployed modules by stream and slot
+	private final ConcurrentMap<String, ConcurrentMap<String, DeployedModule>> deployedModules = new ConcurrentHashMap<String, ConcurrentMap<String, DeployedModule>>();
 
 	private volatile Map<String, Plugin> plugins;
 
 	private final ModuleRegistry moduleRegistry;
 
+	private volatile int deploymentConcurrency = Runtime.getRuntime().availableProcessors();
+
+	private volatile boolean lazyInit;
+
+	private volatile boolean redeployOnChange;
+
+	private volatile ThreadPoolTaskExecutor executor;
+
+	// the tasks waiting for the running task of their stream, by stream
+	private final Map<String, Queue<Runnable>> pendingTasks = new HashMap<String, Queue<Runnable>>();
+
 	public ModuleDeployer(ModuleRegistry moduleRegistry) {
 		Assert.notNull(moduleRegistry, "moduleRegistry must not be null");
 		this.moduleRegistry = moduleRegistry;
 	}
 
+	/**
+	 * Set the number of modules that may be deployed at the same time. Default
+	 * is the number of processors; 1 means that every request is handled on the
+	 * calling thread.
+	 */
+	public void setDeploymentConcurrency(int deploymentConcurrency) {
+		Assert.isTrue(deploymentConcurrency > 0, "deploymentConcurrency must be positive");
+		this.deploymentConcurrency = deploymentConcurrency;
+	}
+
+	/**
+	 * Set whether the beans of module contexts are created on first use rather
+	 * than when the context is refreshed. Lifecycle components such as channel
+	 * adapters are still started with the module. Default is false.
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * Set whether running modules are redeployed when their definition is
+	 * modified in the module registry. Default is false.
+	 */
+	public void setRedeployOnChange(boolean redeployOnChange) {
+		this.redeployOnChange = redeployOnChange;
+	}
+
+	@Override
+	protected void onInit() throws Exception {
+		super.onInit();
+		if (this.deploymentConcurrency > 1) {
+			ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+			executor.setCorePoolSize(this.deploymentConcurrency);
+			executor.setMaxPoolSize(this.deploymentConcurrency);
+			executor.setThreadNamePrefix("module-deployer-");
+			executor.afterPropertiesSet();
+			this.executor = executor;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ThreadPoolTaskExecutor executor = this.executor;
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run the task on the executor, or right away if there is none. The tasks of
+	 * one stream run one at a time and in order, while tasks of different
+	 * streams run in parallel.
+	 */
+	private void execute(String group, Runnable task) {
+		ThreadPoolTaskExecutor executor = this.executor;
+		if (executor == null) {
+			task.run();
+			return;
+		}
+		String key = (group != null) ? group : "";
+		synchronized (this.pendingTasks) {
+			Queue<Runnable> pending = this.pendingTasks.get(key);
+			if (pending != null) {
+				pending.add(task);
+				return;
+			}
+			this.pendingTasks.put(key, new LinkedList<Runnable>());
+		}
+		executor.execute(new StreamTask(key, task));
+	}
+
+
+	/**
+	 * Runs a task of a stream, then hands the next pending task of the stream, if
+	 * any, back to the executor, so that a stream with many modules does not keep
+	 * other streams waiting.
+	 */
+	private class StreamTask implements Runnable {
+
+		private final String group;
+
+		private final Runnable task;
+
+		StreamTask(String group, Runnable task) {
+			this.group = group;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				this.task.run();
+			}
+			catch (Exception e) {
+				logger.error("module deployment failed", e);
+			}
+			Runnable next;
+			synchronized (pendingTasks) {
+				next = pendingTasks.get(this.group).poll();
+				if (next == null) {
+					pendingTasks.remove(this.group);
+				}
+			}
+			if (next != null) {
+				executor.execute(new StreamTask(this.group, next));
+			}
+		}
+	}
+
 	@Override
 	public void setApplicationContext(ApplicationContext context) {
 		this.deployerContext = context;
 		this.plugins = context.getBeansOfType(Plugin.class);
-		ClassPathXmlApplicationContext commonContext = new ClassPathXmlApplicationContext(new String[] {"META-INF/spring/common.xml"}, false);
-		// TODO: extend Plugin to enable modifying the common context?
-		commonContext.refresh();
+		// the container's parent is the shared infrastructure context
+		ApplicationContext commonContext = context.getParent();
+		if (commonContext == null) {
+			// TODO: extend Plugin to enable modifying the common context?
+			commonContext = new ClassPathXmlApplicationContext("META-INF/spring/common.xml");
+		}
 		this.commonContext = commonContext;
 	}
 
@@ -83,12 +238,45 @@ public class ModuleDeployer extends AbstractMessageHandler
 	}
 
 	@Override
-	protected void handleMessageInternal(Message<?> message) throws Exception {
-		ModuleDeploymentRequest request = this.mapper.readValue(message.getPayload().toString(), ModuleDeploymentRequest.class);
+	protected void handleMessageInternal(final Message<?> message) throws Exception {
+		final ModuleDeploymentRequest request = this.mapper.readValue(message.getPayload().toString(), ModuleDeploymentRequest.class);
+		this.execute(request.getGroup(), new Runnable() {
+			@Override
+			public void run() {
+				deploy(request, message);
+			}
+		});
+	}
+
+	/**
+	 * Return the message that undeploys the given version of the module instance
+	 * in the given slot of a stream.
+	 */
+	public static String undeployment(String group, String slot, String definitionHash) {
+		return group + "/" + slot + "/" + definitionHash;
+	}
+
+	private void deploy(ModuleDeploymentRequest request, Message<?> message) {
 		String group = request.getGroup();
 		int index = request.getIndex();
-		Module module = this.moduleRegistry.lookup(request.getModule(), request.getType());
-		module.setParentContext(this.commonContext);
+		String slot = request.getSlot();
+		String hash = request.getDefinitionHash();
+		ConcurrentMap<String, DeployedModule> modules = this.deployedModules.get(group);
+		if (modules == null) {
+			ConcurrentMap<String, DeployedModule> newModules = new ConcurrentHashMap<String, DeployedModule>();
+			modules = this.deployedModules.putIfAbsent(group, newModules);
+			if (modules == null) {
+				modules = newModules;
+			}
+		}
+		DeployedModule previous = modules.get(slot);
+		if (previous != null && previous.definitionHash.equals(hash)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("module " + group + ":" + request.getModule() + ":" + slot + " is already deployed");
+			}
+			return;
+		}
+		Module module = this.createModule(request.getModule(), request.getType());
 		Object properties = message.getHeaders().get("properties");
 		if (properties instanceof Properties) {
 			module.addProperties((Properties) properties);
@@ -100,35 +288,209 @@ public class ModuleDeployer extends AbstractMessageHandler
 			module.addProperties(parametersAsProps);
 		}
 		module.setParentContext(this.commonContext);
-		this.deployModule(module, group, index);
-		String key = group + ":" + module.getName() + ":" + index;
+		if (previous != null && modules.remove(slot, previous)) {
+			this.replaceModule(modules, slot, previous, new DeployedModule(module, index, slot, hash), group);
+		}
+		else {
+			DeployedModule deployed = new DeployedModule(module, index, slot, hash);
+			this.deployModule(deployed, group);
+			modules.put(slot, deployed);
+		}
 		if (logger.isInfoEnabled()) {
-			logger.info("launched " + module.getType() + " module: " + key);
+			logger.info(((previous != null) ? "updated " : "launched ") + module.getType() + " module: " + group + ":"
+					+ module.getName() + ":" + slot);
+		}
+	}
+
+	/**
+	 * Replace the module in the slot, which was already removed from the map.
+	 * The old version is stopped first, since it may hold resources such as a
+	 * port, and is started again if the new version fails to deploy.
+	 */
+	private void replaceModule(ConcurrentMap<String, DeployedModule> modules, String slot, DeployedModule previous,
+			DeployedModule replacement, String group) {
+		this.stopModule(previous, group);
+		try {
+			this.deployModule(replacement, group);
+		}
+		catch (RuntimeException e) {
+			try {
+				this.deployModule(previous, group);
+				modules.putIfAbsent(slot, previous);
+				logger.warn("restored previous version of module " + group + ":" + previous.module.getName() + ":"
+						+ slot);
+			}
+			catch (RuntimeException restoreFailure) {
+				logger.error("failed to restore previous version of module " + group + ":"
+						+ previous.module.getName() + ":" + slot, restoreFailure);
+			}
+			throw e;
+		}
+		modules.put(slot, replacement);
+		this.destroyModule(previous.module);
+	}
+
+	private Module createModule(String name, String type) {
+		long lookupStart = System.nanoTime();
+		Module module = this.moduleRegistry.lookup(name, type);
+		if (module instanceof SimpleModule) {
+			((SimpleModule) module).setParseTime((System.nanoTime() - lookupStart) / 1000000);
+			((SimpleModule) module).setLazyInit(this.lazyInit);
+		}
+		module.setParentContext(this.commonContext);
+		return module;
+	}
+
+	/**
+	 * Bind and start the module. If that fails, whatever was bound is released
+	 * and the module is destroyed.
+	 */
+	private void deployModule(DeployedModule deployed, String group) {
+		Module module = deployed.module;
+		int index = deployed.index;
+		try {
+			this.processModule(module, group, index);
+			module.start();
+		}
+		catch (RuntimeException e) {
+			try {
+				module.stop();
+			}
+			catch (RuntimeException stopFailure) {
+				logger.warn("failed to stop module " + module.getName(), stopFailure);
+			}
+			this.removeModule(module, group, index);
+			this.destroyModule(module);
+			throw e;
 		}
-		this.deployedModules.putIfAbsent(group, new HashMap<Integer, Module>());
-		this.deployedModules.get(group).put(index, module);
+		this.fireModuleDeployedEvent(deployed, group);
 	}
 
-	private void deployModule(Module module, String group, int index) {
-		this.processModule(module, group, index);
-		module.start();
-		this.fireModuleDeployedEvent(module, group, index);
+	/**
+	 * Undeploy a stream, or one version of a module instance of a stream, from
+	 * this container.
+	 * @param undeployment the name of the stream, or an {@link #undeployment(String,
+	 * String, String) undeployment} of a module instance
+	 */
+	public void undeploy(String undeployment) {
+		final String[] parts = undeployment.split("/");
+		this.execute(parts[0], new Runnable() {
+			@Override
+			public void run() {
+				if (parts.length == 3) {
+					undeployModule(parts[0], parts[1], parts[2]);
+				}
+				else {
+					undeployModules(parts[0]);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onApplicationEvent(ModuleDefinitionChangedEvent event) {
+		if (!this.redeployOnChange || event.getChange() != Change.MODIFIED) {
+			return;
+		}
+		for (Map.Entry<String, ConcurrentMap<String, DeployedModule>> modules : this.deployedModules.entrySet()) {
+			final String group = modules.getKey();
+			for (Map.Entry<String, DeployedModule> entry : modules.getValue().entrySet()) {
+				final String slot = entry.getKey();
+				final DeployedModule deployed = entry.getValue();
+				if (deployed.module.getName().equals(event.getName())
+						&& deployed.module.getType().equals(event.getModuleType())) {
+					this.execute(group, new Runnable() {
+						@Override
+						public void run() {
+							redeployModule(group, slot, deployed);
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private void redeployModule(String group, String slot, DeployedModule previous) {
+		ConcurrentMap<String, DeployedModule> modules = this.deployedModules.get(group);
+		if (modules == null || modules.get(slot) != previous) {
+			// undeployed or replaced in the meantime
+			return;
+		}
+		Module module = this.createModule(previous.module.getName(), previous.module.getType());
+		Properties properties = new Properties();
+		properties.putAll(previous.module.getProperties());
+		module.addProperties(properties);
+		if (modules.remove(slot, previous)) {
+			this.replaceModule(modules, slot, previous, new DeployedModule(module, previous.index, slot,
+					previous.definitionHash), group);
+			if (logger.isInfoEnabled()) {
+				logger.info("redeployed " + module.getType() + " module: " + group + ":" + module.getName() + ":"
+						+ slot);
+			}
+		}
 	}
 
-	public void undeploy(String group) {
-		Map<Integer, Module> modules = this.deployedModules.remove(group);
+	private void undeployModules(String group) {
+		Map<String, DeployedModule> modules = this.deployedModules.remove(group);
 		if (modules != null) {
-			for (Map.Entry<Integer, Module> entry : modules.entrySet()) {
-				Module module = entry.getValue();
-				if (module != null) {
-					// TODO: add beforeShutdown and/or afterShutdown callbacks?
-					module.stop();
-					this.fireModuleUndeployedEvent(module, group, entry.getKey());
+			for (DeployedModule module : modules.values()) {
+				this.stopModule(module, group);
+				this.destroyModule(module.module);
+			}
+		}
+	}
+
+	private void undeployModule(String group, String slot, String definitionHash) {
+		ConcurrentMap<String, DeployedModule> modules = this.deployedModules.get(group);
+		DeployedModule module = (modules != null) ? modules.get(slot) : null;
+		if (module != null && module.definitionHash.equals(definitionHash) && modules.remove(slot, module)) {
+			this.stopModule(module, group);
+			this.destroyModule(module.module);
+			if (logger.isInfoEnabled()) {
+				logger.info("undeployed " + module.module.getType() + " module: " + group + ":"
+						+ module.module.getName() + ":" + slot);
+			}
+		}
+	}
+
+	/**
+	 * Stop the module and release its channel bindings and other resources set
+	 * up by plugins. Its context stays open, so that it can be started again.
+	 */
+	private void stopModule(DeployedModule deployed, String group) {
+		try {
+			deployed.module.stop();
+		}
+		finally {
+			this.removeModule(deployed.module, group, deployed.index);
+		}
+		this.fireModuleUndeployedEvent(deployed, group);
+	}
+
+	private void removeModule(Module module, String group, int index) {
+		if (this.plugins != null) {
+			for (Plugin plugin : this.plugins.values()) {
+				try {
+					plugin.removeModule(module, group, index);
+				}
+				catch (RuntimeException e) {
+					logger.warn("failed to remove module " + group + ":" + module.getName() + " from plugin", e);
 				}
 			}
 		}
 	}
 
+	private void destroyModule(Module module) {
+		if (module instanceof SimpleModule) {
+			try {
+				((SimpleModule) module).destroy();
+			}
+			catch (RuntimeException e) {
+				logger.warn("failed to destroy module " + module.getName(), e);
+			}
+		}
+	}
+
 	/**
 	 * allow plugins to contribute properties (e.g. "stream.name")
 	 * calling module.addProperties(properties), etc.
@@ -141,23 +503,52 @@ public class ModuleDeployer extends AbstractMessageHandler
 		}
 	}
 
-	private void fireModuleDeployedEvent(Module module, String group, int index) {
+	private void fireModuleDeployedEvent(DeployedModule deployed, String group) {
 		if (this.eventPublisher != null) {
+			Module module = deployed.module;
 			ModuleDeployedEvent event = new ModuleDeployedEvent(module, this.deployerContext.getId());
 			event.setAttribute("group", group);
-			event.setAttribute("index", "" + index);
+			event.setAttribute("index", "" + deployed.index);
+			event.setAttribute("slot", deployed.slot);
+			if (module instanceof SimpleModule) {
+				SimpleModule simpleModule = (SimpleModule) module;
+				event.setAttribute("parseTime", "" + simpleModule.getParseTime());
+				event.setAttribute("refreshTime", "" + simpleModule.getRefreshTime());
+				event.setAttribute("startTime", "" + simpleModule.getStartTime());
+			}
 			this.eventPublisher.publishEvent(event);
 			// TODO: in a listener publish info to redis so we know this module is running on this container
 		}
 	}
 
-	private void fireModuleUndeployedEvent(Module module, String group, int index) {
+	private void fireModuleUndeployedEvent(DeployedModule deployed, String group) {
 		if (this.eventPublisher != null) {
-			ModuleUndeployedEvent event = new ModuleUndeployedEvent(module, this.deployerContext.getId());
+			ModuleUndeployedEvent event = new ModuleUndeployedEvent(deployed.module, this.deployerContext.getId());
 			event.setAttribute("group", group);
-			event.setAttribute("index", "" + index);
+			event.setAttribute("index", "" + deployed.index);
+			event.setAttribute("slot", deployed.slot);
 			this.eventPublisher.publishEvent(event);
 			// TODO: in a listener update info in redis so we know this module was undeployed
 		}
 	}
+
+
+	private static class DeployedModule {
+
+		private final Module module;
+
+		private final int index;
+
+		private final String slot;
+
+		private final String definitionHash;
+
+		DeployedModule(Module module, int index, String slot, String definitionHash) {
+			this.module = module;
+			this.index = index;
+			this.slot = slot;
+			this.definitionHash = definitionHash;
+		}
+	}
+
 }
@@ -16,13 +16,24 @@
 
 package org.springframework.xd.dirt.module;
 
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.ObjectMapper;
 
+import org.springframework.util.DigestUtils;
+
 /**
+ * A request to deploy one instance of a module of a stream. The
+ * {@link #getSlot() slot} identifies the instance within its stream, and the
+ * {@link #getDefinitionHash() definition hash} changes whenever the module, its
+ * type or its parameters change, so that a container can tell a redeployment of
+ * an unchanged module from an update.
+ *
  * @author Mark Fisher
  */
 public class ModuleDeploymentRequest {
@@ -37,6 +48,10 @@ public class ModuleDeploymentRequest {
 
 	private volatile String type = "generic";
 
+	private volatile int instance;
+
+	private volatile String definitionHash;
+
 	private final Map<String, String> parameters = new HashMap<String, String>();
 
 	public String getModule() {
@@ -71,6 +86,27 @@ public class ModuleDeploymentRequest {
 		this.type = type;
 	}
 
+	/**
+	 * Return the number of this instance among the instances of the module,
+	 * starting at 0.
+	 */
+	public int getInstance() {
+		return instance;
+	}
+
+	public void setInstance(int instance) {
+		this.instance = instance;
+	}
+
+	/**
+	 * Return the position of this module instance within its stream, as
+	 * {@code <index>.<instance>}.
+	 */
+	@JsonIgnore
+	public String getSlot() {
+		return this.index + "." + this.instance;
+	}
+
 	public void setParameter(String name, String value) {
 		this.parameters.put(name, value);
 	}
@@ -79,6 +115,31 @@ public class ModuleDeploymentRequest {
 		return Collections.unmodifiableMap(this.parameters);
 	}
 
+	public void setParameters(Map<String, String> parameters) {
+		this.parameters.clear();
+		this.parameters.putAll(parameters);
+	}
+
+	/**
+	 * Return the hash set by the sender of the request, or else an MD5 hash of
+	 * the module name, its type and its parameters.
+	 */
+	public String getDefinitionHash() {
+		if (this.definitionHash != null) {
+			return this.definitionHash;
+		}
+		StringBuilder definition = new StringBuilder();
+		definition.append(this.type).append('\n').append(this.module).append('\n');
+		for (Map.Entry<String, String> parameter : new TreeMap<String, String>(this.parameters).entrySet()) {
+			definition.append(parameter.getKey()).append('=').append(parameter.getValue()).append('\n');
+		}
+		return DigestUtils.md5DigestAsHex(definition.toString().getBytes(Charset.forName("UTF-8")));
+	}
+
+	public void setDefinitionHash(String definitionHash) {
+		this.definitionHash = definitionHash;
+	}
+
 	@Override
 	public String toString() {
 		try {
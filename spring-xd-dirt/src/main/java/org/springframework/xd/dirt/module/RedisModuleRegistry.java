@@ -23,6 +23,9 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.util.Assert;
 
 /**
+ * Reads module configurations from the "modules:&lt;type&gt;" hashes. A module's
+ * parsed configuration is reused until its entry in the hash changes.
+ *
  * @author Mark Fisher
  */
 public class RedisModuleRegistry extends AbstractModuleRegistry {
@@ -40,4 +43,13 @@ public class RedisModuleRegistry extends AbstractModuleRegistry {
 		return (config != null) ? new ByteArrayResource(config.toString().getBytes()) : null;
 	}
 
+	/**
+	 * Return the resource itself, which is equal to any other resource with the
+	 * same content.
+	 */
+	@Override
+	protected Object getVersion(Resource resource) {
+		return resource;
+	}
+
 }
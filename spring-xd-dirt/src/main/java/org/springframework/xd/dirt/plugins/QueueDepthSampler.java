@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.integration.x.redis.QueueFrame;
+import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+import org.springframework.xd.analytics.metrics.service.GaugeService;
+import org.springframework.xd.dirt.event.ModuleUndeployedEvent;
+
+/**
+ * Periodically samples the Redis queues between the modules of the streams
+ * deployed to this container and publishes their depth as gauges named
+ * {@code <stream>.<index>.queueDepth}, where index is that of the module
+ * writing to the queue. Every queue is sampled by the container of its producer,
+ * which the {@link StreamPlugin} registers it from.
+ * <p>
+ * All queues are sampled in one pipelined round trip per interval. Along with
+ * the length of each queue the oldest entry is read, and if it carries an enqueue
+ * time (see {@link QueueFrame}) its age in milliseconds is published as the
+ * {@code <stream>.<index>.queueLag} gauge. Partitioned queues are reported as
+ * the sum of their partitions and the lag of the oldest partition.
+ *
+ * @author agent
+ */
+public class QueueDepthSampler implements ApplicationListener<ModuleUndeployedEvent>, InitializingBean, DisposableBean {
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+
+	private final GaugeService gaugeService;
+
+	private final Map<String, List<String>> queues = new ConcurrentHashMap<String, List<String>>();
+
+	private volatile String queuePrefix = "queue.";
+
+	private volatile long interval = 5000;
+
+	private volatile ThreadPoolTaskScheduler taskScheduler;
+
+
+	public QueueDepthSampler(RedisConnectionFactory connectionFactory, GaugeService gaugeService) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		Assert.notNull(gaugeService, "gaugeService must not be null");
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.afterPropertiesSet();
+		this.gaugeService = gaugeService;
+	}
+
+
+	/**
+	 * Set the prefix the channel registry puts in front of channel names to get
+	 * the name of their queue. Default is "queue.".
+	 */
+	public void setQueuePrefix(String queuePrefix) {
+		Assert.notNull(queuePrefix, "queuePrefix must not be null");
+		this.queuePrefix = queuePrefix;
+	}
+
+	/**
+	 * Set the sampling interval in milliseconds. Default is 5000.
+	 */
+	public void setInterval(long interval) {
+		Assert.isTrue(interval > 0, "interval must be positive");
+		this.interval = interval;
+	}
+
+	/**
+	 * Start sampling the queue that the module with the given index writes to.
+	 * @param channel the name of the channel in the registry
+	 * @param partitions the number of partition sub-queues, or 1 if the queue
+	 * is not partitioned
+	 */
+	public void register(String stream, int index, String channel, int partitions) {
+		String queue = this.queuePrefix + channel;
+		List<String> keys = new ArrayList<String>(partitions);
+		if (partitions > 1) {
+			for (int i = 0; i < partitions; i++) {
+				keys.add(RedisQueueOutboundChannelAdapter.partitionQueueName(queue, i));
+			}
+		}
+		else {
+			keys.add(queue);
+		}
+		this.queues.put(stream + "." + index, keys);
+	}
+
+	/**
+	 * Stop sampling the queue of the undeployed module.
+	 */
+	@Override
+	public void onApplicationEvent(ModuleUndeployedEvent event) {
+		Map<String, String> attributes = event.getAttributes();
+		this.queues.remove(attributes.get("group") + "." + attributes.get("index"));
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("queue-depth-sampler-");
+		scheduler.afterPropertiesSet();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sample();
+				}
+				catch (Exception e) {
+					if (logger.isWarnEnabled()) {
+						logger.warn("failed to sample queue depths", e);
+					}
+				}
+			}
+		}, this.interval);
+		this.taskScheduler = scheduler;
+	}
+
+	@Override
+	public void destroy() {
+		if (this.taskScheduler != null) {
+			this.taskScheduler.destroy();
+		}
+	}
+
+	/**
+	 * Read the length and the oldest entry of every registered queue in one
+	 * pipelined round trip and publish the results.
+	 */
+	void sample() {
+		final List<Map.Entry<String, List<String>>> queues = new ArrayList<Map.Entry<String, List<String>>>(this.queues.entrySet());
+		if (queues.isEmpty()) {
+			return;
+		}
+		List<Object> replies = this.redisTemplate.execute(new RedisCallback<List<Object>>() {
+			@Override
+			public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+				RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+				connection.openPipeline();
+				for (Map.Entry<String, List<String>> queue : queues) {
+					for (String key : queue.getValue()) {
+						byte[] rawKey = serializer.serialize(key);
+						connection.lLen(rawKey);
+						connection.lIndex(rawKey, -1);
+					}
+				}
+				return connection.closePipeline();
+			}
+		});
+		if (replies == null) {
+			replies = Collections.emptyList();
+		}
+		long now = System.currentTimeMillis();
+		int reply = 0;
+		for (Map.Entry<String, List<String>> queue : queues) {
+			long depth = 0;
+			long lag = 0;
+			for (int i = 0; i < queue.getValue().size() && reply + 1 < replies.size(); i++, reply += 2) {
+				Object length = replies.get(reply);
+				Object oldest = replies.get(reply + 1);
+				if (length instanceof Long) {
+					depth += (Long) length;
+				}
+				if (oldest instanceof byte[]) {
+					long timestamp = QueueFrame.timestamp((byte[]) oldest);
+					if (timestamp >= 0) {
+						lag = Math.max(lag, now - timestamp);
+					}
+				}
+			}
+			this.gaugeService.setValue(queue.getKey() + ".queueDepth", depth);
+			this.gaugeService.setValue(queue.getKey() + ".queueLag", lag);
+		}
+	}
+
+}
@@ -21,43 +21,138 @@ import java.util.Properties;
 
 import org.springframework.integration.MessageChannel;
 import org.springframework.integration.channel.registry.ChannelRegistry;
+import org.springframework.integration.x.channel.registry.ConfigurableChannelRegistry;
 import org.springframework.util.Assert;
 import org.springframework.xd.module.Module;
 import org.springframework.xd.module.Plugin;
 
 /**
+ * Binds the "input" and "output" channels of stream modules to the
+ * {@link ChannelRegistry}. When the registry is a {@link ConfigurableChannelRegistry},
+ * the module's deployment parameters are passed along: the "input" channel gets
+ * the module's own {@link #CHANNEL_PARAMETERS channel parameters}, the "output"
+ * channel the same parameters prefixed with {@value #OUTPUT_PREFIX}, which the
+ * stream parser copies from the next module of the stream.
+ * <p>
+ * With a {@link QueueDepthSampler} set, the queue behind every "output" channel
+ * is registered with it. When a module is removed, its channels are unbound
+ * from a {@link ConfigurableChannelRegistry}.
+ *
  * @author Mark Fisher
  */
 public class StreamPlugin implements Plugin {
 
+	public static final String OUTPUT_PREFIX = "output.";
+
+	/**
+	 * The named channel the "input" channel is bound to instead of the output of
+	 * the previous module of the stream.
+	 */
+	public static final String INPUT_CHANNEL = "channel.input";
+
+	/**
+	 * The named channel the "output" channel is bound to instead of the input of
+	 * the next module of the stream.
+	 */
+	public static final String OUTPUT_CHANNEL = "channel.output";
+
+	/**
+	 * The module parameters passed to the channel registry.
+	 */
+	public static final String[] CHANNEL_PARAMETERS = {
+			ConfigurableChannelRegistry.CONCURRENCY, ConfigurableChannelRegistry.PARTITION_HEADER,
+			ConfigurableChannelRegistry.PARTITION_KEY_EXPRESSION, ConfigurableChannelRegistry.PARTITION_COUNT,
+			ConfigurableChannelRegistry.PARTITIONS };
+
 	private final ChannelRegistry channelRegistry;
 
+	private volatile QueueDepthSampler queueDepthSampler;
+
 	public StreamPlugin(ChannelRegistry channelRegistry) {
 		Assert.notNull(channelRegistry, "channelRegistry must not be null");
 		this.channelRegistry = channelRegistry;
 	}
 
+	public void setQueueDepthSampler(QueueDepthSampler queueDepthSampler) {
+		this.queueDepthSampler = queueDepthSampler;
+	}
+
 	@Override
 	public void processModule(Module module, String group, int index) {
 		String type = module.getType();
 		if (("source".equals(type) || "processor".equals(type) || "sink".equals(type)) && group != null) {
-			this.registerChannels(module.getComponents(MessageChannel.class), group, index);
+			this.registerChannels(module.getComponents(MessageChannel.class), group, index, module.getProperties());
 			this.configureProperties(module, group);
 		}
 	}
 
-	private void registerChannels(Map<String, MessageChannel> channels, String group, int index) {
+	@Override
+	public void removeModule(Module module, String group, int index) {
+		String type = module.getType();
+		if (("source".equals(type) || "processor".equals(type) || "sink".equals(type)) && group != null
+				&& channelRegistry instanceof ConfigurableChannelRegistry) {
+			for (Map.Entry<String, MessageChannel> entry : module.getComponents(MessageChannel.class).entrySet()) {
+				if ("input".equals(entry.getKey()) || "output".equals(entry.getKey())) {
+					((ConfigurableChannelRegistry) channelRegistry).unbind(entry.getValue());
+				}
+			}
+		}
+	}
+
+	private void registerChannels(Map<String, MessageChannel> channels, String group, int index, Properties moduleProperties) {
 		for (Map.Entry<String, MessageChannel> entry : channels.entrySet()) {
 			if ("input".equals(entry.getKey())) {
-				Assert.isTrue(index > 0, "a module with an input channel must have an index greater than 0");
-				String channelNameInRegistry = group + "." + (index - 1);
-				channelRegistry.inbound(channelNameInRegistry, entry.getValue());
+				String channelNameInRegistry = moduleProperties.getProperty(INPUT_CHANNEL);
+				if (channelNameInRegistry == null) {
+					Assert.isTrue(index > 0, "a module with an input channel must have an index greater than 0");
+					channelNameInRegistry = group + "." + (index - 1);
+				}
+				if (channelRegistry instanceof ConfigurableChannelRegistry) {
+					((ConfigurableChannelRegistry) channelRegistry).inbound(channelNameInRegistry, entry.getValue(),
+							this.channelProperties(moduleProperties, ""));
+				}
+				else {
+					channelRegistry.inbound(channelNameInRegistry, entry.getValue());
+				}
 			}
 			else if ("output".equals(entry.getKey())) {
-				String channelNameInRegistry = group + "." + index;
-				channelRegistry.outbound(channelNameInRegistry, entry.getValue());
+				String channelNameInRegistry = moduleProperties.getProperty(OUTPUT_CHANNEL, group + "." + index);
+				Properties channelProperties = this.channelProperties(moduleProperties, OUTPUT_PREFIX);
+				if (channelRegistry instanceof ConfigurableChannelRegistry) {
+					((ConfigurableChannelRegistry) channelRegistry).outbound(channelNameInRegistry, entry.getValue(),
+							channelProperties);
+				}
+				else {
+					channelRegistry.outbound(channelNameInRegistry, entry.getValue());
+				}
+				if (this.queueDepthSampler != null) {
+					this.queueDepthSampler.register(group, index, channelNameInRegistry, partitions(channelProperties));
+				}
+			}
+		}
+	}
+
+	private static int partitions(Properties channelProperties) {
+		if (channelProperties.getProperty(ConfigurableChannelRegistry.PARTITION_HEADER) == null
+				&& channelProperties.getProperty(ConfigurableChannelRegistry.PARTITION_KEY_EXPRESSION) == null) {
+			return 1;
+		}
+		String count = channelProperties.getProperty(ConfigurableChannelRegistry.PARTITION_COUNT);
+		if (count == null) {
+			count = channelProperties.getProperty(ConfigurableChannelRegistry.CONCURRENCY);
+		}
+		return (count != null) ? Integer.parseInt(count) : 1;
+	}
+
+	private Properties channelProperties(Properties moduleProperties, String prefix) {
+		Properties properties = new Properties();
+		for (String key : CHANNEL_PARAMETERS) {
+			String value = moduleProperties.getProperty(prefix + key);
+			if (value != null) {
+				properties.setProperty(key, value);
 			}
 		}
+		return properties;
 	}
 
 	private void configureProperties(Module module, String group) {
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.Assert;
+import org.springframework.xd.dirt.container.ContainerLoad;
+import org.springframework.xd.dirt.module.ModuleDeploymentRequest;
+
+/**
+ * Chooses the container each module is deployed to, based on the
+ * {@link ContainerLoad} the containers publish into the
+ * {@link #setContainersKey(String) containers hash}.
+ * Containers whose load was not updated within the
+ * {@link #setStaleAfter(long) staleness limit} are considered gone. The
+ * strategies are:
+ * <ul>
+ * <li>{@link Strategy#LEAST_LOADED}: the container with the fewest modules,
+ * ties broken by CPU load. Containers above the {@link #setMaxHeap(double) heap
+ * limit} are only chosen if all containers are.</li>
+ * <li>{@link Strategy#ROUND_ROBIN}: the containers in turn.</li>
+ * <li>{@link Strategy#CO_LOCATE}: the modules of a stream scheduled together
+ * go to the same least loaded container, so that a channel registry that
+ * connects local modules in memory saves the transport hops between them.
+ * The n-th instances of the modules of a stream are placed together, so
+ * that the instances themselves still spread across containers.</li>
+ * </ul>
+ * Modules placed during a call count towards the load of their container for
+ * the rest of that call.
+ *
+ * @author agent
+ */
+public class ContainerScheduler {
+
+	public enum Strategy {
+		LEAST_LOADED, ROUND_ROBIN, CO_LOCATE
+	}
+
+	private final Log logger = LogFactory.getLog(this.getClass());
+
+	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private volatile Strategy strategy = Strategy.LEAST_LOADED;
+
+	private volatile long staleAfter = 30000;
+
+	private volatile double maxHeap = 0.9;
+
+	private volatile String containersKey = "containers";
+
+
+	public ContainerScheduler(RedisConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "connectionFactory must not be null");
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.afterPropertiesSet();
+	}
+
+
+	/**
+	 * Set the placement strategy. Default is {@link Strategy#LEAST_LOADED}.
+	 */
+	public void setStrategy(Strategy strategy) {
+		Assert.notNull(strategy, "strategy must not be null");
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Set the key of the hash the containers publish their load into. Default is
+	 * "containers".
+	 */
+	public void setContainersKey(String containersKey) {
+		Assert.hasText(containersKey, "containersKey must not be empty");
+		this.containersKey = containersKey;
+	}
+
+	/**
+	 * Set the age in milliseconds after which the load of a container is
+	 * considered stale. Default is 30000.
+	 */
+	public void setStaleAfter(long staleAfter) {
+		Assert.isTrue(staleAfter > 0, "staleAfter must be positive");
+		this.staleAfter = staleAfter;
+	}
+
+	/**
+	 * Set the used fraction of the heap above which a container is avoided.
+	 * Default is 0.9.
+	 */
+	public void setMaxHeap(double maxHeap) {
+		this.maxHeap = maxHeap;
+	}
+
+	/**
+	 * Return the id of the container to deploy each of the requests to, in the
+	 * order of the requests. The ids are null if no container is available.
+	 */
+	public List<String> schedule(List<ModuleDeploymentRequest> requests) {
+		List<Candidate> containers = this.liveContainers();
+		if (containers.isEmpty()) {
+			return Collections.<String>nCopies(requests.size(), null);
+		}
+		List<String> placements = new ArrayList<String>(requests.size());
+		Map<String, Candidate> colocated = new HashMap<String, Candidate>();
+		Map<String, Integer> instances = new HashMap<String, Integer>();
+		for (ModuleDeploymentRequest request : requests) {
+			Candidate container;
+			if (this.strategy == Strategy.ROUND_ROBIN) {
+				container = containers.get((this.next.getAndIncrement() & Integer.MAX_VALUE) % containers.size());
+			}
+			else if (this.strategy == Strategy.CO_LOCATE) {
+				String key = request.getGroup() + "." + request.getIndex();
+				Integer instance = instances.get(key);
+				instance = (instance != null) ? instance + 1 : 0;
+				instances.put(key, instance);
+				String group = request.getGroup() + "#" + instance;
+				container = colocated.get(group);
+				if (container == null) {
+					container = this.leastLoaded(containers);
+					colocated.put(group, container);
+				}
+			}
+			else {
+				container = this.leastLoaded(containers);
+			}
+			container.modules++;
+			placements.add(container.id);
+		}
+		return placements;
+	}
+
+	/**
+	 * Return the ids of the containers whose load is recent.
+	 */
+	public Set<String> getLiveContainers() {
+		Set<String> ids = new HashSet<String>();
+		for (Candidate candidate : this.liveContainers()) {
+			ids.add(candidate.id);
+		}
+		return ids;
+	}
+
+	private Candidate leastLoaded(List<Candidate> containers) {
+		Candidate best = null;
+		for (Candidate candidate : containers) {
+			if (best == null || candidate.isLessLoadedThan(best, this.maxHeap)) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Return the containers with a recent load, sorted by id.
+	 */
+	private List<Candidate> liveContainers() {
+		Map<Object, Object> entries = this.redisTemplate.boundHashOps(this.containersKey).entries();
+		Map<String, Candidate> containers = new TreeMap<String, Candidate>();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+			try {
+				ContainerLoad load = this.mapper.readValue(entry.getValue().toString(), ContainerLoad.class);
+				if (now - load.getTimestamp() <= this.staleAfter) {
+					containers.put(entry.getKey().toString(), new Candidate(entry.getKey().toString(), load));
+				}
+			}
+			catch (Exception e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("ignoring container '" + entry.getKey() + "' without load information");
+				}
+			}
+		}
+		return new ArrayList<Candidate>(containers.values());
+	}
+
+
+	private static class Candidate {
+
+		private final String id;
+
+		private final double cpu;
+
+		private final double heap;
+
+		private int modules;
+
+		Candidate(String id, ContainerLoad load) {
+			this.id = id;
+			this.cpu = load.getCpu();
+			this.heap = load.getHeap();
+			this.modules = load.getModules();
+		}
+
+		boolean isLessLoadedThan(Candidate other, double maxHeap) {
+			boolean full = this.heap > maxHeap;
+			if (full != (other.heap > maxHeap)) {
+				return !full;
+			}
+			if (this.modules != other.modules) {
+				return this.modules < other.modules;
+			}
+			return this.cpu < other.cpu;
+		}
+	}
+
+}
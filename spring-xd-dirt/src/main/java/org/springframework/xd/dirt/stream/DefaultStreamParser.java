@@ -17,45 +17,184 @@
 package org.springframework.xd.dirt.stream;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.integration.x.channel.registry.ConfigurableChannelRegistry;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.xd.dirt.module.ModuleDeploymentRequest;
+import org.springframework.xd.dirt.plugins.StreamPlugin;
+import org.springframework.xd.dirt.stream.dsl.ModuleNode;
+import org.springframework.xd.dirt.stream.dsl.StreamDefinition;
+import org.springframework.xd.dirt.stream.dsl.StreamDefinitionParser;
 
 /**
+ * Parses a stream definition of the form {@code source | processor* | sink}, each
+ * module optionally followed by {@code --key=value} parameters, into deployment
+ * requests. Values containing whitespace or '|' can be quoted. Instead of a source
+ * or a sink a stream may read from or write to a named channel, as in
+ * {@code :tweets > filter | hdfs} or {@code http | transform > :tweets}; see
+ * {@link StreamDefinitionParser} for the grammar.
+ * <p>
+ * Parsed definitions are cached by their text, so redeploying a definition or
+ * deploying the same definition under several names parses it only once.
+ * <p>
+ * A processor or sink with an {@value #INSTANCES} parameter is deployed that many
+ * times. If its input is partitioned, each instance binds to every n-th
+ * partition, the partition count defaulting to the number of instances.
+ *
  * @author Mark Fisher
  */
 public class DefaultStreamParser implements StreamParser {
 
+	/**
+	 * The number of instances of a module to deploy.
+	 */
+	public static final String INSTANCES = "instances";
+
+	/**
+	 * Consumer-side channel parameters that the producing module must know about
+	 * too, e.g. to partition its output for the consumer's concurrent listeners.
+	 */
+	private static final String[] CHANNEL_PARAMETERS = {
+			ConfigurableChannelRegistry.CONCURRENCY, ConfigurableChannelRegistry.PARTITION_HEADER,
+			ConfigurableChannelRegistry.PARTITION_KEY_EXPRESSION, ConfigurableChannelRegistry.PARTITION_COUNT };
+
+	private final StreamDefinitionParser definitionParser = new StreamDefinitionParser();
+
+	private volatile int cacheSize = 256;
+
+	@SuppressWarnings("serial")
+	private final Map<String, StreamDefinition> cache = Collections.synchronizedMap(
+			new LinkedHashMap<String, StreamDefinition>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, StreamDefinition> eldest) {
+					return this.size() > cacheSize;
+				}
+			});
+
+	/**
+	 * Set the number of parsed definitions to keep, least recently used first out.
+	 * Default is 256.
+	 */
+	public void setCacheSize(int cacheSize) {
+		Assert.isTrue(cacheSize >= 0, "cacheSize must not be negative");
+		this.cacheSize = cacheSize;
+	}
+
 	@Override
 	public List<ModuleDeploymentRequest> parse(String name, String config) {
+		StreamDefinition definition = this.definition(config);
+		List<ModuleNode> modules = definition.getModules();
 		List<ModuleDeploymentRequest> requests = new ArrayList<ModuleDeploymentRequest>();
-		String[] modules = StringUtils.tokenizeToStringArray(config, "|");
-		Assert.isTrue(modules.length > 1, "at least 2 modules required");
-		for (int i = modules.length - 1; i >= 0; i--) {
-			String[] tokens = StringUtils.tokenizeToStringArray(modules[i], " ");
-			Assert.isTrue(tokens.length > 0, "no module name provided");
-			String moduleName = tokens[0];
+		for (int i = modules.size() - 1; i >= 0; i--) {
+			ModuleNode module = modules.get(i);
 			ModuleDeploymentRequest request = new ModuleDeploymentRequest();
 			request.setGroup(name);
-			request.setType((i == 0) ? "source" : (i == modules.length - 1) ? "sink" : "processor");
-			request.setModule(moduleName);
+			request.setType(definition.getModuleType(i));
+			request.setModule(module.getName());
 			request.setIndex(i);
-			if (tokens.length > 1) {
-				for (int j = 1; j < tokens.length; j++) {
-					String param = tokens[j];
-					int splitIndex = param.indexOf('=');
-					Assert.isTrue(splitIndex != -1 && param.startsWith("--"),
-							"expected syntax '--key=value' for token following module name");
-					String paramName = param.substring(2, splitIndex);
-					String paramValue = param.substring(splitIndex + 1);
-					request.setParameter(paramName, paramValue);
+			for (Map.Entry<String, String> parameter : module.getParameterValues().entrySet()) {
+				request.setParameter(parameter.getKey(), parameter.getValue());
+			}
+			if (i == 0 && definition.getSourceChannel() != null) {
+				request.setParameter(StreamPlugin.INPUT_CHANNEL, definition.getSourceChannel());
+			}
+			if (i == modules.size() - 1 && definition.getSinkChannel() != null) {
+				request.setParameter(StreamPlugin.OUTPUT_CHANNEL, definition.getSinkChannel());
+			}
+			int instances = instances(request);
+			if (instances > 1) {
+				Assert.isTrue(!"source".equals(request.getType()), "a source module cannot have more than one instance");
+				if (isPartitioned(request) && !request.getParameters().containsKey(ConfigurableChannelRegistry.PARTITION_COUNT)) {
+					request.setParameter(ConfigurableChannelRegistry.PARTITION_COUNT, String.valueOf(instances));
 				}
 			}
 			requests.add(request);
 		}
+		// requests are in reverse order: the producer of requests[i] is requests[i + 1]
+		for (int i = 0; i < requests.size() - 1; i++) {
+			Map<String, String> consumerParameters = requests.get(i).getParameters();
+			ModuleDeploymentRequest producer = requests.get(i + 1);
+			for (String key : CHANNEL_PARAMETERS) {
+				String value = consumerParameters.get(key);
+				if (value != null) {
+					producer.setParameter(StreamPlugin.OUTPUT_PREFIX + key, value);
+				}
+			}
+		}
+		List<ModuleDeploymentRequest> instances = new ArrayList<ModuleDeploymentRequest>(requests.size());
+		for (ModuleDeploymentRequest request : requests) {
+			instances.addAll(this.expandInstances(request));
+		}
+		return instances;
+	}
+
+	/**
+	 * Return the parsed definition, from the cache if it was parsed before. The
+	 * definition is immutable, while the requests built from it are not and are
+	 * created anew for every call.
+	 */
+	private StreamDefinition definition(String config) {
+		StreamDefinition definition = this.cache.get(config);
+		if (definition == null) {
+			definition = this.definitionParser.parse(config);
+			if (this.cacheSize > 0) {
+				this.cache.put(config, definition);
+			}
+		}
+		return definition;
+	}
+
+	/**
+	 * Return one request per instance of the requested module, each bound to its
+	 * share of the partitions if the input is partitioned.
+	 */
+	private List<ModuleDeploymentRequest> expandInstances(ModuleDeploymentRequest request) {
+		int instances = instances(request);
+		if (instances < 2) {
+			return Collections.singletonList(request);
+		}
+		List<ModuleDeploymentRequest> requests = new ArrayList<ModuleDeploymentRequest>(instances);
+		int partitionCount = isPartitioned(request)
+				? Integer.parseInt(request.getParameters().get(ConfigurableChannelRegistry.PARTITION_COUNT)) : 0;
+		Assert.isTrue(partitionCount == 0 || partitionCount >= instances, "module '" + request.getModule()
+				+ "' has more instances than partitions");
+		for (int instance = 0; instance < instances; instance++) {
+			ModuleDeploymentRequest copy = new ModuleDeploymentRequest();
+			copy.setGroup(request.getGroup());
+			copy.setType(request.getType());
+			copy.setModule(request.getModule());
+			copy.setIndex(request.getIndex());
+			copy.setInstance(instance);
+			for (Map.Entry<String, String> parameter : request.getParameters().entrySet()) {
+				copy.setParameter(parameter.getKey(), parameter.getValue());
+			}
+			if (partitionCount > 0) {
+				List<Integer> partitions = new ArrayList<Integer>();
+				for (int partition = instance; partition < partitionCount; partition += instances) {
+					partitions.add(partition);
+				}
+				copy.setParameter(ConfigurableChannelRegistry.PARTITIONS,
+						StringUtils.collectionToCommaDelimitedString(partitions));
+			}
+			requests.add(copy);
+		}
 		return requests;
 	}
 
+	private static int instances(ModuleDeploymentRequest request) {
+		String instances = request.getParameters().get(INSTANCES);
+		return (instances != null) ? Integer.parseInt(instances) : 1;
+	}
+
+	private static boolean isPartitioned(ModuleDeploymentRequest request) {
+		Map<String, String> parameters = request.getParameters();
+		return parameters.containsKey(ConfigurableChannelRegistry.PARTITION_HEADER)
+				|| parameters.containsKey(ConfigurableChannelRegistry.PARTITION_KEY_EXPRESSION);
+	}
+
 }
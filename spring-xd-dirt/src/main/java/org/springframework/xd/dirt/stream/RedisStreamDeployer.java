@@ -16,37 +16,261 @@
 
 package org.springframework.xd.dirt.stream;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.Message;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter;
 import org.springframework.util.Assert;
+import org.springframework.xd.dirt.module.ModuleDeployer;
 import org.springframework.xd.dirt.module.ModuleDeploymentRequest;
 
 /**
+ * Sends the deployment requests of streams to the "queue.deployer" queue, from
+ * which containers pick them up. All requests of a call are pushed in one
+ * pipelined round trip, however many streams it deploys. With a
+ * {@link ContainerScheduler} set, each request goes to the
+ * "queue.deployer.<containerId>" queue of the container chosen for it instead,
+ * or to the shared queue if there is no live container. Undeployment requests
+ * are published to the "topic.undeployer" topic, which every container listens
+ * to, and the deployed modules of a stream are read from the "modules:<stream>"
+ * hash the containers maintain.
+ * <p>
+ * The definition hash of every deployed module instance is kept in the
+ * "deployments:<stream>" hash, keyed by its slot. Redeploying a stream only
+ * sends the modules whose definition changed, after asking the containers to
+ * undeploy their previous versions, and undeploys the modules the stream no
+ * longer has. Redeploying an unchanged stream only sends the modules placed on
+ * a container that is no longer alive, according to the "placements:<stream>"
+ * hash the containers maintain. The versions are compared and recorded in a
+ * transaction that is retried if another deployment of one of the streams
+ * changes them concurrently.
+ *
  * @author Mark Fisher
  */
 public class RedisStreamDeployer implements StreamDeployer {
 
+	private static final String QUEUE_HEADER = "queue";
+
+	private static final String QUEUE_NAME = "queue.deployer";
+
+	private static final String UNDEPLOYER_TOPIC = "topic.undeployer";
+
+	private static final String DEPLOYMENTS_PREFIX = "deployments:";
+
+	private static final String PLACEMENTS_PREFIX = "placements:";
+
+	private static final int MAX_ATTEMPTS = 10;
+
 	private final StreamParser streamParser = new DefaultStreamParser();
 
 	private final RedisQueueOutboundChannelAdapter adapter;
 
+	private final StringRedisTemplate redisTemplate = new StringRedisTemplate();
+
+	private volatile ContainerScheduler containerScheduler;
+
+	// only used to tell which containers are alive when no scheduler is set
+	private final ContainerScheduler defaultContainerMonitor;
+
 	public RedisStreamDeployer(RedisConnectionFactory connectionFactory) {
 		Assert.notNull(connectionFactory, "connectionFactory must not be null");
-		this.adapter = new RedisQueueOutboundChannelAdapter("queue.deployer", connectionFactory);
+		this.adapter = new RedisQueueOutboundChannelAdapter(QUEUE_NAME, connectionFactory);
 		this.adapter.setExtractPayload(false);
+		this.adapter.setQueueNameExpression(new SpelExpressionParser().parseExpression("headers['" + QUEUE_HEADER + "']"));
 		this.adapter.afterPropertiesSet();
+		this.redisTemplate.setConnectionFactory(connectionFactory);
+		this.redisTemplate.afterPropertiesSet();
+		this.defaultContainerMonitor = new ContainerScheduler(connectionFactory);
+	}
+
+	/**
+	 * Set the scheduler that places the modules on containers. By default
+	 * modules go to whichever container takes them from the shared queue first.
+	 */
+	public void setContainerScheduler(ContainerScheduler containerScheduler) {
+		this.containerScheduler = containerScheduler;
 	}
 
 	@Override
 	public void deployStream(String name, String config) {
-		List<ModuleDeploymentRequest> requests = this.streamParser.parse(name, config);
-		for (ModuleDeploymentRequest request : requests) {
-			Message<?> message = MessageBuilder.withPayload(request.toString()).build();
-			this.adapter.handleMessage(message);
+		this.deployStreams(Collections.singletonMap(name, config));
+	}
+
+	@Override
+	public void deployStreams(Map<String, String> streams) {
+		// parse everything first so that an invalid stream deploys nothing
+		Map<String, List<ModuleDeploymentRequest>> parsed = new LinkedHashMap<String, List<ModuleDeploymentRequest>>();
+		for (Map.Entry<String, String> stream : streams.entrySet()) {
+			parsed.put(stream.getKey(), this.streamParser.parse(stream.getKey(), stream.getValue()));
+		}
+		Set<String> liveContainers = this.liveContainerMonitor().getLiveContainers();
+		Plan plan = null;
+		for (int attempt = 0; plan == null; attempt++) {
+			if (attempt == MAX_ATTEMPTS) {
+				throw new IllegalStateException("deployments of streams " + streams.keySet()
+						+ " kept changing concurrently");
+			}
+			plan = this.redisTemplate.execute(new PlanCallback(parsed, liveContainers));
+		}
+		for (String undeployment : plan.undeployments) {
+			this.redisTemplate.convertAndSend(UNDEPLOYER_TOPIC, undeployment);
+		}
+		if (plan.requests.isEmpty()) {
+			return;
+		}
+		List<ModuleDeploymentRequest> requests = plan.requests;
+		ContainerScheduler scheduler = this.containerScheduler;
+		List<String> containers = (scheduler != null) ? scheduler.schedule(requests) : null;
+		List<Message<?>> messages = new ArrayList<Message<?>>(requests.size());
+		for (int i = 0; i < requests.size(); i++) {
+			MessageBuilder<String> builder = MessageBuilder.withPayload(requests.get(i).toString());
+			if (containers != null && containers.get(i) != null) {
+				builder.setHeader(QUEUE_HEADER, QUEUE_NAME + "." + containers.get(i));
+			}
+			messages.add(builder.build());
+		}
+		try {
+			this.adapter.handleMessages(messages);
+		}
+		catch (RuntimeException e) {
+			// forget the versions that were not sent, so that deploying again sends them
+			for (ModuleDeploymentRequest request : requests) {
+				this.redisTemplate.boundHashOps(DEPLOYMENTS_PREFIX + request.getGroup()).delete(request.getSlot());
+			}
+			throw e;
+		}
+		for (int i = 0; containers != null && i < requests.size(); i++) {
+			if (containers.get(i) != null) {
+				ModuleDeploymentRequest request = requests.get(i);
+				this.redisTemplate.boundHashOps(PLACEMENTS_PREFIX + request.getGroup()).put(request.getSlot(),
+						containers.get(i));
+			}
+		}
+	}
+
+	private ContainerScheduler liveContainerMonitor() {
+		ContainerScheduler scheduler = this.containerScheduler;
+		return (scheduler != null) ? scheduler : this.defaultContainerMonitor;
+	}
+
+	@Override
+	public void undeployStream(String name) {
+		Assert.hasText(name, "name must not be empty");
+		this.redisTemplate.delete(Arrays.asList(DEPLOYMENTS_PREFIX + name, PLACEMENTS_PREFIX + name));
+		this.redisTemplate.convertAndSend(UNDEPLOYER_TOPIC, name);
+	}
+
+	@Override
+	public Map<String, String> getDeployedModules(String name) {
+		Map<String, String> modules = new TreeMap<String, String>();
+		for (Map.Entry<Object, Object> entry : this.redisTemplate.boundHashOps("modules:" + name).entries().entrySet()) {
+			modules.put(entry.getKey().toString(), entry.getValue().toString());
+		}
+		return modules;
+	}
+
+
+	/**
+	 * The requests and undeployments that bring the streams from their recorded
+	 * versions to the parsed ones.
+	 */
+	private static class Plan {
+
+		private final List<ModuleDeploymentRequest> requests = new ArrayList<ModuleDeploymentRequest>();
+
+		private final List<String> undeployments = new ArrayList<String>();
+	}
+
+
+	/**
+	 * Compares the parsed streams with their recorded versions and records the
+	 * new versions in one MULTI/EXEC transaction, watching the recorded versions
+	 * so that concurrent deployments of the same stream cannot interleave.
+	 * Returns null if the transaction was aborted by a concurrent change.
+	 */
+	private class PlanCallback implements RedisCallback<Plan> {
+
+		private final Map<String, List<ModuleDeploymentRequest>> streams;
+
+		private final Set<String> liveContainers;
+
+		PlanCallback(Map<String, List<ModuleDeploymentRequest>> streams, Set<String> liveContainers) {
+			this.streams = streams;
+			this.liveContainers = liveContainers;
+		}
+
+		@Override
+		public Plan doInRedis(RedisConnection connection) throws DataAccessException {
+			RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+			Map<String, byte[]> keys = new LinkedHashMap<String, byte[]>();
+			for (String name : this.streams.keySet()) {
+				keys.put(name, serializer.serialize(DEPLOYMENTS_PREFIX + name));
+			}
+			connection.watch(keys.values().toArray(new byte[keys.size()][]));
+			Plan plan = new Plan();
+			Map<byte[], Map<byte[], byte[]>> versions = new LinkedHashMap<byte[], Map<byte[], byte[]>>();
+			for (Map.Entry<String, List<ModuleDeploymentRequest>> stream : this.streams.entrySet()) {
+				String name = stream.getKey();
+				Map<String, String> deployed = this.strings(connection.hGetAll(keys.get(name)), serializer);
+				Map<String, String> placements = this.strings(
+						connection.hGetAll(serializer.serialize(PLACEMENTS_PREFIX + name)), serializer);
+				Map<byte[], byte[]> current = new LinkedHashMap<byte[], byte[]>();
+				for (ModuleDeploymentRequest request : stream.getValue()) {
+					String slot = request.getSlot();
+					String hash = request.getDefinitionHash();
+					current.put(serializer.serialize(slot), serializer.serialize(hash));
+					String previous = deployed.remove(slot);
+					if (hash.equals(previous)) {
+						String container = placements.get(slot);
+						if (container == null || this.liveContainers.contains(container)) {
+							continue;
+						}
+						// the container the module was placed on is gone
+					}
+					else if (previous != null) {
+						plan.undeployments.add(ModuleDeployer.undeployment(name, slot, previous));
+					}
+					plan.requests.add(request);
+				}
+				for (Map.Entry<String, String> removed : deployed.entrySet()) {
+					plan.undeployments.add(ModuleDeployer.undeployment(name, removed.getKey(), removed.getValue()));
+				}
+				versions.put(keys.get(name), current);
+			}
+			connection.multi();
+			for (Map.Entry<byte[], Map<byte[], byte[]>> version : versions.entrySet()) {
+				connection.del(version.getKey());
+				if (!version.getValue().isEmpty()) {
+					connection.hMSet(version.getKey(), version.getValue());
+				}
+			}
+			return (connection.exec() != null) ? plan : null;
+		}
+
+		private Map<String, String> strings(Map<byte[], byte[]> entries, RedisSerializer<String> serializer) {
+			Map<String, String> strings = new HashMap<String, String>();
+			if (entries != null) {
+				for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+					strings.put(serializer.deserialize(entry.getKey()), serializer.deserialize(entry.getValue()));
+				}
+			}
+			return strings;
 		}
 	}
 
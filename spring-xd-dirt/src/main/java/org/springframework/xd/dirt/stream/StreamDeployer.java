@@ -16,6 +16,8 @@
 
 package org.springframework.xd.dirt.stream;
 
+import java.util.Map;
+
 /**
  * @author Mark Fisher
  */
@@ -23,4 +25,22 @@ public interface StreamDeployer {
 
 	void deployStream(String name, String config);
 
+	/**
+	 * Deploy several streams at once.
+	 * @param streams the configuration of each stream, keyed by stream name
+	 */
+	void deployStreams(Map<String, String> streams);
+
+	/**
+	 * Undeploy the modules of the stream from all containers.
+	 */
+	void undeployStream(String name);
+
+	/**
+	 * Return the modules of the stream that are currently deployed, keyed by
+	 * {@code <module>.<index>.<instance>}, with their properties as JSON. The map is empty
+	 * if no module of the stream is deployed.
+	 */
+	Map<String, String> getDeployedModules(String name);
+
 }
@@ -18,39 +18,77 @@ package org.springframework.xd.dirt.stream;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ScheduledFuture;
 
-import javax.servlet.ServletException;
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.AprLifecycleListener;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.integration.MessagingException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.Assert;
 import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.xd.dirt.launcher.RedisContainerLauncher;
 
 /**
- * This is a temporary "server" for the REST API. Currently it only handles simple
- * stream configurations (tokens separated by pipes) without any parameters. This
- * will be completely replaced by a more robust solution. Intended for demo only.
+ * This is a temporary "server" for the REST API. This will be completely replaced
+ * by a more robust solution. Intended for demo only. It handles:
+ * <ul>
+ * <li>{@code POST /streams/<name>} with the stream definition as body</li>
+ * <li>{@code POST /streams} with a JSON object mapping stream names to
+ * definitions as body, to deploy many streams at once</li>
+ * <li>{@code GET /streams/<name>} returning the deployed modules of the stream</li>
+ * <li>{@code DELETE /streams/<name>} undeploying the stream</li>
+ * <li>{@code GET /deployments/<id>} returning the status of a deployment</li>
+ * </ul>
+ * Requests are handled asynchronously on a bounded pool of
+ * {@link #setRequestThreads(int) request threads}, so that slow deployments do
+ * not tie up the connector threads; when the pool's queue is full requests are
+ * rejected with 503. A deployment is answered with 202 and a deployment id as
+ * soon as its body has been read and its definitions parsed, and is then sent to
+ * the containers; an invalid definition is answered with 400 right away. The
+ * status of a deployment is PENDING until it was sent, and SUBMITTED or FAILED
+ * afterwards. The status of the last {@value #DEPLOYMENT_HISTORY} deployments is
+ * kept.
+ * <p>
+ * The request body is read with blocking I/O on the request thread, since the
+ * Servlet 3.0 API of the embedded Tomcat has no non-blocking reads. A slow
+ * client can therefore hold a request thread for as long as it takes to send
+ * the body, but never a connector thread.
  *
  * @author Mark Fisher
  */
 public class StreamServer implements SmartLifecycle, InitializingBean {
 
+	private static final String DEPLOYMENTS = "deployments";
+
+	private static final int DEPLOYMENT_HISTORY = 1000;
+
 	private final Log logger = LogFactory.getLog(getClass());
 
 	private volatile String contextPath = "";
@@ -65,6 +103,25 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 
 	private volatile ScheduledFuture<?> handlerTask = null;
 
+	private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+	private volatile int requestThreads = 4;
+
+	private volatile int requestQueueCapacity = 1000;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final StreamParser streamParser = new DefaultStreamParser();
+
+	@SuppressWarnings("serial")
+	private final Map<String, Deployment> deployments = Collections.synchronizedMap(
+			new LinkedHashMap<String, Deployment>() {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Deployment> eldest) {
+					return this.size() > DEPLOYMENT_HISTORY;
+				}
+			});
+
 	private volatile boolean running;
 
 	private final StreamDeployer streamDeployer;
@@ -95,6 +152,22 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 		this.servletName = servletName;
 	}
 
+	/**
+	 * Set the number of threads handling requests. Default is: 4
+	 */
+	public void setRequestThreads(int requestThreads) {
+		Assert.isTrue(requestThreads > 0, "requestThreads must be positive");
+		this.requestThreads = requestThreads;
+	}
+
+	/**
+	 * Set the number of requests that may wait for a request thread before
+	 * further requests are rejected. Default is: 1000
+	 */
+	public void setRequestQueueCapacity(int requestQueueCapacity) {
+		this.requestQueueCapacity = requestQueueCapacity;
+	}
+
 	@Override
 	public void afterPropertiesSet() {
 		this.scheduler.setPoolSize(3);
@@ -102,8 +175,14 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 		this.tomcat.setPort(this.port);
 		String path = (this.contextPath.startsWith("/")) ? this.contextPath : "/" + this.contextPath;
 		Context context = this.tomcat.addContext(path, new File(".").getAbsolutePath());
-		Tomcat.addServlet(context, this.servletName, new XdServlet());
+		this.executor.setCorePoolSize(this.requestThreads);
+		this.executor.setMaxPoolSize(this.requestThreads);
+		this.executor.setQueueCapacity(this.requestQueueCapacity);
+		this.executor.setThreadNamePrefix("stream-server-");
+		Wrapper wrapper = Tomcat.addServlet(context, this.servletName, new XdServlet());
+		wrapper.setAsyncSupported(true);
 		context.addServletMapping("/" + this.servletName + "/*", this.servletName);
+		context.addServletMapping("/" + DEPLOYMENTS + "/*", this.servletName);
 		if (logger.isInfoEnabled()) {
 			logger.info("initialized server: context=" + this.contextPath + ", servlet=" + this.servletName);
 		}
@@ -128,6 +207,7 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 	public void start() {
 		this.tomcat.getServer().addLifecycleListener(new AprLifecycleListener());
 		try {
+			this.executor.initialize();
 			this.tomcat.start();
 			this.handlerTask = this.scheduler.schedule(new Handler(), new Date());
 			if (logger.isInfoEnabled()) {
@@ -147,6 +227,7 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 				this.handlerTask.cancel(true);
 			}
 			this.tomcat.stop();
+			this.executor.shutdown();
 			this.running = false;
 		}
 		catch (LifecycleException e) {
@@ -169,20 +250,245 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 
 	@SuppressWarnings("serial")
 	private class XdServlet extends HttpServlet {
+
 		@Override
-		protected void service(HttpServletRequest request, HttpServletResponse response)
-				throws ServletException, IOException {
-			if ("POST".equalsIgnoreCase(request.getMethod())) {
-				String streamConfig = FileCopyUtils.copyToString(request.getReader());
-				String streamName = request.getPathInfo();
-				Assert.hasText(streamName, "no stream name (e.g. localhost/streams/streamname");
-				streamName = streamName.replaceAll("/", "");
-				streamDeployer.deployStream(streamName, streamConfig);
+		protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			String method = request.getMethod();
+			String name = StringUtils.hasText(request.getPathInfo()) ? request.getPathInfo().replaceAll("/", "") : null;
+			if (("/" + DEPLOYMENTS).equals(request.getServletPath())) {
+				Deployment deployment = (name != null) ? deployments.get(name) : null;
+				if (!"GET".equalsIgnoreCase(method)) {
+					response.sendError(405);
+				}
+				else if (deployment == null) {
+					response.sendError(404);
+				}
+				else {
+					writeJson(response, deployment.toMap());
+				}
+			}
+			else if ("POST".equalsIgnoreCase(method)) {
+				this.dispatch(request, response, new Deploy(name));
+			}
+			else if (name == null) {
+				response.sendError(405);
+			}
+			else if ("GET".equalsIgnoreCase(method)) {
+				this.dispatch(request, response, new Status(name));
+			}
+			else if ("DELETE".equalsIgnoreCase(method)) {
+				this.dispatch(request, response, new Undeploy(name));
 			}
 			else {
 				response.sendError(405);
 			}
 		}
+
+		/**
+		 * Hand the request over to a request thread, releasing the connector thread.
+		 */
+		private void dispatch(HttpServletRequest request, HttpServletResponse response, RequestHandler handler)
+				throws IOException {
+			AsyncContext asyncContext = request.startAsync();
+			try {
+				executor.execute(new AsyncRequest(asyncContext, handler));
+			}
+			catch (TaskRejectedException e) {
+				response.sendError(503, "too many pending requests");
+				asyncContext.complete();
+			}
+		}
+	}
+
+	private void writeJson(HttpServletResponse response, Object value) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().write(this.mapper.writeValueAsString(value));
+	}
+
+
+	private interface RequestHandler {
+
+		/**
+		 * Handle the request and return a task to run once the response is
+		 * complete, if any.
+		 */
+		Runnable handle(HttpServletRequest request, HttpServletResponse response) throws Exception;
+
+	}
+
+
+	private class AsyncRequest implements Runnable {
+
+		private final AsyncContext asyncContext;
+
+		private final RequestHandler handler;
+
+		AsyncRequest(AsyncContext asyncContext, RequestHandler handler) {
+			this.asyncContext = asyncContext;
+			this.handler = handler;
+		}
+
+		@Override
+		public void run() {
+			HttpServletResponse response = (HttpServletResponse) this.asyncContext.getResponse();
+			Runnable followUp = null;
+			try {
+				followUp = this.handler.handle((HttpServletRequest) this.asyncContext.getRequest(), response);
+			}
+			catch (Exception e) {
+				logger.error("failed to handle request", e);
+				if (!response.isCommitted()) {
+					try {
+						response.sendError(500, e.getMessage());
+					}
+					catch (IOException ignored) {
+					}
+				}
+			}
+			finally {
+				this.asyncContext.complete();
+			}
+			if (followUp != null) {
+				followUp.run();
+			}
+		}
+	}
+
+
+	private class Deploy implements RequestHandler {
+
+		private final String name;
+
+		Deploy(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Runnable handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+			String body = FileCopyUtils.copyToString(request.getReader());
+			final Map<String, String> streams;
+			if (this.name != null) {
+				streams = Collections.singletonMap(this.name, body);
+			}
+			else {
+				try {
+					streams = mapper.readValue(body, new TypeReference<LinkedHashMap<String, String>>() {});
+				}
+				catch (JsonProcessingException e) {
+					response.sendError(400, "expected a JSON object mapping stream names to definitions");
+					return null;
+				}
+			}
+			if (streams == null || streams.isEmpty()) {
+				response.sendError(400, "no streams provided");
+				return null;
+			}
+			for (Map.Entry<String, String> stream : streams.entrySet()) {
+				try {
+					streamParser.parse(stream.getKey(), stream.getValue());
+				}
+				catch (IllegalArgumentException e) {
+					response.sendError(400, "invalid definition of stream '" + stream.getKey() + "': " + e.getMessage());
+					return null;
+				}
+			}
+			final Deployment deployment = new Deployment(UUID.randomUUID().toString(), streams.keySet());
+			deployments.put(deployment.id, deployment);
+			response.setStatus(202);
+			response.setHeader("Location", request.getContextPath() + "/" + DEPLOYMENTS + "/" + deployment.id);
+			writeJson(response, deployment.toMap());
+			return new Runnable() {
+				@Override
+				public void run() {
+					try {
+						streamDeployer.deployStreams(streams);
+						deployment.status = "SUBMITTED";
+					}
+					catch (Exception e) {
+						logger.error("failed to deploy " + streams.keySet(), e);
+						deployment.error = e.getMessage();
+						deployment.status = "FAILED";
+					}
+				}
+			};
+		}
+	}
+
+
+	private class Status implements RequestHandler {
+
+		private final String name;
+
+		Status(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Runnable handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+			Map<String, String> deployedModules = streamDeployer.getDeployedModules(this.name);
+			if (deployedModules.isEmpty()) {
+				response.sendError(404);
+				return null;
+			}
+			Map<String, Object> modules = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, String> module : deployedModules.entrySet()) {
+				modules.put(module.getKey(), mapper.readTree(module.getValue()));
+			}
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+			status.put("name", this.name);
+			status.put("modules", modules);
+			writeJson(response, status);
+			return null;
+		}
+	}
+
+
+	private class Undeploy implements RequestHandler {
+
+		private final String name;
+
+		Undeploy(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Runnable handle(HttpServletRequest request, HttpServletResponse response) {
+			streamDeployer.undeployStream(this.name);
+			response.setStatus(202);
+			return null;
+		}
+	}
+
+
+	private static class Deployment {
+
+		private final String id;
+
+		private final List<String> streams;
+
+		private volatile String status = "PENDING";
+
+		private volatile String error;
+
+		Deployment(String id, Iterable<String> streams) {
+			this.id = id;
+			this.streams = new ArrayList<String>();
+			for (String stream : streams) {
+				this.streams.add(stream);
+			}
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("id", this.id);
+			map.put("streams", this.streams);
+			map.put("status", this.status);
+			if (this.error != null) {
+				map.put("error", this.error);
+			}
+			return map;
+		}
 	}
 
 	public static void main(String[] args) {
@@ -190,6 +496,7 @@ public class StreamServer implements SmartLifecycle, InitializingBean {
 		JedisConnectionFactory connectionFactory = new JedisConnectionFactory();
 		connectionFactory.afterPropertiesSet();
 		RedisStreamDeployer streamDeployer = new RedisStreamDeployer(connectionFactory);
+		streamDeployer.setContainerScheduler(new ContainerScheduler(connectionFactory));
 		StreamServer server = new StreamServer(streamDeployer);
 		server.afterPropertiesSet();
 		server.start();
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.stream.dsl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * A module of a {@link StreamDefinition} with its parameters, in the order they
+ * were given.
+ *
+ * @author agent
+ */
+public class ModuleNode {
+
+	private final String name;
+
+	private final Map<String, ParameterNode> parameters;
+
+
+	public ModuleNode(String name, Map<String, ParameterNode> parameters) {
+		Assert.hasText(name, "name must not be empty");
+		this.name = name;
+		this.parameters = Collections.unmodifiableMap(new LinkedHashMap<String, ParameterNode>(parameters));
+	}
+
+
+	public String getName() {
+		return this.name;
+	}
+
+	public Map<String, ParameterNode> getParameters() {
+		return this.parameters;
+	}
+
+	/**
+	 * Return the parameter values by name, e.g. for a deployment request.
+	 */
+	public Map<String, String> getParameterValues() {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (ParameterNode parameter : this.parameters.values()) {
+			values.put(parameter.getName(), parameter.getValue());
+		}
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(this.name);
+		for (ParameterNode parameter : this.parameters.values()) {
+			builder.append(' ').append(parameter);
+		}
+		return builder.toString();
+	}
+
+}
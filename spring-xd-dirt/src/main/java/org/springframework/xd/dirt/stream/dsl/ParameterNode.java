@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.stream.dsl;
+
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@code --name=value} parameter of a {@link ModuleNode}. Unquoted values that
+ * look like numbers or booleans are typed accordingly; quoted values are always
+ * strings.
+ *
+ * @author agent
+ */
+public class ParameterNode {
+
+	private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+
+	private static final Pattern DECIMAL = Pattern.compile("-?\\d*\\.\\d+");
+
+	public enum Type {
+		STRING, INTEGER, DECIMAL, BOOLEAN
+	}
+
+	private final String name;
+
+	private final String value;
+
+	private final boolean quoted;
+
+	private final Type type;
+
+
+	public ParameterNode(String name, String value, boolean quoted) {
+		Assert.hasText(name, "name must not be empty");
+		Assert.notNull(value, "value must not be null");
+		this.name = name;
+		this.value = value;
+		this.quoted = quoted;
+		this.type = quoted ? Type.STRING : typeOf(value);
+	}
+
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getValue() {
+		return this.value;
+	}
+
+	public boolean isQuoted() {
+		return this.quoted;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	private static Type typeOf(String value) {
+		if ("true".equals(value) || "false".equals(value)) {
+			return Type.BOOLEAN;
+		}
+		if (INTEGER.matcher(value).matches()) {
+			return Type.INTEGER;
+		}
+		if (DECIMAL.matcher(value).matches()) {
+			return Type.DECIMAL;
+		}
+		return Type.STRING;
+	}
+
+	@Override
+	public String toString() {
+		if (!this.quoted) {
+			return "--" + this.name + "=" + this.value;
+		}
+		return "--" + this.name + "='" + this.value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.stream.dsl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * The parsed form of a stream definition: its modules in order, and the named
+ * channels the first module reads from and the last module writes to, if any.
+ * Instances are immutable, so a definition parsed once may be shared.
+ *
+ * @author agent
+ */
+public class StreamDefinition {
+
+	private final List<ModuleNode> modules;
+
+	private final String sourceChannel;
+
+	private final String sinkChannel;
+
+
+	public StreamDefinition(List<ModuleNode> modules, String sourceChannel, String sinkChannel) {
+		Assert.notEmpty(modules, "at least one module required");
+		this.modules = Collections.unmodifiableList(new ArrayList<ModuleNode>(modules));
+		this.sourceChannel = sourceChannel;
+		this.sinkChannel = sinkChannel;
+	}
+
+
+	public List<ModuleNode> getModules() {
+		return this.modules;
+	}
+
+	/**
+	 * Return the name of the channel the first module reads from, or null if the
+	 * first module is a source.
+	 */
+	public String getSourceChannel() {
+		return this.sourceChannel;
+	}
+
+	/**
+	 * Return the name of the channel the last module writes to, or null if the
+	 * last module is a sink.
+	 */
+	public String getSinkChannel() {
+		return this.sinkChannel;
+	}
+
+	/**
+	 * Return the type of the module at the given position: "source" for a first
+	 * module without a source channel, "sink" for a last module without a sink
+	 * channel, and "processor" otherwise.
+	 */
+	public String getModuleType(int index) {
+		if (index == 0 && this.sourceChannel == null) {
+			return "source";
+		}
+		if (index == this.modules.size() - 1 && this.sinkChannel == null) {
+			return "sink";
+		}
+		return "processor";
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if (this.sourceChannel != null) {
+			builder.append(':').append(this.sourceChannel).append(" > ");
+		}
+		for (int i = 0; i < this.modules.size(); i++) {
+			builder.append((i > 0) ? " | " : "").append(this.modules.get(i));
+		}
+		if (this.sinkChannel != null) {
+			builder.append(" > :").append(this.sinkChannel);
+		}
+		return builder.toString();
+	}
+
+}
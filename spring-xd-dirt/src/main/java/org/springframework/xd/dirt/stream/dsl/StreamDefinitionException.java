@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream.dsl;
+
+/**
+ * Thrown when a stream definition cannot be parsed. The message points at the
+ * offending position of the definition.
+ *
+ * @author agent
+ */
+@SuppressWarnings("serial")
+public class StreamDefinitionException extends IllegalArgumentException {
+
+	private final String definition;
+
+	private final int position;
+
+	public StreamDefinitionException(String message, String definition, int position) {
+		super(message + " at position " + position + " of stream definition '" + definition + "'");
+		this.definition = definition;
+		this.position = position;
+	}
+
+	public String getDefinition() {
+		return this.definition;
+	}
+
+	public int getPosition() {
+		return this.position;
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.stream.dsl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses stream definitions into {@link StreamDefinition}s. The grammar is:
+ *
+ * <pre>
+ * stream    := [':' channel '&gt;'] module ('|' module)* ['&gt;' ':' channel]
+ * module    := name ('--' name '=' value)*
+ * value     := unquoted | "'" chars "'" | '"' chars '"'
+ * </pre>
+ *
+ * A stream must either consist of at least two modules, or read from or write to
+ * a named channel. Parse errors are reported as {@link StreamDefinitionException}s
+ * pointing at the offending position. Instances are stateless and thread-safe.
+ *
+ * @author agent
+ */
+public class StreamDefinitionParser {
+
+	public StreamDefinition parse(String definition) {
+		return new Parse(definition).stream();
+	}
+
+
+	private static class Parse {
+
+		private final String definition;
+
+		private final List<Token> tokens;
+
+		private int index;
+
+		Parse(String definition) {
+			this.definition = definition;
+			this.tokens = new StreamLexer(definition).tokenize();
+		}
+
+		StreamDefinition stream() {
+			String sourceChannel = null;
+			String sinkChannel = null;
+			if (this.peek(Token.Kind.COLON)) {
+				sourceChannel = this.channel();
+				this.expect(Token.Kind.GT, "'>'");
+			}
+			List<ModuleNode> modules = new ArrayList<ModuleNode>();
+			modules.add(this.module());
+			while (this.peek(Token.Kind.PIPE)) {
+				this.index++;
+				modules.add(this.module());
+			}
+			if (this.peek(Token.Kind.GT)) {
+				this.index++;
+				sinkChannel = this.channel();
+			}
+			if (this.index < this.tokens.size()) {
+				throw this.error("unexpected '" + this.tokens.get(this.index).getText() + "'");
+			}
+			if (modules.size() < 2 && sourceChannel == null && sinkChannel == null) {
+				throw new StreamDefinitionException("at least 2 modules required", this.definition, 0);
+			}
+			return new StreamDefinition(modules, sourceChannel, sinkChannel);
+		}
+
+		private String channel() {
+			this.expect(Token.Kind.COLON, "':'");
+			return this.expect(Token.Kind.IDENTIFIER, "channel name").getText();
+		}
+
+		private ModuleNode module() {
+			String name = this.expect(Token.Kind.IDENTIFIER, "module name").getText();
+			Map<String, ParameterNode> parameters = new LinkedHashMap<String, ParameterNode>();
+			while (this.peek(Token.Kind.DOUBLE_MINUS)) {
+				this.index++;
+				Token parameterName = this.expect(Token.Kind.IDENTIFIER, "parameter name");
+				this.expect(Token.Kind.EQUALS, "'=' after parameter name");
+				Token value = this.expect(null, "parameter value");
+				if (value.getKind() != Token.Kind.VALUE && value.getKind() != Token.Kind.LITERAL) {
+					this.index--;
+					throw this.error("expected parameter value");
+				}
+				if (parameters.containsKey(parameterName.getText())) {
+					throw new StreamDefinitionException("duplicate parameter '" + parameterName.getText() + "'",
+							this.definition, parameterName.getPosition());
+				}
+				parameters.put(parameterName.getText(), new ParameterNode(parameterName.getText(), value.getText(),
+						value.getKind() == Token.Kind.LITERAL));
+			}
+			return new ModuleNode(name, parameters);
+		}
+
+		private boolean peek(Token.Kind kind) {
+			return this.index < this.tokens.size() && this.tokens.get(this.index).getKind() == kind;
+		}
+
+		/**
+		 * Consume the next token, which must be of the given kind unless that is null.
+		 */
+		private Token expect(Token.Kind kind, String expected) {
+			if (this.index >= this.tokens.size() || (kind != null && !this.peek(kind))) {
+				throw this.error("expected " + expected);
+			}
+			return this.tokens.get(this.index++);
+		}
+
+		private StreamDefinitionException error(String message) {
+			int position = (this.index < this.tokens.size()) ? this.tokens.get(this.index).getPosition()
+					: this.definition.length();
+			return new StreamDefinitionException(message, this.definition, position);
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream.dsl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a stream definition into {@link Token}s.
+ * <p>
+ * Parameter values directly follow the '=' of their parameter. They are either
+ * quoted with single or double quotes, in which case a backslash escapes the
+ * next character, or run up to the next whitespace or '|', so that unquoted
+ * values may contain characters such as ':', '>' or '='.
+ *
+ * @author agent
+ */
+class StreamLexer {
+
+	private final String definition;
+
+	private final List<Token> tokens = new ArrayList<Token>();
+
+	private int position;
+
+
+	StreamLexer(String definition) {
+		this.definition = definition;
+	}
+
+
+	List<Token> tokenize() {
+		int length = this.definition.length();
+		while (this.position < length) {
+			char c = this.definition.charAt(this.position);
+			if (Character.isWhitespace(c)) {
+				this.position++;
+			}
+			else if (c == '|') {
+				this.single(Token.Kind.PIPE);
+			}
+			else if (c == '>') {
+				this.single(Token.Kind.GT);
+			}
+			else if (c == ':') {
+				this.single(Token.Kind.COLON);
+			}
+			else if (c == '=') {
+				this.single(Token.Kind.EQUALS);
+				this.value();
+			}
+			else if (c == '-' && this.position + 1 < length && this.definition.charAt(this.position + 1) == '-') {
+				this.tokens.add(new Token(Token.Kind.DOUBLE_MINUS, "--", this.position));
+				this.position += 2;
+			}
+			else if (isIdentifierStart(c)) {
+				this.identifier();
+			}
+			else {
+				throw new StreamDefinitionException("unexpected character '" + c + "'", this.definition, this.position);
+			}
+		}
+		return this.tokens;
+	}
+
+	private void single(Token.Kind kind) {
+		this.tokens.add(new Token(kind, String.valueOf(this.definition.charAt(this.position)), this.position));
+		this.position++;
+	}
+
+	private void identifier() {
+		int start = this.position;
+		while (this.position < this.definition.length() && isIdentifierPart(this.definition.charAt(this.position))) {
+			this.position++;
+		}
+		this.tokens.add(new Token(Token.Kind.IDENTIFIER, this.definition.substring(start, this.position), start));
+	}
+
+	/**
+	 * Read the value following an '=', if any.
+	 */
+	private void value() {
+		int length = this.definition.length();
+		if (this.position >= length) {
+			return;
+		}
+		char c = this.definition.charAt(this.position);
+		if (c == '"' || c == '\'') {
+			this.literal(c);
+			return;
+		}
+		int start = this.position;
+		while (this.position < length) {
+			c = this.definition.charAt(this.position);
+			if (Character.isWhitespace(c) || c == '|') {
+				break;
+			}
+			this.position++;
+		}
+		if (this.position > start) {
+			this.tokens.add(new Token(Token.Kind.VALUE, this.definition.substring(start, this.position), start));
+		}
+	}
+
+	private void literal(char quote) {
+		int start = this.position++;
+		StringBuilder value = new StringBuilder();
+		while (this.position < this.definition.length()) {
+			char c = this.definition.charAt(this.position++);
+			if (c == quote) {
+				this.tokens.add(new Token(Token.Kind.LITERAL, value.toString(), start));
+				return;
+			}
+			if (c == '\\' && this.position < this.definition.length()) {
+				c = this.definition.charAt(this.position++);
+			}
+			value.append(c);
+		}
+		throw new StreamDefinitionException("unterminated quoted value", this.definition, start);
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+	}
+
+}
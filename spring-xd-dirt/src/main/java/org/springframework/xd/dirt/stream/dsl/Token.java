@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream.dsl;
+
+/**
+ * A token of the stream definition language.
+ *
+ * @author agent
+ */
+class Token {
+
+	enum Kind {
+
+		/** A module, parameter or channel name. */
+		IDENTIFIER,
+
+		/** An unquoted parameter value. */
+		VALUE,
+
+		/** A quoted parameter value, without the quotes and with escapes resolved. */
+		LITERAL,
+
+		PIPE, GT, COLON, EQUALS, DOUBLE_MINUS
+	}
+
+	private final Kind kind;
+
+	private final String text;
+
+	private final int position;
+
+	Token(Kind kind, String text, int position) {
+		this.kind = kind;
+		this.text = text;
+		this.position = position;
+	}
+
+	Kind getKind() {
+		return this.kind;
+	}
+
+	String getText() {
+		return this.text;
+	}
+
+	int getPosition() {
+		return this.position;
+	}
+
+	@Override
+	public String toString() {
+		return this.kind + "(" + this.text + ")@" + this.position;
+	}
+
+}
@@ -26,4 +26,9 @@ public class SamplePlugin implements Plugin {
 		System.out.println("processing module '" + module + "' from group '" + group + "' with index: " + index);
 	}
 
+	@Override
+	public void removeModule(Module module, String group, int index) {
+		System.out.println("removing module '" + module + "' from group '" + group + "' with index: " + index);
+	}
+
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.channel.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.core.SubscribableChannel;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * @author agent
+ */
+public class HybridChannelRegistryTests {
+
+	@Test
+	public void colocatedProducerAndConsumerAreBridgedInMemory() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		QueueChannel input = new QueueChannel();
+		DirectChannel output = new DirectChannel();
+		registry.inbound("foo.0", input, new Properties());
+		registry.outbound("foo.0", output, new Properties());
+		output.send(MessageBuilder.withPayload("hello").build());
+		Message<?> received = input.receive(0);
+		assertNotNull(received);
+		assertEquals("hello", received.getPayload());
+		assertEquals(2, remote.calls.size());
+		assertEquals("inbound foo.0 {}", remote.calls.get(0));
+		assertEquals("outbound foo.0 {publishOnly=true}", remote.calls.get(1));
+		registry.destroy();
+	}
+
+	@Test
+	public void everyMessageReachesBothTheConsumerAndTheTaps() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		QueueChannel input = new QueueChannel();
+		DirectChannel output = new DirectChannel();
+		registry.inbound("foo.0", input, new Properties());
+		registry.outbound("foo.0", output, new Properties());
+		for (int i = 0; i < 4; i++) {
+			output.send(MessageBuilder.withPayload("hello" + i).build());
+		}
+		for (int i = 0; i < 4; i++) {
+			assertEquals("hello" + i, input.receive(0).getPayload());
+			assertEquals("hello" + i, remote.published.get(i).getPayload());
+		}
+		assertNull(input.receive(0));
+		assertEquals(4, remote.published.size());
+		registry.destroy();
+	}
+
+	@Test
+	public void producerWithoutLocalConsumerGoesRemote() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		DirectChannel output = new DirectChannel();
+		registry.outbound("foo.0", output, new Properties());
+		assertEquals(1, remote.calls.size());
+		assertEquals("outbound foo.0 {}", remote.calls.get(0));
+		// moves into memory once a local consumer shows up
+		QueueChannel input = new QueueChannel();
+		registry.inbound("foo.0", input, new Properties());
+		assertEquals(4, remote.calls.size());
+		assertEquals("inbound foo.0 {}", remote.calls.get(1));
+		assertEquals("unbind", remote.calls.get(2));
+		assertEquals("outbound foo.0 {publishOnly=true}", remote.calls.get(3));
+		output.send(MessageBuilder.withPayload("hello").build());
+		assertNotNull(input.receive(0));
+		registry.destroy();
+	}
+
+	@Test
+	public void producerGoesRemoteWhenASecondLocalConsumerIsBound() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		registry.inbound("foo.0", new QueueChannel(), new Properties());
+		registry.outbound("foo.0", new DirectChannel(), new Properties());
+		registry.inbound("foo.0", new QueueChannel(), new Properties());
+		assertEquals(5, remote.calls.size());
+		assertEquals("inbound foo.0 {}", remote.calls.get(2));
+		assertEquals("unbind", remote.calls.get(3));
+		assertEquals("outbound foo.0 {}", remote.calls.get(4));
+		registry.destroy();
+	}
+
+	@Test
+	public void concurrentConsumerIsNotShortCircuited() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		Properties properties = new Properties();
+		properties.setProperty(ConfigurableChannelRegistry.CONCURRENCY, "3");
+		QueueChannel input = new QueueChannel();
+		registry.inbound("foo.0", input, properties);
+		DirectChannel output = new DirectChannel();
+		registry.outbound("foo.0", output, new Properties());
+		assertEquals(2, remote.calls.size());
+		assertEquals("outbound foo.0 {}", remote.calls.get(1));
+		registry.destroy();
+	}
+
+	@Test
+	public void producerIsReconnectedWhenItsLocalConsumerIsUnbound() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		QueueChannel oldInput = new QueueChannel();
+		DirectChannel output = new DirectChannel();
+		registry.inbound("foo.0", oldInput, new Properties());
+		registry.outbound("foo.0", output, new Properties());
+		QueueChannel newInput = new QueueChannel();
+		registry.inbound("foo.0", newInput, new Properties());
+		registry.unbind(oldInput);
+		output.send(MessageBuilder.withPayload("hello").build());
+		assertNull(oldInput.receive(0));
+		assertNotNull(newInput.receive(0));
+		registry.destroy();
+	}
+
+	@Test
+	public void producerGoesRemoteWhenItsLastLocalConsumerIsUnbound() {
+		RecordingRegistry remote = new RecordingRegistry();
+		HybridChannelRegistry registry = new HybridChannelRegistry(remote);
+		QueueChannel input = new QueueChannel();
+		registry.inbound("foo.0", input, new Properties());
+		registry.outbound("foo.0", new DirectChannel(), new Properties());
+		registry.unbind(input);
+		assertEquals(5, remote.calls.size());
+		assertEquals("unbind", remote.calls.get(2));
+		assertEquals("unbind", remote.calls.get(3));
+		assertEquals("outbound foo.0 {}", remote.calls.get(4));
+		registry.destroy();
+	}
+
+
+	private static class RecordingRegistry implements ConfigurableChannelRegistry {
+
+		private final List<String> calls = new ArrayList<String>();
+
+		// what the outbound bindings received
+		private final List<Message<?>> published = new ArrayList<Message<?>>();
+
+		private final Map<MessageChannel, MessageHandler> outbound = new HashMap<MessageChannel, MessageHandler>();
+
+		@Override
+		public void inbound(String name, MessageChannel channel) {
+			this.inbound(name, channel, new Properties());
+		}
+
+		@Override
+		public void outbound(String name, MessageChannel channel) {
+			this.outbound(name, channel, new Properties());
+		}
+
+		@Override
+		public void tap(String name, MessageChannel channel) {
+			this.calls.add("tap " + name);
+		}
+
+		@Override
+		public void inbound(String name, MessageChannel channel, Properties properties) {
+			this.calls.add("inbound " + name + " " + properties);
+		}
+
+		@Override
+		public void outbound(String name, MessageChannel channel, Properties properties) {
+			this.calls.add("outbound " + name + " " + properties);
+			MessageHandler handler = new MessageHandler() {
+				@Override
+				public void handleMessage(Message<?> message) {
+					published.add(message);
+				}
+			};
+			((SubscribableChannel) channel).subscribe(handler);
+			this.outbound.put(channel, handler);
+		}
+
+		@Override
+		public void unbind(MessageChannel channel) {
+			this.calls.add("unbind");
+			MessageHandler handler = this.outbound.remove(channel);
+			if (handler != null) {
+				((SubscribableChannel) channel).unsubscribe(handler);
+			}
+		}
+	}
+
+}
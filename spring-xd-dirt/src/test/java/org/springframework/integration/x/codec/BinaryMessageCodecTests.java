@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.x.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageHeaders;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * @author agent
+ */
+public class BinaryMessageCodecTests {
+
+	private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+	@Test
+	public void stringPayloadAndHeaders() {
+		UUID correlationId = UUID.randomUUID();
+		Message<?> message = MessageBuilder.withPayload("hello")
+				.setCorrelationId(correlationId)
+				.setSequenceNumber(3)
+				.setHeader("custom", "value")
+				.setHeader("count", 42L)
+				.setHeader("flag", true)
+				.setHeader("nothing", null)
+				.build();
+		Message<?> decoded = codec.decode(codec.encode(message));
+		assertEquals("hello", decoded.getPayload());
+		assertEquals(correlationId, decoded.getHeaders().getCorrelationId());
+		assertEquals(Integer.valueOf(3), decoded.getHeaders().getSequenceNumber());
+		assertEquals("value", decoded.getHeaders().get("custom"));
+		assertEquals(42L, decoded.getHeaders().get("count"));
+		assertEquals(true, decoded.getHeaders().get("flag"));
+		assertNull(decoded.getHeaders().get("nothing"));
+	}
+
+	@Test
+	public void byteArrayPayloadPassesThrough() {
+		byte[] payload = new byte[] {0, 1, 2, -1};
+		Message<?> decoded = codec.decode(codec.encode(MessageBuilder.withPayload(payload).build()));
+		assertArrayEquals(payload, (byte[]) decoded.getPayload());
+	}
+
+	@Test
+	public void serializablePayload() {
+		Date payload = new Date();
+		Message<?> decoded = codec.decode(codec.encode(MessageBuilder.withPayload(payload).build()));
+		assertEquals(payload, decoded.getPayload());
+	}
+
+	@Test
+	public void nonSerializableHeaderDropped() {
+		Message<?> message = MessageBuilder.withPayload("x").setReplyChannel(new QueueChannel()).build();
+		Message<?> decoded = codec.decode(codec.encode(message));
+		assertFalse(decoded.getHeaders().containsKey(MessageHeaders.REPLY_CHANNEL));
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.springframework.integration.MessagingException;
+
+/**
+ * @author agent
+ */
+public class PayloadCompressorTests {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void largeValueRoundTrip() {
+		PayloadCompressor compressor = new PayloadCompressor();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			text.append("{\"user\":\"someone\",\"text\":\"tweet number ").append(i).append("\"}\n");
+		}
+		byte[] value = text.toString().getBytes(UTF8);
+		byte[] compressed = compressor.compress(value);
+		assertTrue(PayloadCompressor.isCompressed(compressed));
+		assertTrue(compressed.length < value.length);
+		assertArrayEquals(value, new PayloadCompressor().decompress(compressed));
+	}
+
+	@Test
+	public void smallValuePassesThrough() {
+		PayloadCompressor compressor = new PayloadCompressor();
+		byte[] value = "hello".getBytes(UTF8);
+		assertSame(value, compressor.compress(value));
+		assertSame(value, compressor.decompress(value));
+	}
+
+	@Test
+	public void valueStartingWithMarkerIsWrapped() {
+		PayloadCompressor compressor = new PayloadCompressor();
+		byte[] value = new byte[] {(byte) 0xFF, 'Z', 1, 2};
+		byte[] sent = compressor.compress(value);
+		assertTrue(PayloadCompressor.isCompressed(sent));
+		assertArrayEquals(value, compressor.decompress(sent));
+	}
+
+	@Test
+	public void everyValueStartingWithMarkerByteIsWrapped() {
+		PayloadCompressor compressor = new PayloadCompressor();
+		// looks like a metrics stamp, which only the transport may put in front
+		byte[] value = new byte[] {(byte) 0xFF, 'T', 1, 2};
+		byte[] sent = compressor.compress(value);
+		assertTrue(PayloadCompressor.isCompressed(sent));
+		assertArrayEquals(value, compressor.decompress(sent));
+	}
+
+	@Test
+	public void trainedDictionaryIsSharedThroughStore() {
+		MapDictionaryStore store = new MapDictionaryStore();
+		PayloadCompressor sender = new PayloadCompressor();
+		sender.setThreshold(0);
+		sender.setTrainingSamples(50);
+		sender.setDictionaryStore(store);
+		for (int i = 0; i < 50; i++) {
+			sender.compress(syslogLine(i));
+		}
+		assertFalse(store.dictionaries.isEmpty());
+		byte[] value = syslogLine(1000);
+		byte[] compressed = sender.compress(value);
+		assertTrue(PayloadCompressor.isCompressed(compressed));
+		assertTrue(compressed.length < value.length * 2 / 3);
+		PayloadCompressor receiver = new PayloadCompressor();
+		receiver.setDictionaryStore(store);
+		assertArrayEquals(value, receiver.decompress(compressed));
+	}
+
+	@Test(expected = MessagingException.class)
+	public void unknownDictionary() {
+		PayloadCompressor sender = new PayloadCompressor();
+		sender.setThreshold(0);
+		sender.setDictionary("localhost sshd[: Accepted publickey for ".getBytes(UTF8));
+		new PayloadCompressor().decompress(sender.compress(syslogLine(1)));
+	}
+
+	private static byte[] syslogLine(int i) {
+		return ("<34>Oct 11 22:14:15 localhost sshd[" + (1000 + i) + "]: Accepted publickey for deploy from 10.0.0."
+				+ (i % 250) + " port 22").getBytes(UTF8);
+	}
+
+
+	private static class MapDictionaryStore implements PayloadCompressor.DictionaryStore {
+
+		private final Map<Long, byte[]> dictionaries = new HashMap<Long, byte[]>();
+
+		@Override
+		public void save(long id, byte[] dictionary) {
+			this.dictionaries.put(id, dictionary);
+		}
+
+		@Override
+		public byte[] load(long id) {
+			return this.dictionaries.get(id);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+/**
+ * @author agent
+ */
+public class MonitoredRedisConnectionFactoryTests {
+
+	@Test
+	public void closingTwiceReturnsTheConnectionOnce() {
+		StubConnectionFactory target = new StubConnectionFactory();
+		MonitoredRedisConnectionFactory connectionFactory = new MonitoredRedisConnectionFactory(target);
+		RedisConnection first = connectionFactory.getConnection();
+		RedisConnection second = connectionFactory.getConnection();
+		assertEquals(2, connectionFactory.getBorrowedConnections());
+		first.close();
+		first.close();
+		assertEquals(1, connectionFactory.getBorrowedConnections());
+		// the close still reaches the target every time
+		assertEquals(2, target.closes.get());
+		second.close();
+		assertEquals(0, connectionFactory.getBorrowedConnections());
+		assertEquals(2L, connectionFactory.getBorrowCount());
+		assertEquals(0, connectionFactory.getWaitingThreads());
+	}
+
+	@Test
+	public void failedBorrowIsNotCounted() {
+		StubConnectionFactory target = new StubConnectionFactory();
+		target.fail = true;
+		MonitoredRedisConnectionFactory connectionFactory = new MonitoredRedisConnectionFactory(target);
+		try {
+			connectionFactory.getConnection();
+			fail("expected RedisConnectionFailureException");
+		}
+		catch (RedisConnectionFailureException e) {
+			// expected
+		}
+		assertEquals(0, connectionFactory.getBorrowedConnections());
+		assertEquals(0L, connectionFactory.getBorrowCount());
+		assertEquals(0, connectionFactory.getWaitingThreads());
+	}
+
+
+	private static class StubConnectionFactory implements RedisConnectionFactory {
+
+		private final AtomicInteger closes = new AtomicInteger();
+
+		private volatile boolean fail;
+
+		@Override
+		public RedisConnection getConnection() {
+			if (this.fail) {
+				throw new RedisConnectionFailureException("no connection");
+			}
+			return (RedisConnection) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+					new Class<?>[] {RedisConnection.class}, new InvocationHandler() {
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("close")) {
+								closes.incrementAndGet();
+							}
+							return null;
+						}
+					});
+		}
+
+		@Override
+		public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class QueueFrameTests {
+
+	@Test
+	public void stampedFrameRoundTrip() {
+		byte[] body = "payload".getBytes();
+		byte[] value = QueueFrame.frame(body, QueueFrame.BINARY, 1234L);
+		assertEquals(1234L, QueueFrame.timestamp(value));
+		QueueFrame frame = QueueFrame.parse(value);
+		assertEquals(1234L, frame.getTimestamp());
+		assertTrue(frame.isBinary());
+		assertFalse(frame.isCompressed());
+		assertArrayEquals(body, frame.getBody());
+	}
+
+	@Test
+	public void unstampedFrameHasNoTimestamp() {
+		// a body that starts like a header is left alone
+		byte[] body = new byte[] {(byte) 0xFF, 'F', QueueFrame.STAMPED, 1};
+		byte[] value = QueueFrame.frame(body, QueueFrame.COMPRESSED, -1);
+		assertEquals(-1L, QueueFrame.timestamp(value));
+		QueueFrame frame = QueueFrame.parse(value);
+		assertEquals(-1L, frame.getTimestamp());
+		assertTrue(frame.isCompressed());
+		assertArrayEquals(body, frame.getBody());
+	}
+
+	@Test
+	public void valueWithoutHeaderIsTheBody() {
+		byte[] value = "payload".getBytes();
+		assertEquals(-1L, QueueFrame.timestamp(value));
+		QueueFrame frame = QueueFrame.parse(value);
+		assertFalse(frame.isBinary());
+		assertArrayEquals(value, frame.getBody());
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.x.channel.registry.ConfigurableChannelRegistry;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisChannelRegistryTests {
+
+	private static final String CHANNEL = "test.registry.0";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisQueueReader queueReader;
+
+	private RedisChannelRegistry registry;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.redisTemplate.delete("queue." + CHANNEL);
+		this.queueReader = new RedisQueueReader(this.connectionFactory);
+		this.queueReader.afterPropertiesSet();
+		this.registry = new RedisChannelRegistry(this.connectionFactory);
+		this.registry.setQueueReader(this.queueReader);
+		this.registry.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.registry.destroy();
+		this.queueReader.destroy();
+		this.redisTemplate.delete("queue." + CHANNEL);
+		this.connectionFactory.destroy();
+	}
+
+	@Test
+	public void concurrentConsumerWithQueueReader() {
+		Properties properties = new Properties();
+		properties.setProperty(ConfigurableChannelRegistry.CONCURRENCY, "3");
+		QueueChannel input = new QueueChannel();
+		this.registry.inbound(CHANNEL, input, properties);
+		DirectChannel output = new DirectChannel();
+		this.registry.outbound(CHANNEL, output, new Properties());
+		for (int i = 0; i < 10; i++) {
+			output.send(MessageBuilder.withPayload("foo" + i).build());
+		}
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(input.receive(10000));
+		}
+	}
+
+	@Test
+	public void byteArrayPayloadIsReceivedUnchanged() {
+		QueueChannel input = new QueueChannel();
+		this.registry.inbound(CHANNEL, input, new Properties());
+		DirectChannel output = new DirectChannel();
+		this.registry.outbound(CHANNEL, output, new Properties());
+		// looks like a frame header and is not valid UTF-8
+		byte[] payload = new byte[] {(byte) 0xFF, 'F', 1, (byte) 0x80};
+		output.send(MessageBuilder.withPayload(payload).build());
+		output.send(MessageBuilder.withPayload("foo").build());
+		Message<?> received = input.receive(10000);
+		assertNotNull(received);
+		assertArrayEquals(payload, (byte[]) received.getPayload());
+		received = input.receive(10000);
+		assertNotNull(received);
+		assertEquals("foo", received.getPayload());
+	}
+
+	@Test
+	public void tapCountFollowsTheLiveTaps() throws Exception {
+		String key = RedisQueueOutboundChannelAdapter.subscriberCountKey("topic." + CHANNEL);
+		RedisChannelRegistry registry = new RedisChannelRegistry(this.connectionFactory);
+		registry.setTapTtl(300);
+		registry.afterPropertiesSet();
+		try {
+			QueueChannel tap = new QueueChannel();
+			registry.tap(CHANNEL, tap);
+			assertEquals("1", this.redisTemplate.opsForValue().get(key));
+			// as if it had expired while the registry was unable to refresh it
+			this.redisTemplate.delete(key);
+			Thread.sleep(500);
+			assertEquals("1", this.redisTemplate.opsForValue().get(key));
+			registry.unbind(tap);
+			assertNull(this.redisTemplate.opsForValue().get(key));
+		}
+		finally {
+			registry.destroy();
+			this.redisTemplate.delete(key);
+		}
+	}
+
+	@Test
+	public void consumerCanBeBoundAgainAfterUnbinding() {
+		QueueChannel oldInput = new QueueChannel();
+		this.registry.inbound(CHANNEL, oldInput, new Properties());
+		this.registry.unbind(oldInput);
+		QueueChannel newInput = new QueueChannel();
+		this.registry.inbound(CHANNEL, newInput, new Properties());
+		DirectChannel output = new DirectChannel();
+		this.registry.outbound(CHANNEL, output, new Properties());
+		output.send(MessageBuilder.withPayload("foo").build());
+		Message<?> received = newInput.receive(10000);
+		assertNotNull(received);
+		assertEquals("foo", received.getPayload());
+		assertNull(oldInput.receive(100));
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisInFlightReaperTests {
+
+	private static final String LIVENESS_KEY = "test.reaper.containers";
+
+	private static final String QUEUE = "queue.test.reaper";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.deleteKeys();
+	}
+
+	@After
+	public void tearDown() {
+		this.deleteKeys();
+		this.connectionFactory.destroy();
+	}
+
+	private void deleteKeys() {
+		this.redisTemplate.delete(LIVENESS_KEY);
+		this.redisTemplate.delete(QUEUE);
+		for (String consumer : new String[] {"crashed", "running", "missing", "unknown"}) {
+			this.redisTemplate.delete(RedisQueueInboundChannelAdapter.inFlightQueueName(QUEUE, consumer));
+			this.redisTemplate.delete("inflight:" + consumer);
+			this.redisTemplate.boundSetOps("inflight:consumers").remove(consumer);
+		}
+	}
+
+	@Test
+	public void staleAndMissingConsumersAreReapedOnTheSecondRun() {
+		long now = System.currentTimeMillis();
+		this.redisTemplate.boundHashOps(LIVENESS_KEY).put("crashed", "{\"timestamp\":" + (now - 60000) + "}");
+		this.redisTemplate.boundHashOps(LIVENESS_KEY).put("running", "{\"timestamp\":" + now + "}");
+		this.redisTemplate.boundHashOps(LIVENESS_KEY).put("unknown", "not json");
+		for (String consumer : new String[] {"crashed", "running", "missing", "unknown"}) {
+			RedisInFlightReaper.register(this.redisTemplate, consumer, Collections.singleton(QUEUE));
+			this.redisTemplate.boundListOps(RedisQueueInboundChannelAdapter.inFlightQueueName(QUEUE, consumer))
+					.leftPush(consumer);
+		}
+		RedisInFlightReaper reaper = new RedisInFlightReaper(this.connectionFactory, LIVENESS_KEY);
+		reaper.setStaleAfter(10000);
+		reaper.run();
+		assertEquals(0L, this.redisTemplate.boundListOps(QUEUE).size().longValue());
+		reaper.run();
+		assertEquals(2L, this.redisTemplate.boundListOps(QUEUE).size().longValue());
+		assertEquals(0L, this.inFlightCount("crashed"));
+		assertEquals(0L, this.inFlightCount("missing"));
+		assertEquals(1L, this.inFlightCount("running"));
+		assertEquals(1L, this.inFlightCount("unknown"));
+	}
+
+	private long inFlightCount(String consumer) {
+		return this.redisTemplate.boundListOps(RedisQueueInboundChannelAdapter.inFlightQueueName(QUEUE, consumer))
+				.size().longValue();
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisQueueInboundChannelAdapterTests {
+
+	private static final String QUEUE = "queue.test.inbound";
+
+	private static final String CONSUMER = "test-consumer";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisQueueInboundChannelAdapter adapter;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.deleteQueues();
+	}
+
+	@After
+	public void tearDown() {
+		if (this.adapter != null) {
+			this.adapter.stop();
+		}
+		this.deleteQueues();
+		this.connectionFactory.destroy();
+	}
+
+	private void deleteQueues() {
+		this.redisTemplate.delete(QUEUE);
+		this.redisTemplate.delete(RedisQueueInboundChannelAdapter.inFlightQueueName(QUEUE, CONSUMER));
+		this.redisTemplate.delete("inflight:" + CONSUMER);
+		this.redisTemplate.boundSetOps("inflight:consumers").remove(CONSUMER);
+	}
+
+	private void push(int count) {
+		// senders push to the head, so the tail holds the oldest entry
+		for (int i = 0; i < count; i++) {
+			this.redisTemplate.boundListOps(QUEUE).leftPush("" + i);
+		}
+	}
+
+	@Test
+	public void drainedEntriesKeepTheirOrder() {
+		this.push(10);
+		QueueChannel output = new QueueChannel();
+		this.adapter = new RedisQueueInboundChannelAdapter(QUEUE, this.connectionFactory);
+		this.adapter.setDrainSize(4);
+		this.adapter.setOutputChannel(output);
+		this.adapter.afterPropertiesSet();
+		this.adapter.start();
+		for (int i = 0; i < 10; i++) {
+			Message<?> message = output.receive(10000);
+			assertNotNull(message);
+			assertEquals("" + i, message.getPayload());
+		}
+	}
+
+	@Test
+	public void batchPayloadHoldsDrainedEntriesInOrder() {
+		this.push(10);
+		QueueChannel output = new QueueChannel();
+		this.adapter = new RedisQueueInboundChannelAdapter(QUEUE, this.connectionFactory);
+		this.adapter.setDrainSize(5);
+		this.adapter.setBatchPayload(true);
+		this.adapter.setOutputChannel(output);
+		this.adapter.afterPropertiesSet();
+		this.adapter.start();
+		List<Object> received = new ArrayList<Object>();
+		while (received.size() < 10) {
+			Message<?> message = output.receive(10000);
+			assertNotNull(message);
+			List<?> batch = (List<?>) message.getPayload();
+			assertTrue(batch.size() <= 5);
+			received.addAll(batch);
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals("" + i, received.get(i));
+		}
+	}
+
+	@Test
+	public void reliableEntriesLeaveTheInFlightListOnceSent() throws Exception {
+		this.push(3);
+		QueueChannel output = new QueueChannel();
+		this.adapter = new RedisQueueInboundChannelAdapter(QUEUE, this.connectionFactory);
+		this.adapter.setReliable(true);
+		this.adapter.setConsumerId(CONSUMER);
+		this.adapter.setAckInterval(50);
+		this.adapter.setOutputChannel(output);
+		this.adapter.afterPropertiesSet();
+		this.adapter.start();
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(output.receive(10000));
+		}
+		String inFlight = RedisQueueInboundChannelAdapter.inFlightQueueName(QUEUE, CONSUMER);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (this.redisTemplate.boundListOps(inFlight).size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(0L, this.redisTemplate.boundListOps(inFlight).size().longValue());
+		assertTrue(this.redisTemplate.boundSetOps("inflight:consumers").isMember(CONSUMER));
+	}
+
+}
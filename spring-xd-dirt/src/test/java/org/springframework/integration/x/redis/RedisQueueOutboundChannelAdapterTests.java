@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageHandlingException;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.message.ErrorMessage;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * Tests of the adapter that need no Redis server, run against a port that
+ * nothing listens on.
+ *
+ * @author agent
+ */
+public class RedisQueueOutboundChannelAdapterTests {
+
+	private JedisConnectionFactory connectionFactory;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.setPort(1);
+		this.connectionFactory.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		this.connectionFactory.destroy();
+	}
+
+	@Test
+	public void bufferedMessagesGoToErrorChannelWhenFlushFails() throws Exception {
+		QueueChannel errorChannel = new QueueChannel();
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter("queue.test.flush",
+				this.connectionFactory);
+		adapter.setBatchSize(10);
+		adapter.setStopTimeout(500);
+		adapter.setErrorChannel(errorChannel);
+		adapter.afterPropertiesSet();
+		adapter.start();
+		for (int i = 0; i < 3; i++) {
+			// buffered, so the failure does not reach the sender
+			adapter.handleMessage(MessageBuilder.withPayload("foo" + i).build());
+		}
+		// the flusher keeps the batch while it retries
+		Thread.sleep(300);
+		assertNull(errorChannel.receive(0));
+		long start = System.currentTimeMillis();
+		adapter.stop();
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		for (int i = 0; i < 3; i++) {
+			Message<?> error = errorChannel.receive(0);
+			assertTrue(error instanceof ErrorMessage);
+			MessageHandlingException exception = (MessageHandlingException) error.getPayload();
+			assertEquals("foo" + i, exception.getFailedMessage().getPayload());
+		}
+		assertNull(errorChannel.receive(0));
+	}
+
+	@Test
+	public void sendAfterStopFailsInsteadOfBlocking() {
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter("queue.test.flush",
+				this.connectionFactory);
+		adapter.setBatchSize(10);
+		adapter.setBufferCapacity(1);
+		adapter.setStopTimeout(0);
+		adapter.afterPropertiesSet();
+		adapter.start();
+		adapter.stop();
+		try {
+			// not buffered, so the sender sees the failure
+			adapter.handleMessage(MessageBuilder.withPayload("foo").build());
+		}
+		catch (MessageHandlingException e) {
+			return;
+		}
+		throw new AssertionError("expected MessageHandlingException");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void metricsRequireFraming() throws Exception {
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter("queue.test.flush",
+				this.connectionFactory);
+		adapter.setMetrics(new QueueMetrics("queue.test.flush"));
+		adapter.afterPropertiesSet();
+	}
+
+}
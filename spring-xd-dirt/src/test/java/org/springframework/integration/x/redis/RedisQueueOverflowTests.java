@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.integration.MessageHandlingException;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter.OverflowPolicy;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisQueueOverflowTests {
+
+	private static final String QUEUE = "queue.test.overflow";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	@Rule
+	public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.deleteQueues();
+	}
+
+	@After
+	public void tearDown() {
+		this.deleteQueues();
+		this.connectionFactory.destroy();
+	}
+
+	private void deleteQueues() {
+		this.redisTemplate.delete(QUEUE);
+		this.redisTemplate.delete(RedisQueueOutboundChannelAdapter.partitionQueueName(QUEUE, 0));
+		this.redisTemplate.delete(RedisQueueOutboundChannelAdapter.partitionQueueName(QUEUE, 1));
+	}
+
+	@Test
+	public void blockTimeoutReachesSenderInBatchMode() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			this.redisTemplate.boundListOps(QUEUE).leftPush("old" + i);
+		}
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter(QUEUE, this.connectionFactory);
+		adapter.setBatchSize(10);
+		adapter.setMaxLength(5);
+		adapter.setOverflowPolicy(OverflowPolicy.BLOCK);
+		adapter.setOverflowTimeout(200);
+		adapter.afterPropertiesSet();
+		adapter.start();
+		try {
+			// the flusher learns from this push that the queue is over the cap
+			adapter.handleMessage(MessageBuilder.withPayload("first").build());
+			Thread.sleep(500);
+			assertEquals(11L, this.redisTemplate.boundListOps(QUEUE).size().longValue());
+			try {
+				adapter.handleMessage(MessageBuilder.withPayload("second").build());
+				fail("expected the sender to time out");
+			}
+			catch (MessageHandlingException e) {
+				// expected
+			}
+		}
+		finally {
+			adapter.stop();
+		}
+		assertEquals(11L, this.redisTemplate.boundListOps(QUEUE).size().longValue());
+	}
+
+	@Test
+	public void onlyTheFullPartitionSpills() throws Exception {
+		String full = RedisQueueOutboundChannelAdapter.partitionQueueName(QUEUE, 0);
+		String other = RedisQueueOutboundChannelAdapter.partitionQueueName(QUEUE, 1);
+		for (int i = 0; i < 10; i++) {
+			this.redisTemplate.boundListOps(full).leftPush("old" + i);
+		}
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter(QUEUE, this.connectionFactory);
+		adapter.setPartitions(2);
+		adapter.setPartitionHeader("key");
+		adapter.setMaxLength(5);
+		adapter.setOverflowPolicy(OverflowPolicy.SPILL);
+		adapter.setSpillDirectory(this.spillDirectory.getRoot());
+		adapter.afterPropertiesSet();
+		adapter.start();
+		try {
+			// an Integer key hashes to itself, so key 0 goes to partition 0
+			adapter.handleMessage(MessageBuilder.withPayload("overflow").setHeader("key", 0).build());
+			assertEquals(11L, this.redisTemplate.boundListOps(full).size().longValue());
+			adapter.handleMessage(MessageBuilder.withPayload("spilled").setHeader("key", 0).build());
+			adapter.handleMessage(MessageBuilder.withPayload("pushed").setHeader("key", 1).build());
+			assertEquals(11L, this.redisTemplate.boundListOps(full).size().longValue());
+			assertEquals(1L, this.redisTemplate.boundListOps(other).size().longValue());
+		}
+		finally {
+			adapter.stop();
+		}
+	}
+
+	@Test
+	public void spilledMessagesAreReplayedInOrderOnceTheQueueDrains() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			this.redisTemplate.boundListOps(QUEUE).leftPush("old" + i);
+		}
+		RedisQueueOutboundChannelAdapter adapter = new RedisQueueOutboundChannelAdapter(QUEUE, this.connectionFactory);
+		adapter.setMaxLength(5);
+		adapter.setOverflowPolicy(OverflowPolicy.SPILL);
+		adapter.setSpillDirectory(this.spillDirectory.getRoot());
+		adapter.afterPropertiesSet();
+		adapter.start();
+		try {
+			adapter.handleMessage(MessageBuilder.withPayload("overflow").build());
+			adapter.handleMessage(MessageBuilder.withPayload("spilled1").build());
+			adapter.handleMessage(MessageBuilder.withPayload("spilled2").build());
+			assertEquals(11L, this.redisTemplate.boundListOps(QUEUE).size().longValue());
+			// a consumer catches up
+			this.redisTemplate.delete(QUEUE);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (this.redisTemplate.boundListOps(QUEUE).size() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			// the oldest entry is at the tail
+			assertEquals(Arrays.asList("spilled2", "spilled1"), this.redisTemplate.boundListOps(QUEUE).range(0, -1));
+		}
+		finally {
+			adapter.stop();
+		}
+	}
+
+}
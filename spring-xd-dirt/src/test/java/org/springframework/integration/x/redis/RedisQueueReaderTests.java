@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.x.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisQueueReaderTests {
+
+	private static final String QUEUE = "queue.test.reader";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisQueueReader reader;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.redisTemplate.delete(QUEUE);
+		this.reader = new RedisQueueReader(this.connectionFactory);
+		this.reader.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.reader.destroy();
+		this.redisTemplate.delete(QUEUE);
+		this.connectionFactory.destroy();
+	}
+
+	@Test
+	public void queueIsHandledWithItsConcurrency() throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final CountDownLatch handled = new CountDownLatch(2);
+		this.reader.register(QUEUE, new RedisQueueReader.Handler() {
+			@Override
+			public void handle(String queue, byte[] value) {
+				try {
+					// only passes if both entries are handled at the same time
+					barrier.await(10, TimeUnit.SECONDS);
+					handled.countDown();
+				}
+				catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}, 2);
+		this.redisTemplate.boundListOps(QUEUE).leftPush("a");
+		this.redisTemplate.boundListOps(QUEUE).leftPush("b");
+		assertTrue(handled.await(15, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void handlersOfTheSameQueueTakeTurns() throws Exception {
+		final CountDownLatch handled = new CountDownLatch(4);
+		CountingHandler first = new CountingHandler(handled);
+		CountingHandler second = new CountingHandler(handled);
+		this.reader.register(QUEUE, first);
+		this.reader.register(QUEUE, second);
+		for (int i = 0; i < 4; i++) {
+			this.redisTemplate.boundListOps(QUEUE).leftPush("" + i);
+		}
+		assertTrue(handled.await(10, TimeUnit.SECONDS));
+		assertTrue(first.count.get() > 0);
+		assertTrue(second.count.get() > 0);
+	}
+
+	@Test
+	public void queueCanBeRegisteredAgainAfterUnregistering() throws Exception {
+		CountingHandler first = new CountingHandler(new CountDownLatch(1));
+		this.reader.register(QUEUE, first);
+		this.reader.unregister(QUEUE, first);
+		CountDownLatch handled = new CountDownLatch(1);
+		CountingHandler second = new CountingHandler(handled);
+		this.reader.register(QUEUE, second);
+		this.redisTemplate.boundListOps(QUEUE).leftPush("a");
+		assertTrue(handled.await(10, TimeUnit.SECONDS));
+		assertEquals(0, first.count.get());
+		assertEquals(1, second.count.get());
+	}
+
+
+	private static class CountingHandler implements RedisQueueReader.Handler {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		private final CountDownLatch latch;
+
+		CountingHandler(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void handle(String queue, byte[] value) {
+			this.count.incrementAndGet();
+			this.latch.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.dirt.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent;
+import org.springframework.xd.dirt.event.ModuleDefinitionChangedEvent.Change;
+import org.springframework.xd.module.JarIndex;
+
+/**
+ * @author agent
+ */
+public class FileModuleRegistryTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<ModuleDefinitionChangedEvent> events = new ArrayList<ModuleDefinitionChangedEvent>();
+
+	private File file;
+
+	private FileModuleRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.file = new File(this.folder.newFolder("sink"), "log.xml");
+		assertTrue(this.file.createNewFile());
+		this.registry = new FileModuleRegistry(this.folder.getRoot().getAbsolutePath());
+		this.registry.setScanInterval(0);
+		this.registry.setApplicationEventPublisher(new ApplicationEventPublisher() {
+			@Override
+			public void publishEvent(ApplicationEvent event) {
+				events.add((ModuleDefinitionChangedEvent) event);
+			}
+		});
+	}
+
+	@Test
+	public void lookupsAreServedFromTheScan() {
+		Resource resource = this.registry.loadResource("log", "sink");
+		assertSame(resource, this.registry.loadResource("log", "sink"));
+		this.registry.scan();
+		assertSame(resource, this.registry.loadResource("log", "sink"));
+		assertTrue(this.events.isEmpty());
+	}
+
+	@Test
+	public void changesArePublished() throws Exception {
+		Resource resource = this.registry.loadResource("log", "sink");
+		assertTrue(new File(this.file.getParentFile(), "file.xml").createNewFile());
+		assertTrue(this.file.setLastModified(this.file.lastModified() + 10000));
+		this.registry.scan();
+		assertEquals(2, this.events.size());
+		assertTrue(resource != this.registry.loadResource("log", "sink"));
+		this.events.clear();
+		assertTrue(this.file.delete());
+		this.registry.scan();
+		assertEquals(1, this.events.size());
+		assertEquals("log", this.events.get(0).getName());
+		assertEquals(Change.DELETED, this.events.get(0).getChange());
+	}
+
+	@Test
+	public void moduleLibrariesAreLoadedChildFirst() throws Exception {
+		File lib = this.folder.newFolder("sink", "log", "lib");
+		File jar = new File(lib, "lib.jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			// a library type the container has too, and an API type the module must share with it
+			for (Class<?> type : new Class<?>[] { Test.class, JarIndex.class }) {
+				String path = type.getName().replace('.', '/') + ".class";
+				out.putNextEntry(new ZipEntry(path));
+				out.write(FileCopyUtils.copyToByteArray(type.getClassLoader().getResourceAsStream(path)));
+			}
+			out.putNextEntry(new ZipEntry("log.properties"));
+			out.write("level=debug".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		assertNull(this.registry.getClassLoader("log", "sink"));
+		this.registry.scan();
+		ClassLoader classLoader = this.registry.getClassLoader("log", "sink");
+		assertNotNull(classLoader);
+		assertSame(classLoader, this.registry.getClassLoader("log", "sink"));
+		Class<?> library = classLoader.loadClass(Test.class.getName());
+		assertSame(classLoader, library.getClassLoader());
+		assertTrue(library != Test.class);
+		assertSame(JarIndex.class, classLoader.loadClass(JarIndex.class.getName()));
+		assertEquals("jar:" + jar.toURI().toURL() + "!/log.properties", classLoader.getResource("log.properties")
+				.toString());
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.xd.module.Module;
+import org.springframework.xd.module.SimpleModule;
+
+/**
+ * @author agent
+ */
+public class ModuleDeployerTests {
+
+	private final GenericApplicationContext sharedContext = new GenericApplicationContext();
+
+	private final GenericApplicationContext containerContext = new GenericApplicationContext();
+
+	private final RecordingRegistry registry = new RecordingRegistry();
+
+	private ModuleDeployer deployer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.sharedContext.getBeanFactory().registerSingleton("shared", new Object());
+		this.sharedContext.refresh();
+		this.containerContext.setParent(this.sharedContext);
+		this.containerContext.refresh();
+		this.deployer = new ModuleDeployer(this.registry);
+		this.deployer.setDeploymentConcurrency(1);
+		this.deployer.setApplicationContext(this.containerContext);
+		this.deployer.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		this.registry.release.countDown();
+		for (SimpleModule module : this.registry.modules) {
+			module.destroy();
+		}
+		this.deployer.destroy();
+		this.containerContext.close();
+		this.sharedContext.close();
+	}
+
+	@Test
+	public void modulesShareTheParentOfTheContainer() throws Exception {
+		this.deploy("test", 0, "test");
+		this.deploy("test", 1, "test");
+		assertEquals(2, this.registry.modules.size());
+		for (SimpleModule module : this.registry.modules) {
+			assertSame(this.sharedContext, module.getApplicationContext().getParent());
+			assertSame(this.sharedContext.getBean("shared"), module.getApplicationContext().getBean("shared"));
+		}
+	}
+
+	@Test
+	public void streamsDeployInParallelAndTheirModulesInOrder() throws Exception {
+		this.deployer.destroy();
+		this.deployer = new ModuleDeployer(this.registry);
+		this.deployer.setDeploymentConcurrency(4);
+		this.deployer.setApplicationContext(this.containerContext);
+		this.deployer.afterPropertiesSet();
+		this.registry.blocked = "slow0";
+		this.deploy("slow", 0, "slow0");
+		this.deploy("slow", 1, "slow1");
+		this.deploy("fast", 0, "fast0");
+		// the second module of the slow stream waits for the first, the other stream does not
+		this.awaitLookups(2);
+		Thread.sleep(200);
+		assertEquals(Arrays.asList("slow0", "fast0"), this.registry.names);
+		this.registry.release.countDown();
+		this.awaitLookups(3);
+		assertEquals("slow1", this.registry.names.get(2));
+	}
+
+	private void awaitLookups(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (this.registry.names.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(this.registry.names.size() >= count);
+	}
+
+	private void deploy(String group, int index, String name) throws Exception {
+		ModuleDeploymentRequest request = new ModuleDeploymentRequest();
+		request.setGroup(group);
+		request.setType("sink");
+		request.setModule(name);
+		request.setIndex(index);
+		this.deployer.handleMessage(MessageBuilder.withPayload(request.toString()).build());
+	}
+
+
+	private static class RecordingRegistry implements ModuleRegistry {
+
+		private final List<SimpleModule> modules = new CopyOnWriteArrayList<SimpleModule>();
+
+		private final List<String> names = new CopyOnWriteArrayList<String>();
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private volatile String blocked;
+
+		@Override
+		public Module lookup(String name, String type) {
+			this.names.add(name);
+			if (name.equals(this.blocked)) {
+				try {
+					this.release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			SimpleModule module = new SimpleModule(name, type);
+			module.addComponents(new ByteArrayResource(
+					"<beans xmlns='http://www.springframework.org/schema/beans'/>".getBytes()));
+			this.modules.add(module);
+			return module;
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class ModuleDeploymentRequestTests {
+
+	@Test
+	public void definitionHashDependsOnDefinitionOnly() {
+		ModuleDeploymentRequest request = request("file", 2);
+		request.setParameter("dir", "/tmp");
+		ModuleDeploymentRequest other = request("file", 2);
+		other.setGroup("other");
+		other.setInstance(1);
+		other.setParameter("dir", "/tmp");
+		assertEquals(request.getDefinitionHash(), other.getDefinitionHash());
+		other.setParameter("dir", "/var");
+		assertFalse(request.getDefinitionHash().equals(other.getDefinitionHash()));
+	}
+
+	@Test
+	public void jsonRoundTrip() throws Exception {
+		ModuleDeploymentRequest request = request("file", 2);
+		request.setInstance(1);
+		request.setParameter("dir", "/tmp");
+		ModuleDeploymentRequest copy = new ObjectMapper().readValue(request.toString(), ModuleDeploymentRequest.class);
+		assertEquals("2.1", copy.getSlot());
+		assertEquals("/tmp", copy.getParameters().get("dir"));
+		assertEquals(request.getDefinitionHash(), copy.getDefinitionHash());
+	}
+
+	private static ModuleDeploymentRequest request(String module, int index) {
+		ModuleDeploymentRequest request = new ModuleDeploymentRequest();
+		request.setGroup("test");
+		request.setModule(module);
+		request.setType("sink");
+		request.setIndex(index);
+		return request;
+	}
+
+}
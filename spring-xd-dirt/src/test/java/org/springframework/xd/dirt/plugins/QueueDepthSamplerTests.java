@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.integration.x.redis.RedisQueueOutboundChannelAdapter;
+import org.springframework.xd.analytics.metrics.core.Gauge;
+import org.springframework.xd.analytics.metrics.service.GaugeService;
+import org.springframework.xd.dirt.event.ModuleUndeployedEvent;
+import org.springframework.xd.module.SimpleModule;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class QueueDepthSamplerTests {
+
+	private static final String PLAIN = "queue.test.sampler.0";
+
+	private static final String PARTITIONED = "queue.test.sampler.1";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private final RecordingGaugeService gaugeService = new RecordingGaugeService();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private QueueDepthSampler sampler;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.deleteQueues();
+		this.sampler = new QueueDepthSampler(this.connectionFactory, this.gaugeService);
+		this.sampler.register("test", 0, "test.sampler.0", 1);
+		this.sampler.register("test", 1, "test.sampler.1", 2);
+	}
+
+	@After
+	public void tearDown() {
+		this.deleteQueues();
+		this.connectionFactory.destroy();
+	}
+
+	private void deleteQueues() {
+		this.redisTemplate.delete(PLAIN);
+		this.redisTemplate.delete(RedisQueueOutboundChannelAdapter.partitionQueueName(PARTITIONED, 0));
+		this.redisTemplate.delete(RedisQueueOutboundChannelAdapter.partitionQueueName(PARTITIONED, 1));
+	}
+
+	@Test
+	public void partitionsAreSummedAndTheOldestStampGivesTheLag() {
+		this.redisTemplate.boundListOps(PLAIN).leftPush("foo");
+		this.redisTemplate.boundListOps(PLAIN).leftPush("bar");
+		long now = System.currentTimeMillis();
+		this.push(RedisQueueOutboundChannelAdapter.partitionQueueName(PARTITIONED, 0), now - 1000);
+		this.push(RedisQueueOutboundChannelAdapter.partitionQueueName(PARTITIONED, 1), now - 60000);
+		this.push(RedisQueueOutboundChannelAdapter.partitionQueueName(PARTITIONED, 1), now);
+		this.sampler.sample();
+		assertEquals(Long.valueOf(2), this.gaugeService.values.get("test.0.queueDepth"));
+		// unstamped entries carry no enqueue time
+		assertEquals(Long.valueOf(0), this.gaugeService.values.get("test.0.queueLag"));
+		assertEquals(Long.valueOf(3), this.gaugeService.values.get("test.1.queueDepth"));
+		long lag = this.gaugeService.values.get("test.1.queueLag");
+		assertTrue("unexpected lag " + lag, lag >= 60000 && lag < 70000);
+	}
+
+	@Test
+	public void undeployedModulesAreNoLongerSampled() {
+		ModuleUndeployedEvent event = new ModuleUndeployedEvent(new SimpleModule("test", "sink"), "test");
+		event.setAttribute("group", "test");
+		event.setAttribute("index", "1");
+		this.sampler.onApplicationEvent(event);
+		this.sampler.sample();
+		assertTrue(this.gaugeService.values.containsKey("test.0.queueDepth"));
+		assertFalse(this.gaugeService.values.containsKey("test.1.queueDepth"));
+	}
+
+	private void push(String queue, long timestamp) {
+		final byte[] key = queue.getBytes();
+		// the stamped frame header the outbound adapter puts in front of an entry
+		final byte[] value = ByteBuffer.allocate(14).put((byte) 0xFF).put((byte) 'F').put((byte) 1)
+				.putLong(timestamp).put("foo".getBytes()).array();
+		this.redisTemplate.execute(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				return connection.lPush(key, value);
+			}
+		});
+	}
+
+
+	private static class RecordingGaugeService implements GaugeService {
+
+		private final Map<String, Long> values = new HashMap<String, Long>();
+
+		@Override
+		public Gauge getOrCreate(String name) {
+			return null;
+		}
+
+		@Override
+		public void setValue(String name, long value) {
+			this.values.put(name, value);
+		}
+
+		@Override
+		public void reset(String name) {
+			this.values.remove(name);
+		}
+	}
+
+}
@@ -17,10 +17,18 @@
 package org.springframework.xd.dirt.plugins;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 
 import org.junit.Test;
 
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.integration.MessageChannel;
 import org.springframework.integration.channel.registry.LocalChannelRegistry;
+import org.springframework.integration.x.channel.registry.ConfigurableChannelRegistry;
 import org.springframework.xd.module.Module;
 import org.springframework.xd.module.SimpleModule;
 
@@ -40,4 +48,57 @@ public class StreamPluginTests {
 		assertEquals("foo", module.getProperties().getProperty("xd.stream.name"));
 	}
 
+	@Test
+	public void channelsUnboundWhenModuleRemoved() {
+		RecordingRegistry channelRegistry = new RecordingRegistry();
+		StreamPlugin plugin = new StreamPlugin(channelRegistry);
+		SimpleModule module = new SimpleModule("testprocessor", "processor");
+		module.addComponents(new ByteArrayResource(("<beans xmlns='http://www.springframework.org/schema/beans'>"
+				+ "<bean id='input' class='org.springframework.integration.channel.DirectChannel'/>"
+				+ "<bean id='output' class='org.springframework.integration.channel.DirectChannel'/>"
+				+ "</beans>").getBytes()));
+		plugin.processModule(module, "foo", 1);
+		assertEquals(2, channelRegistry.bound.size());
+		plugin.removeModule(module, "foo", 1);
+		assertEquals(2, channelRegistry.unbound.size());
+		assertTrue(channelRegistry.unbound.containsAll(channelRegistry.bound));
+	}
+
+
+	private static class RecordingRegistry implements ConfigurableChannelRegistry {
+
+		private final List<MessageChannel> bound = new ArrayList<MessageChannel>();
+
+		private final List<MessageChannel> unbound = new ArrayList<MessageChannel>();
+
+		@Override
+		public void inbound(String name, MessageChannel channel) {
+			this.bound.add(channel);
+		}
+
+		@Override
+		public void outbound(String name, MessageChannel channel) {
+			this.bound.add(channel);
+		}
+
+		@Override
+		public void tap(String name, MessageChannel channel) {
+		}
+
+		@Override
+		public void inbound(String name, MessageChannel channel, Properties properties) {
+			this.bound.add(channel);
+		}
+
+		@Override
+		public void outbound(String name, MessageChannel channel, Properties properties) {
+			this.bound.add(channel);
+		}
+
+		@Override
+		public void unbind(MessageChannel channel) {
+			this.unbound.add(channel);
+		}
+	}
+
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.xd.dirt.container.ContainerLoad;
+import org.springframework.xd.dirt.module.ModuleDeploymentRequest;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class ContainerSchedulerTests {
+
+	private static final String CONTAINERS = "test.scheduler.containers";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private ContainerScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.redisTemplate.delete(CONTAINERS);
+		this.scheduler = new ContainerScheduler(this.connectionFactory);
+		this.scheduler.setContainersKey(CONTAINERS);
+	}
+
+	@After
+	public void tearDown() {
+		this.redisTemplate.delete(CONTAINERS);
+		this.connectionFactory.destroy();
+	}
+
+	private void publish(String id, int modules, double cpu, double heap, long age) throws Exception {
+		ContainerLoad load = new ContainerLoad();
+		load.setName(id);
+		load.setModules(modules);
+		load.setCpu(cpu);
+		load.setHeap(heap);
+		load.setTimestamp(System.currentTimeMillis() - age);
+		this.redisTemplate.boundHashOps(CONTAINERS).put(id, this.mapper.writeValueAsString(load));
+	}
+
+	private static List<ModuleDeploymentRequest> requests(String group, int count) {
+		List<ModuleDeploymentRequest> requests = new ArrayList<ModuleDeploymentRequest>();
+		for (int i = count - 1; i >= 0; i--) {
+			ModuleDeploymentRequest request = new ModuleDeploymentRequest();
+			request.setGroup(group);
+			request.setModule("module" + i);
+			request.setType((i == 0) ? "source" : "sink");
+			request.setIndex(i);
+			requests.add(request);
+		}
+		return requests;
+	}
+
+	@Test
+	public void leastLoadedSkipsStaleContainers() throws Exception {
+		this.publish("a", 3, 0.1, 0.5, 0);
+		this.publish("b", 1, 0.1, 0.5, 0);
+		this.publish("c", 0, 0.1, 0.5, 60000);
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), this.scheduler.getLiveContainers());
+		// modules placed during the call count: b has 2 after the first one, still fewer than a
+		assertEquals(Arrays.asList("b", "b"), this.scheduler.schedule(requests("test", 2)));
+	}
+
+	@Test
+	public void containersAboveTheHeapLimitAreAvoided() throws Exception {
+		this.publish("a", 0, 0.1, 0.95, 0);
+		this.publish("b", 5, 0.1, 0.5, 0);
+		assertEquals(Arrays.asList("b"), this.scheduler.schedule(requests("test", 1)));
+	}
+
+	@Test
+	public void roundRobinTakesContainersInTurn() throws Exception {
+		this.publish("a", 0, 0.1, 0.5, 0);
+		this.publish("b", 9, 0.1, 0.5, 0);
+		this.scheduler.setStrategy(ContainerScheduler.Strategy.ROUND_ROBIN);
+		assertEquals(Arrays.asList("a", "b", "a", "b"), this.scheduler.schedule(requests("test", 4)));
+	}
+
+	@Test
+	public void coLocateKeepsTheModulesOfAStreamTogether() throws Exception {
+		this.publish("a", 2, 0.1, 0.5, 0);
+		this.publish("b", 1, 0.1, 0.5, 0);
+		this.scheduler.setStrategy(ContainerScheduler.Strategy.CO_LOCATE);
+		assertEquals(Arrays.asList("b", "b", "b"), this.scheduler.schedule(requests("test", 3)));
+	}
+
+	@Test
+	public void noContainerYieldsNullPlacements() {
+		assertEquals(Arrays.asList((String) null, null), this.scheduler.schedule(requests("test", 2)));
+	}
+
+}
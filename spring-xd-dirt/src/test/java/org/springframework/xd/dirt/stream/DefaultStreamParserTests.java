@@ -73,4 +73,56 @@ public class DefaultStreamParserTests {
 		assertEquals("3", sinkParameters.get("z"));
 	}
 
+	@Test
+	public void consumerChannelParametersCopiedToProducer() {
+		DefaultStreamParser parser = new DefaultStreamParser();
+		List<ModuleDeploymentRequest> requests = parser.parse("test", "foo | bar --concurrency=4 --partitionHeader=user");
+		assertEquals(2, requests.size());
+		ModuleDeploymentRequest sink = requests.get(0);
+		ModuleDeploymentRequest source = requests.get(1);
+		assertEquals(2, sink.getParameters().size());
+		Map<String, String> sourceParameters = source.getParameters();
+		assertEquals(2, sourceParameters.size());
+		assertEquals("4", sourceParameters.get("output.concurrency"));
+		assertEquals("user", sourceParameters.get("output.partitionHeader"));
+	}
+
+	@Test
+	public void partitionedInstances() {
+		DefaultStreamParser parser = new DefaultStreamParser();
+		List<ModuleDeploymentRequest> requests = parser.parse("test",
+				"foo | bar --instances=2 --partitionKeyExpression=payload --partitionCount=5");
+		assertEquals(3, requests.size());
+		assertEquals("0,2,4", requests.get(0).getParameters().get("partitions"));
+		assertEquals("1,3", requests.get(1).getParameters().get("partitions"));
+		assertEquals(1, requests.get(1).getIndex());
+		Map<String, String> sourceParameters = requests.get(2).getParameters();
+		assertEquals("payload", sourceParameters.get("output.partitionKeyExpression"));
+		assertEquals("5", sourceParameters.get("output.partitionCount"));
+	}
+
+	@Test
+	public void partitionCountDefaultsToInstances() {
+		DefaultStreamParser parser = new DefaultStreamParser();
+		List<ModuleDeploymentRequest> requests = parser.parse("test", "foo | bar --instances=3 --partitionHeader=user");
+		assertEquals(4, requests.size());
+		assertEquals("2", requests.get(2).getParameters().get("partitions"));
+		assertEquals("3", requests.get(3).getParameters().get("output.partitionCount"));
+	}
+
+	@Test
+	public void namedChannels() {
+		DefaultStreamParser parser = new DefaultStreamParser();
+		List<ModuleDeploymentRequest> requests = parser.parse("test", ":tweets > filter --expression='a | b' | hdfs");
+		assertEquals(2, requests.size());
+		ModuleDeploymentRequest filter = requests.get(1);
+		assertEquals("processor", filter.getType());
+		assertEquals("tweets", filter.getParameters().get("channel.input"));
+		assertEquals("a | b", filter.getParameters().get("expression"));
+		requests = parser.parse("test2", "twitter > :tweets");
+		assertEquals(1, requests.size());
+		assertEquals("source", requests.get(0).getType());
+		assertEquals("tweets", requests.get(0).getParameters().get("channel.output"));
+	}
+
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.xd.test.redis.RedisAvailableRule;
+
+/**
+ * @author agent
+ */
+public class RedisStreamDeployerTests {
+
+	private static final String QUEUE = "queue.deployer";
+
+	@Rule
+	public RedisAvailableRule redisAvailableRule = new RedisAvailableRule();
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisStreamDeployer deployer;
+
+	@Before
+	public void setUp() {
+		this.connectionFactory = new JedisConnectionFactory();
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		this.deleteKeys();
+		this.deployer = new RedisStreamDeployer(this.connectionFactory);
+	}
+
+	@After
+	public void tearDown() {
+		this.deleteKeys();
+		this.connectionFactory.destroy();
+	}
+
+	private void deleteKeys() {
+		this.redisTemplate.delete(Arrays.asList(QUEUE, "deployments:test1", "deployments:test2", "placements:test1",
+				"placements:test2"));
+	}
+
+	private long queued() {
+		return this.redisTemplate.boundListOps(QUEUE).size();
+	}
+
+	@Test
+	public void onlyChangedModulesAreRedeployed() {
+		Map<String, String> streams = new LinkedHashMap<String, String>();
+		streams.put("test1", "foo | bar");
+		streams.put("test2", "foo | baz");
+		this.deployer.deployStreams(streams);
+		assertEquals(4L, this.queued());
+		assertEquals(new HashSet<Object>(Arrays.asList("0.0", "1.0")),
+				this.redisTemplate.boundHashOps("deployments:test1").keys());
+		this.deployer.deployStreams(streams);
+		assertEquals(4L, this.queued());
+		this.deployer.deployStream("test2", "foo | qux");
+		assertEquals(5L, this.queued());
+	}
+
+	@Test
+	public void undeployedStreamIsSentAgain() {
+		this.deployer.deployStream("test1", "foo | bar");
+		this.deployer.undeployStream("test1");
+		assertTrue(this.redisTemplate.boundHashOps("deployments:test1").keys().isEmpty());
+		this.deployer.deployStream("test1", "foo | bar");
+		assertEquals(4L, this.queued());
+	}
+
+	@Test
+	public void invalidStreamDeploysNothing() {
+		Map<String, String> streams = new LinkedHashMap<String, String>();
+		streams.put("test1", "foo | bar");
+		streams.put("test2", "foo |");
+		try {
+			this.deployer.deployStreams(streams);
+			fail("expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0L, this.queued());
+	}
+
+}
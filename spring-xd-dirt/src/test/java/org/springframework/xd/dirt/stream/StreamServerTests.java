@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class StreamServerTests {
+
+	private static final int PORT = 18089;
+
+	private final RecordingDeployer deployer = new RecordingDeployer();
+
+	private StreamServer server;
+
+	@Before
+	public void setUp() {
+		this.server = new StreamServer(this.deployer);
+		this.server.setPort(PORT);
+		this.server.afterPropertiesSet();
+		this.server.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.server.stop();
+	}
+
+	@Test
+	public void invalidDefinitionIsRejectedBeforeItIsAccepted() throws Exception {
+		assertEquals(400, this.post("/streams/test", "foo |"));
+		assertEquals(400, this.post("/streams", "{\"a\":\"foo | bar\",\"b\":\"foo --instances=2 | bar\"}"));
+		assertTrue(this.deployer.deployments.isEmpty());
+	}
+
+	@Test
+	public void validDefinitionIsAcceptedAndDeployed() throws Exception {
+		assertEquals(202, this.post("/streams/test", "foo | bar"));
+		Map<String, String> streams = this.deployer.deployments.poll(10, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonMap("test", "foo | bar"), streams);
+	}
+
+	@Test
+	public void requestsBeyondTheQueueCapacityAreRejected() throws Exception {
+		this.server.stop();
+		this.server = new StreamServer(this.deployer);
+		this.server.setPort(PORT + 1);
+		this.server.setRequestThreads(1);
+		this.server.setRequestQueueCapacity(0);
+		this.server.afterPropertiesSet();
+		this.server.start();
+		this.deployer.release = new CountDownLatch(1);
+		try {
+			assertEquals(202, this.post(PORT + 1, "/streams/test", "foo | bar"));
+			// the only request thread is still busy sending the deployment
+			assertEquals(Collections.singletonMap("test", "foo | bar"), this.deployer.deployments.poll(10,
+					TimeUnit.SECONDS));
+			assertEquals(503, this.post(PORT + 1, "/streams/test", "foo | bar"));
+		}
+		finally {
+			this.deployer.release.countDown();
+		}
+	}
+
+	private int post(String path, String body) throws Exception {
+		return this.post(PORT, path, body);
+	}
+
+	private int post(int port, String path, String body) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(body.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		try {
+			return connection.getResponseCode();
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+
+	private static class RecordingDeployer implements StreamDeployer {
+
+		private final BlockingQueue<Map<String, String>> deployments = new LinkedBlockingQueue<Map<String, String>>();
+
+		// if set, deployments wait for it
+		private volatile CountDownLatch release;
+
+		@Override
+		public void deployStream(String name, String config) {
+			this.deployStreams(Collections.singletonMap(name, config));
+		}
+
+		@Override
+		public void deployStreams(Map<String, String> streams) {
+			this.deployments.add(streams);
+			CountDownLatch release = this.release;
+			if (release != null) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void undeployStream(String name) {
+		}
+
+		@Override
+		public Map<String, String> getDeployedModules(String name) {
+			return Collections.emptyMap();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.dirt.stream.dsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class StreamDefinitionParserTests {
+
+	private final StreamDefinitionParser parser = new StreamDefinitionParser();
+
+	@Test
+	public void quotedValues() {
+		StreamDefinition definition = parser.parse(
+				"http --expression='payload | trim' --name=\"a \\\"b\\\"\" --count=3 | log --debug=true");
+		ModuleNode http = definition.getModules().get(0);
+		assertEquals("payload | trim", http.getParameters().get("expression").getValue());
+		assertEquals(ParameterNode.Type.STRING, http.getParameters().get("expression").getType());
+		assertEquals("a \"b\"", http.getParameters().get("name").getValue());
+		assertEquals(ParameterNode.Type.INTEGER, http.getParameters().get("count").getType());
+		ModuleNode log = definition.getModules().get(1);
+		assertEquals("log", log.getName());
+		assertEquals(ParameterNode.Type.BOOLEAN, log.getParameters().get("debug").getType());
+	}
+
+	@Test
+	public void unquotedValuesMayContainOperators() {
+		StreamDefinition definition = parser.parse("time --format=HH:mm:ss | file --dir=/tmp/a>b");
+		assertEquals("HH:mm:ss", definition.getModules().get(0).getParameters().get("format").getValue());
+		assertEquals("/tmp/a>b", definition.getModules().get(1).getParameters().get("dir").getValue());
+		assertNull(definition.getSinkChannel());
+	}
+
+	@Test
+	public void namedChannels() {
+		StreamDefinition definition = parser.parse(":tweets > filter | hdfs");
+		assertEquals("tweets", definition.getSourceChannel());
+		assertEquals("processor", definition.getModuleType(0));
+		assertEquals("sink", definition.getModuleType(1));
+		definition = parser.parse("twitter > :tweets");
+		assertEquals("tweets", definition.getSinkChannel());
+		assertEquals(1, definition.getModules().size());
+		assertEquals("source", definition.getModuleType(0));
+	}
+
+	@Test
+	public void errorPosition() {
+		assertError("foo --x=1 | | bar", 12);
+		assertError("foo --x= | bar", 9);
+		assertError("foo --x='1 | bar", 8);
+		assertError("foo", 0);
+	}
+
+	private void assertError(String definition, int position) {
+		try {
+			parser.parse(definition);
+			fail("expected StreamDefinitionException for: " + definition);
+		}
+		catch (StreamDefinitionException e) {
+			assertEquals(position, e.getPosition());
+		}
+	}
+
+}
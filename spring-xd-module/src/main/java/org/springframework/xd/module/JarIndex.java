@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.module;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the entries of a set of jars, built once when it is created. The
+ * jars stay open, with their central directories memory-mapped by the JDK, so
+ * that an entry is found with one map lookup instead of by searching the jars
+ * in turn. An index is immutable and may be shared by any number of class
+ * loaders.
+ *
+ * @author agent
+ */
+public class JarIndex {
+
+	private final ZipFile[] jars;
+
+	private final URL[] locations;
+
+	// the first jar holding each entry
+	private final Map<String, Integer> entries = new HashMap<String, Integer>();
+
+
+	public JarIndex(List<File> jars) throws IOException {
+		this.jars = new ZipFile[jars.size()];
+		this.locations = new URL[jars.size()];
+		try {
+			for (int i = 0; i < this.jars.length; i++) {
+				this.jars[i] = new ZipFile(jars.get(i));
+				this.locations[i] = jars.get(i).toURI().toURL();
+				for (Enumeration<? extends ZipEntry> e = this.jars[i].entries(); e.hasMoreElements();) {
+					ZipEntry entry = e.nextElement();
+					if (!entry.isDirectory() && !this.entries.containsKey(entry.getName())) {
+						this.entries.put(entry.getName(), i);
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			this.close();
+			throw e;
+		}
+	}
+
+
+	public boolean contains(String name) {
+		return this.entries.containsKey(name);
+	}
+
+	/**
+	 * Return the content of the entry, or null if no jar holds it.
+	 */
+	public byte[] read(String name) throws IOException {
+		Integer jar = this.entries.get(name);
+		if (jar == null) {
+			return null;
+		}
+		ZipFile zip = this.jars[jar];
+		ZipEntry entry = zip.getEntry(name);
+		InputStream in = zip.getInputStream(entry);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((entry.getSize() > 0) ? (int) entry.getSize() : 4096);
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Return the location of the jar holding the entry, or null if there is none.
+	 */
+	public URL getLocation(String name) {
+		Integer jar = this.entries.get(name);
+		return (jar != null) ? this.locations[jar] : null;
+	}
+
+	/**
+	 * Return the URL of the entry in the first jar holding it, or null.
+	 */
+	public URL getResource(String name) {
+		Integer jar = this.entries.get(name);
+		return (jar != null) ? this.entryUrl(jar, name) : null;
+	}
+
+	/**
+	 * Return the URLs of the entry in all jars holding it.
+	 */
+	public List<URL> getResources(String name) {
+		if (!this.entries.containsKey(name)) {
+			return Collections.emptyList();
+		}
+		List<URL> resources = new ArrayList<URL>();
+		for (int i = 0; i < this.jars.length; i++) {
+			if (this.jars[i].getEntry(name) != null) {
+				resources.add(this.entryUrl(i, name));
+			}
+		}
+		return resources;
+	}
+
+	public void close() {
+		for (ZipFile jar : this.jars) {
+			if (jar != null) {
+				try {
+					jar.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private URL entryUrl(int jar, String name) {
+		try {
+			return new URL("jar:" + this.locations[jar] + "!/" + name);
+		}
+		catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.xd.module;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads the classes of a module from the jars the module ships, as listed by a
+ * {@link JarIndex}. Classes and resources of the Java platform, of Spring and
+ * of Spring XD are loaded parent-first, so that a module and the container
+ * agree on the API types they exchange; everything else is loaded from the
+ * module's jars first, so that a module may use other versions of libraries
+ * than the container.
+ *
+ * @author agent
+ */
+public class ModuleClassLoader extends ClassLoader {
+
+	private static final String[] PARENT_FIRST = { "java.", "javax.", "sun.", "com.sun.", "org.w3c.", "org.xml.",
+			"org.springframework.", "org.apache.commons.logging." };
+
+	private final JarIndex index;
+
+	private final Map<URL, ProtectionDomain> protectionDomains = new HashMap<URL, ProtectionDomain>();
+
+
+	public ModuleClassLoader(JarIndex index, ClassLoader parent) {
+		super(parent);
+		if (index == null) {
+			throw new IllegalArgumentException("index must not be null");
+		}
+		this.index = index;
+	}
+
+
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> type = this.findLoadedClass(name);
+		if (type == null) {
+			if (isParentFirst(name)) {
+				type = super.loadClass(name, false);
+			}
+			else {
+				try {
+					type = this.findClass(name);
+				}
+				catch (ClassNotFoundException e) {
+					type = super.loadClass(name, false);
+				}
+			}
+		}
+		if (resolve) {
+			this.resolveClass(type);
+		}
+		return type;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String path = name.replace('.', '/') + ".class";
+		byte[] bytes;
+		try {
+			bytes = this.index.read(path);
+		}
+		catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		if (bytes == null) {
+			throw new ClassNotFoundException(name);
+		}
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			String packageName = name.substring(0, dot);
+			if (this.getPackage(packageName) == null) {
+				this.definePackage(packageName, null, null, null, null, null, null, null);
+			}
+		}
+		return this.defineClass(name, bytes, 0, bytes.length, this.protectionDomain(this.index.getLocation(path)));
+	}
+
+	@Override
+	public URL getResource(String name) {
+		if (isParentFirst(name.replace('/', '.'))) {
+			return super.getResource(name);
+		}
+		URL resource = this.findResource(name);
+		return (resource != null) ? resource : super.getResource(name);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		return this.index.getResource(name);
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		return Collections.enumeration(this.index.getResources(name));
+	}
+
+	private synchronized ProtectionDomain protectionDomain(URL location) {
+		ProtectionDomain domain = this.protectionDomains.get(location);
+		if (domain == null) {
+			domain = new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null, this, null);
+			this.protectionDomains.put(location, domain);
+		}
+		return domain;
+	}
+
+	private static boolean isParentFirst(String name) {
+		for (String prefix : PARENT_FIRST) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
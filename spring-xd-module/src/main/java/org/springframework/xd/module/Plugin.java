@@ -23,4 +23,10 @@ public interface Plugin {
 
 	void processModule(Module module, String group, int index);
 
+	/**
+	 * Release what {@link #processModule} set up for the module, e.g. its channel
+	 * bindings. Called after the module was stopped, before its context is closed.
+	 */
+	void removeModule(Module module, String group, int index);
+
 }
@@ -22,7 +22,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
 
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.GenericApplicationContext;
@@ -44,12 +47,62 @@ public class SimpleModule extends AbstractModule {
 
 	private final Properties properties = new Properties();
 
+	private volatile boolean lazyInit;
+
+	private volatile long parseTime;
+
+	private volatile long refreshTime;
+
+	private volatile long startTime;
+
 
 	public SimpleModule(String name, String type) {
 		super(name, type);
 	}
 
 
+	/**
+	 * Set whether beans are created on first use rather than when the module
+	 * starts. Lifecycle components are started with the module either way.
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * Return the time in milliseconds it took to read the module's components,
+	 * as reported by whoever added them.
+	 */
+	public long getParseTime() {
+		return this.parseTime;
+	}
+
+	public void setParseTime(long parseTime) {
+		this.parseTime = parseTime;
+	}
+
+	/**
+	 * Return the time in milliseconds it took to refresh the module's context.
+	 */
+	public long getRefreshTime() {
+		return this.refreshTime;
+	}
+
+	/**
+	 * Return the time in milliseconds it took to start the module's context.
+	 */
+	public long getStartTime() {
+		return this.startTime;
+	}
+
+	/**
+	 * Set the class loader of the module's beans, e.g. one that loads the
+	 * libraries the module ships. Must be called before components are added.
+	 */
+	public void setClassLoader(ClassLoader classLoader) {
+		this.context.setClassLoader(classLoader);
+	}
+
 	@Override
 	public void setParentContext(ApplicationContext parent) {
 		this.context.setParent(parent);
@@ -61,6 +114,20 @@ public class SimpleModule extends AbstractModule {
 		reader.loadBeanDefinitions(resource);
 	}
 
+	/**
+	 * Add the components of an already parsed module configuration, e.g. one
+	 * shared by the instances of a module. The document is only read.
+	 * @param document the parsed configuration
+	 * @param resource the resource the configuration was read from
+	 */
+	public void addComponents(Document document, Resource resource) {
+		XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(this.context);
+		// DOM implementations need not be thread-safe, even for reading
+		synchronized (document) {
+			reader.registerBeanDefinitions(document, resource);
+		}
+	}
+
 	@Override
 	public <T> Map<String, T> getComponents(Class<T> type) {
 		return context.getBeansOfType(type);
@@ -90,14 +157,44 @@ public class SimpleModule extends AbstractModule {
 
 	@Override
 	public void start() {
-		if (!this.isRunning()) {
+		if (!this.isRunning() && this.context.isActive()) {
+			// restarted after a stop
+			this.context.start();
+			if (logger.isInfoEnabled()) {
+				logger.info("restarted mod: " + this.toString());
+			}
+		}
+		else if (!this.isRunning()) {
 			PropertySourcesPlaceholderConfigurer placecholderConfigurer = new PropertySourcesPlaceholderConfigurer();
 			placecholderConfigurer.setEnvironment(this.context.getEnvironment());
 			this.context.addBeanFactoryPostProcessor(placecholderConfigurer);
-			this.context.refresh();
-			this.context.start();
+			if (this.lazyInit) {
+				for (String name : this.context.getBeanDefinitionNames()) {
+					BeanDefinition definition = this.context.getBeanDefinition(name);
+					if (definition instanceof AbstractBeanDefinition) {
+						((AbstractBeanDefinition) definition).setLazyInit(true);
+					}
+				}
+			}
+			// libraries commonly load classes through the context class loader
+			Thread thread = Thread.currentThread();
+			ClassLoader threadClassLoader = thread.getContextClassLoader();
+			thread.setContextClassLoader(this.context.getClassLoader());
+			long refreshStart = System.nanoTime();
+			long contextStart;
+			try {
+				this.context.refresh();
+				contextStart = System.nanoTime();
+				this.context.start();
+			}
+			finally {
+				thread.setContextClassLoader(threadClassLoader);
+			}
+			this.refreshTime = (contextStart - refreshStart) / 1000000;
+			this.startTime = (System.nanoTime() - contextStart) / 1000000;
 			if (logger.isInfoEnabled()) {
-				logger.info("started mod: " + this.toString());
+				logger.info("started mod: " + this.toString() + " (parse " + this.parseTime + " ms, refresh "
+						+ this.refreshTime + " ms, start " + this.startTime + " ms)");
 			}
 		}
 	}
@@ -112,6 +209,20 @@ public class SimpleModule extends AbstractModule {
 		}
 	}
 
+	/**
+	 * Stop the module and close its context, destroying its beans. The module
+	 * cannot be started again.
+	 */
+	public void destroy() {
+		this.stop();
+		if (this.context.isActive()) {
+			this.context.close();
+			if (logger.isInfoEnabled()) {
+				logger.info("destroyed mod: " + this.toString());
+			}
+		}
+	}
+
 	@Override
 	public boolean isRunning() {
 		return this.context.isActive() && this.context.isRunning();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.module;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * @author agent
+ */
+public class SimpleModuleTests {
+
+	private static final String COMPONENTS = "<beans xmlns='http://www.springframework.org/schema/beans'>"
+			+ "<bean id='plain' class='java.lang.Object'/>"
+			+ "<bean id='lifecycle' class='" + TestLifecycle.class.getName() + "'/>"
+			+ "</beans>";
+
+	@Test
+	public void lazyModuleStillStartsItsLifecycleComponents() {
+		SimpleModule module = this.module(true);
+		try {
+			assertFalse(this.beanFactory(module).containsSingleton("plain"));
+			assertTrue(this.beanFactory(module).containsSingleton("lifecycle"));
+			assertTrue(module.getApplicationContext().getBean(TestLifecycle.class).isRunning());
+			assertTrue(module.getRefreshTime() >= 0 && module.getStartTime() >= 0);
+		}
+		finally {
+			module.destroy();
+		}
+	}
+
+	@Test
+	public void eagerModuleCreatesAllComponents() {
+		SimpleModule module = this.module(false);
+		try {
+			assertTrue(this.beanFactory(module).containsSingleton("plain"));
+			assertTrue(module.getApplicationContext().getBean(TestLifecycle.class).isRunning());
+		}
+		finally {
+			module.destroy();
+		}
+	}
+
+	private SimpleModule module(boolean lazyInit) {
+		SimpleModule module = new SimpleModule("test", "sink");
+		module.setLazyInit(lazyInit);
+		module.addComponents(new ByteArrayResource(COMPONENTS.getBytes()));
+		module.start();
+		return module;
+	}
+
+	private ConfigurableListableBeanFactory beanFactory(SimpleModule module) {
+		return ((ConfigurableApplicationContext) module.getApplicationContext()).getBeanFactory();
+	}
+
+
+	public static class TestLifecycle implements SmartLifecycle {
+
+		private volatile boolean running;
+
+		@Override
+		public void start() {
+			this.running = true;
+		}
+
+		@Override
+		public void stop() {
+			this.running = false;
+		}
+
+		@Override
+		public boolean isRunning() {
+			return this.running;
+		}
+
+		@Override
+		public int getPhase() {
+			return 0;
+		}
+
+		@Override
+		public boolean isAutoStartup() {
+			return true;
+		}
+
+		@Override
+		public void stop(Runnable callback) {
+			this.stop();
+			callback.run();
+		}
+	}
+
+}